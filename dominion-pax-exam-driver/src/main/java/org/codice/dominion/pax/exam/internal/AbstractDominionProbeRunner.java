@@ -18,6 +18,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import javax.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+import org.codice.dominion.Dominion;
 import org.codice.dominion.DominionInitializationException;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -39,6 +41,9 @@ import org.slf4j.LoggerFactory;
 public abstract class AbstractDominionProbeRunner extends BlockJUnit4ClassRunner {
   private static final Logger LOGGER = LoggerFactory.getLogger(AbstractDominionProbeRunner.class);
 
+  private static final boolean REUSE_CONTAINERS =
+      Boolean.getBoolean(Dominion.REUSE_CONTAINERS_PROPERTY);
+
   protected final Class<?> testClass;
 
   protected final Object testInstance;
@@ -107,7 +112,13 @@ public abstract class AbstractDominionProbeRunner extends BlockJUnit4ClassRunner
     LOGGER.info("Staging Dominion PaxExam reactor for {}", testClass.getName());
     try {
       DominionConfigurationFactory.setTestInfo(interpolator, testInstance);
-      this.stagedReactor = manager.stageReactor();
+      this.stagedReactor =
+          AbstractDominionProbeRunner.REUSE_CONTAINERS
+              ? reactor.stage(
+                  ReusableStagedReactor.factory(
+                      () -> DominionConfigurationFactory.getConfigInfo().getFingerprint(),
+                      interpolator))
+              : manager.stageReactor();
       LOGGER.debug("{}::stage() - staged reactor = {}", this, stagedReactor);
       this.config = DominionConfigurationFactory.getConfigInfo();
     } finally {
@@ -115,6 +126,43 @@ public abstract class AbstractDominionProbeRunner extends BlockJUnit4ClassRunner
     }
   }
 
+  /**
+   * Checks if the staged reactor reused containers that were already started by a previous test
+   * class in which case they were already fully configured.
+   *
+   * @return <code>true</code> if the containers were reused; <code>false</code> otherwise
+   */
+  protected boolean wereContainersReused() {
+    return (stagedReactor instanceof ReusableStagedReactor)
+        && ((ReusableStagedReactor) stagedReactor).wasReused();
+  }
+
+  /**
+   * Gets the interpolator used to configure the containers the tests are running against. When
+   * containers are reused, this is the interpolator handed over by the test class that started them
+   * as it holds the ports reserved for these containers.
+   *
+   * @return the interpolator used to configure the containers
+   */
+  public PaxExamDriverInterpolator getInterpolator() {
+    return (stagedReactor instanceof ReusableStagedReactor)
+        ? ((ReusableStagedReactor) stagedReactor).getInterpolator()
+        : interpolator;
+  }
+
+  /**
+   * Releases the interpolator for this test class unless it is owned by a reactor that keeps its
+   * containers running after the test class completes in which case the reactor will close it once
+   * the containers are stopped.
+   */
+  @SuppressWarnings(
+      "squid:CallToDeprecatedMethod" /* don't care if interpolation closing fails at this point */)
+  protected void releaseInterpolator() {
+    if (!(stagedReactor instanceof ReusableStagedReactor)) {
+      IOUtils.closeQuietly(interpolator);
+    }
+  }
+
   @Override
   protected Statement withBeforeClasses(Statement statement) {
     final List<FrameworkMethod> befores = getTestClass().getAnnotatedMethods(BeforeClass.class);
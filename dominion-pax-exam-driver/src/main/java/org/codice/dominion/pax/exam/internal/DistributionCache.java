@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.pax.exam.internal;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.codice.dominion.Dominion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of Karaf distributions which have been repackaged as uncompressed zip archives. PaxExam
+ * always extracts the distribution from its framework URL when staging a container. Pointing it to
+ * a cached uncompressed archive avoids having to decompress the distribution (and for tar.gz
+ * distributions, to first write a temporary tar file) every time a container is staged.
+ *
+ * <p>Cached archives are keyed by a digest of the original distribution and shared across VMs. The
+ * location of Karaf's home directory inside the distribution is also recorded when repackaging so
+ * it doesn't have to be searched for once extracted. Unix file modes are preserved when
+ * repackaging. Distributions containing symbolic or hard links are not cached since links cannot be
+ * represented faithfully.
+ *
+ * <p><i>Note:</i> Caching is only enabled when the {@link Dominion#DISTRIBUTION_CACHE_PROPERTY}
+ * system property is defined with the directory where to cache the distributions.
+ */
+public class DistributionCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DistributionCache.class);
+
+  private static final String KARAF_BASE = "karaf.base";
+
+  private static final String SOURCE = "source";
+
+  @Nullable
+  private static final String CACHE_DIR = System.getProperty(Dominion.DISTRIBUTION_CACHE_PROPERTY);
+
+  /** Maps original framework URLs to their corresponding cached framework URLs. */
+  private static final Map<String, String> URLS = new ConcurrentHashMap<>();
+
+  /** Maps cached framework URLs to the relative location of Karaf's home directory. */
+  private static final Map<String, String> BASES = new ConcurrentHashMap<>();
+
+  /**
+   * Gets a framework URL for the cached version of the specified distribution, caching it first if
+   * need be.
+   *
+   * @param url the original framework URL for the distribution
+   * @return the corresponding cached framework URL or <code>url</code> if caching is disabled or if
+   *     the distribution cannot be cached
+   */
+  public static String get(@Nullable String url) {
+    if ((url == null) || StringUtils.isEmpty(DistributionCache.CACHE_DIR)) {
+      return url;
+    }
+    return DistributionCache.URLS.computeIfAbsent(url, DistributionCache::cache);
+  }
+
+  /**
+   * Gets the location of Karaf's home directory relative to the directory where the specified
+   * cached distribution gets extracted.
+   *
+   * @param url the cached framework URL for the distribution
+   * @return the relative location of Karaf's home directory or <code>null</code> if unknown
+   */
+  @Nullable
+  public static String getKarafBase(@Nullable String url) {
+    return (url != null) ? DistributionCache.BASES.get(url) : null;
+  }
+
+  private static String cache(String url) {
+    final Path dir = Paths.get(DistributionCache.CACHE_DIR).toAbsolutePath();
+
+    try {
+      Files.createDirectories(dir);
+      final Path source = Files.createTempFile(dir, "download-", ".tmp");
+
+      try {
+        final String digest = DistributionCache.download(url, source);
+        final Path archive = dir.resolve(digest + ".zip");
+        final Path info = dir.resolve(digest + ".properties");
+        final Properties properties = new Properties();
+
+        if (!Files.exists(archive) || !Files.exists(info)) {
+          LOGGER.info("Caching distribution '{}' in: {}", url, archive);
+          properties.setProperty(DistributionCache.SOURCE, url);
+          DistributionCache.repackage(url, source, archive, info, properties);
+        } else {
+          try (final InputStream is = Files.newInputStream(info)) {
+            properties.load(is);
+          }
+          LOGGER.info("Using cached distribution for '{}': {}", url, archive);
+        }
+        final String cached = archive.toUri().toURL().toString();
+        final String base = properties.getProperty(DistributionCache.KARAF_BASE);
+
+        if (base != null) {
+          DistributionCache.BASES.put(cached, base);
+        }
+        return cached;
+      } finally {
+        Files.deleteIfExists(source);
+      }
+    } catch (UncacheableDistributionException e) {
+      LOGGER.info(
+          "Distribution '{}' cannot be cached ({}); using it directly", url, e.getMessage());
+      return url;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Failed to cache distribution '{}'; using it directly", url, e);
+      return url;
+    }
+  }
+
+  private static String download(String url, Path target) throws IOException {
+    final MessageDigest md;
+
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) { // should not happen as all VMs must support SHA-256
+      throw new IOException(e);
+    }
+    try (final InputStream is = new DigestInputStream(new URL(url).openStream(), md)) {
+      Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    final StringBuilder sb = new StringBuilder();
+
+    for (final byte b : md.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  private static void repackage(
+      String url, Path source, Path archive, Path info, Properties properties) throws IOException {
+    final Path tmpArchive = Files.createTempFile(archive.getParent(), "archive-", ".tmp");
+    final Path tmpInfo = Files.createTempFile(info.getParent(), "info-", ".tmp");
+
+    try {
+      final KarafBaseLocator locator = new KarafBaseLocator();
+
+      try (final ArchiveInputStream ais = DistributionCache.open(url, source);
+          final ZipArchiveOutputStream zos = new ZipArchiveOutputStream(tmpArchive.toFile())) {
+        zos.setMethod(ZipArchiveOutputStream.STORED);
+        for (ArchiveEntry entry = ais.getNextEntry(); entry != null; entry = ais.getNextEntry()) {
+          if (DistributionCache.isLink(entry)) {
+            // links would otherwise be extracted as empty files
+            throw new UncacheableDistributionException(
+                "distribution contains links: " + entry.getName());
+          }
+          final ZipArchiveEntry zentry = new ZipArchiveEntry(entry.getName());
+          final int mode = DistributionCache.getUnixMode(entry);
+
+          zentry.setTime(entry.getLastModifiedDate().getTime());
+          if (mode != 0) {
+            zentry.setUnixMode(mode);
+          }
+          zos.putArchiveEntry(zentry);
+          if (!entry.isDirectory()) {
+            IOUtils.copy(ais, zos);
+          }
+          zos.closeArchiveEntry();
+          locator.visit(entry);
+        }
+      }
+      final String base = locator.getKarafBase();
+
+      if (base != null) {
+        properties.setProperty(DistributionCache.KARAF_BASE, base);
+      }
+      try (final OutputStream os = Files.newOutputStream(tmpInfo)) {
+        properties.store(os, null);
+      }
+      // move the archive last as it is the one PaxExam will be pointed to
+      Files.move(tmpInfo, info, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(tmpArchive, archive, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpArchive);
+      Files.deleteIfExists(tmpInfo);
+    }
+  }
+
+  private static boolean isLink(ArchiveEntry entry) {
+    if (entry instanceof TarArchiveEntry) {
+      final TarArchiveEntry tentry = (TarArchiveEntry) entry;
+
+      return tentry.isSymbolicLink() || tentry.isLink();
+    }
+    return (entry instanceof ZipArchiveEntry) && ((ZipArchiveEntry) entry).isUnixSymlink();
+  }
+
+  private static int getUnixMode(ArchiveEntry entry) {
+    if (entry instanceof TarArchiveEntry) {
+      return ((TarArchiveEntry) entry).getMode();
+    } else if (entry instanceof ZipArchiveEntry) {
+      return ((ZipArchiveEntry) entry).getUnixMode();
+    }
+    return 0;
+  }
+
+  // see org.ops4j.pax.exam.karaf.container.internal.ArchiveExtractor.extract()
+  private static ArchiveInputStream open(String url, Path source) throws IOException {
+    final InputStream is = new BufferedInputStream(Files.newInputStream(source));
+
+    try {
+      final URL u = new URL(url);
+      final boolean file = "file".equals(u.getProtocol());
+
+      if (file ? u.getFile().contains(".zip") : u.toExternalForm().contains("/zip")) {
+        return new ZipArchiveInputStream(is);
+      } else if (file ? u.getFile().contains(".tar.gz") : u.toExternalForm().contains("/tar.gz")) {
+        return new TarArchiveInputStream(new GzipCompressorInputStream(is));
+      }
+      throw new IOException("unknown packaging; only zip or tar.gz can be handled: " + url);
+    } catch (IOException | RuntimeException e) {
+      is.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Locates the shallowest directory that contains both a <code>system</code> and an <code>etc
+   * </code> directory as entries are visited.
+   *
+   * <p><i>Note:</i> The located directory is reported relative to the first level of the archive
+   * since PaxExam strips it when extracting.
+   */
+  private static class KarafBaseLocator {
+    /** Maps directories to a bitmask of the <code>system</code> and <code>etc</code> dirs seen. */
+    private final Map<String, Integer> candidates = new HashMap<>();
+
+    @Nullable private String base = null;
+
+    private int depth = Integer.MAX_VALUE;
+
+    void visit(ArchiveEntry entry) {
+      final String name = StringUtils.removeEnd(entry.getName().replace('\\', '/'), "/");
+      final int index = name.indexOf('/');
+
+      if (index == -1) {
+        return;
+      }
+      final String[] path = name.substring(index + 1).split("/");
+      // all path elements are directories except for the last one unless the entry is a directory
+      final int dirs = entry.isDirectory() ? path.length : (path.length - 1);
+
+      for (int i = 0; i < dirs; i++) {
+        final int mask = "system".equals(path[i]) ? 1 : ("etc".equals(path[i]) ? 2 : 0);
+
+        if ((mask != 0) && (i < depth)) {
+          final String parent = String.join("/", Arrays.copyOfRange(path, 0, i));
+
+          if (candidates.merge(parent, mask, (a, b) -> a | b) == 3) {
+            this.base = parent;
+            this.depth = i;
+          }
+        }
+      }
+    }
+
+    @Nullable
+    String getKarafBase() {
+      return base;
+    }
+  }
+
+  /** Exception thrown when a distribution cannot be faithfully repackaged. */
+  private static class UncacheableDistributionException extends IOException {
+    UncacheableDistributionException(String message) {
+      super(message);
+    }
+  }
+
+  private DistributionCache() {}
+}
@@ -15,15 +15,16 @@ package org.codice.dominion.pax.exam.internal;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -123,10 +124,8 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
     // be reported right away and abort the whole thing
     final Set<Class<?>> classes = new HashSet<>(8);
 
-    for (final Iterator<Option.System> i = ServiceLoader.load(Option.System.class).iterator();
-        i.hasNext(); ) {
-      classes.add(i.next().getClass()); // we don't care about the actual object
-    }
+    Option.getSystems()
+        .forEach(s -> classes.add(s.getClass())); // we don't care about the actual object
     classes.add(testClass);
     final AnnotationOptions opts =
         new AnnotationOptions(
@@ -155,6 +154,23 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
     return interpolator;
   }
 
+  /**
+   * Gets a fingerprint of the options configured for the container. Containers configured with
+   * options having the same fingerprint are considered equivalent and can be reused across test
+   * classes.
+   *
+   * @return a fingerprint of the options configured for the container
+   * @throws IllegalStateException if called before options have been created by PaxExam
+   */
+  public String getFingerprint() {
+    final AnnotationOptions opts = options;
+
+    if (opts == null) {
+      throw new IllegalStateException("options have not been created yet");
+    }
+    return opts.getFingerprint();
+  }
+
   @Override
   public String toString() {
     return "DominionConfigurationFactory["
@@ -192,10 +208,24 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
 
   /**
    * Wraps all annotations defining options into one single composite option for a given container.
+   *
+   * <p>Options are expanded from their annotations every time they are retrieved until all of them
+   * could be interpolated (i.e. typically once the container has been staged). At that point, the
+   * expanded options are materialized into an immutable list and options of a given type are
+   * indexed the first time they are requested such that subsequent retrievals no longer require any
+   * expansions.
    */
   public class AnnotationOptions implements CompositeOption {
     private final List<ExtensionOption> options;
     private final KarafDistributionBaseConfigurationOption distribution;
+    private final String fingerprint;
+
+    /** All expanded options once they have all been interpolated. */
+    @Nullable private volatile List<org.ops4j.pax.exam.Option> expanded = null;
+
+    /** Expanded options keyed by the type of options requested. */
+    private final Map<Class<?>, List<org.ops4j.pax.exam.Option>> expandedByType =
+        new ConcurrentHashMap<>();
 
     AnnotationOptions(Stream<AnnotationEntry<Option.Annotation>> annotations) {
       this.options =
@@ -241,6 +271,11 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
         LOGGER.info("Setting up distribution for '{}' container", interpolator.getContainer());
       }
       this.distribution = distros[0];
+      this.fingerprint =
+          options
+              .stream()
+              .map(ExtensionOption::getFingerprint)
+              .collect(Collectors.joining(", ", interpolator.getContainer() + "[", "]"));
     }
 
     /**
@@ -252,6 +287,17 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
       return distribution;
     }
 
+    /**
+     * Gets a fingerprint of these options. The fingerprint is computed from the annotations (before
+     * interpolation) that defined the options and from the location of the code where they were
+     * defined as this is where resources they reference will be loaded from.
+     *
+     * @return a fingerprint of these options
+     */
+    public String getFingerprint() {
+      return fingerprint;
+    }
+
     /**
      * Gets the interpolator associated with this set of options.
      *
@@ -268,15 +314,7 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
      * @throws IllegalStateException if called before options have been created by PaxExam
      */
     public Stream<org.ops4j.pax.exam.Option> options() {
-      return Stream.of(
-              options.stream().map(ExtensionOption::getOptions).flatMap(Stream::of),
-              Stream.of(interpolator.getOptions()),
-              // make sure we add the core options after all other options that are specified by the
-              // test class
-              coreOptions.stream(),
-              // the pre-hook options should be last
-              preStartHookOptions())
-          .flatMap(Function.identity());
+      return expand().stream();
     }
 
     /**
@@ -288,7 +326,19 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
      * @throws IllegalStateException if called before options have been created by PaxExam
      */
     public <T extends org.ops4j.pax.exam.Option> Stream<T> options(Class<T> optionType) {
-      return options().filter(optionType::isInstance).map(optionType::cast);
+      final List<org.ops4j.pax.exam.Option> opts = expanded;
+
+      if (opts == null) {
+        return options().filter(optionType::isInstance).map(optionType::cast);
+      }
+      return expandedByType
+          .computeIfAbsent(
+              optionType,
+              t ->
+                  Collections.unmodifiableList(
+                      opts.stream().filter(optionType::isInstance).collect(Collectors.toList())))
+          .stream()
+          .map(optionType::cast);
     }
 
     /**
@@ -325,6 +375,36 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
       return "AnnotationOptions" + options;
     }
 
+    /**
+     * Expands all options.
+     *
+     * @return all expanded options which will include extension options that could not yet be
+     *     interpolated
+     */
+    private List<org.ops4j.pax.exam.Option> expand() {
+      List<org.ops4j.pax.exam.Option> opts = expanded;
+
+      if (opts == null) {
+        opts =
+            Stream.of(
+                    options.stream().map(ExtensionOption::getOptions).flatMap(Stream::of),
+                    Stream.of(interpolator.getOptions()),
+                    // make sure we add the core options after all other options that are specified
+                    // by the test class
+                    coreOptions.stream(),
+                    // the pre-hook options should be last
+                    preStartHookOptions())
+                .flatMap(Function.identity())
+                .collect(Collectors.toList());
+        if (opts.stream().noneMatch(ExtensionOption.class::isInstance)) {
+          // everything was interpolated so we won't need to expand them again
+          opts = Collections.unmodifiableList(opts);
+          this.expanded = opts;
+        }
+      }
+      return opts;
+    }
+
     private Stream<org.ops4j.pax.exam.Option> preStartHookOptions() {
       return Stream.of(
           // this option is only used to be called back just before the container is started
@@ -427,6 +507,19 @@ public class DominionConfigurationFactory implements ConfigurationFactory {
           + ']';
     }
 
+    /**
+     * Gets a fingerprint of this extension option.
+     *
+     * @return a fingerprint of this extension option
+     */
+    String getFingerprint() {
+      final CodeSource codeSource = enclosingEntry.getEnclosingCodeSource();
+
+      return (codeSource != null)
+          ? enclosingAnnotation + "@" + codeSource.getLocation()
+          : enclosingAnnotation.toString();
+    }
+
     /**
      * Gets all extension options that are found on the associated extension classes including this
      * one.
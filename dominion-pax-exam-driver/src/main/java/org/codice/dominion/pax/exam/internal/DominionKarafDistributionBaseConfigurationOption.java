@@ -18,7 +18,8 @@ import org.ops4j.pax.exam.karaf.options.KarafDistributionBaseConfigurationOption
 
 /**
  * Extension to the standard Karaf distribution base configuration which injects the container id
- * and container name as part of the unpack directory.
+ * and container name as part of the unpack directory. The distribution is also retrieved from the
+ * {@link DistributionCache} when enabled.
  */
 public class DominionKarafDistributionBaseConfigurationOption
     extends KarafDistributionBaseConfigurationOption {
@@ -42,6 +43,11 @@ public class DominionKarafDistributionBaseConfigurationOption
         DistributionConfigurationUtils.resolve(interpolator, unpackDirectory));
   }
 
+  @Override
+  public String getFrameworkURL() {
+    return DistributionCache.get(super.getFrameworkURL());
+  }
+
   @Override
   public String toString() {
     return DistributionConfigurationUtils.toString(interpolator, this, config);
@@ -19,7 +19,8 @@ import org.ops4j.pax.exam.karaf.options.KarafDistributionConfigurationOption;
 
 /**
  * Extension to the standard Karaf distribution configuration which injects the container id and
- * container name as part of the unpack directory.
+ * container name as part of the unpack directory. The distribution is also retrieved from the
+ * {@link DistributionCache} when enabled.
  */
 public class DominionKarafDistributionConfigurationOption
     extends KarafDistributionConfigurationOption {
@@ -43,6 +44,11 @@ public class DominionKarafDistributionConfigurationOption
         DistributionConfigurationUtils.resolve(interpolator, unpackDirectory));
   }
 
+  @Override
+  public String getFrameworkURL() {
+    return DistributionCache.get(super.getFrameworkURL());
+  }
+
   @Override
   public String toString() {
     return DistributionConfigurationUtils.toString(interpolator, this, config);
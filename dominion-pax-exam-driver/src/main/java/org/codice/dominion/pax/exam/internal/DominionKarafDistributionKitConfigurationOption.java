@@ -19,7 +19,8 @@ import org.ops4j.pax.exam.karaf.options.KarafDistributionKitConfigurationOption;
 
 /**
  * Extension to the standard Karaf distribution kit configuration which injects the container id and
- * container name as part of the unpack directory.
+ * container name as part of the unpack directory. The distribution is also retrieved from the
+ * {@link DistributionCache} when enabled.
  */
 public class DominionKarafDistributionKitConfigurationOption
     extends KarafDistributionKitConfigurationOption {
@@ -45,6 +46,11 @@ public class DominionKarafDistributionKitConfigurationOption
         DistributionConfigurationUtils.resolve(interpolator, unpackDirectory));
   }
 
+  @Override
+  public String getFrameworkURL() {
+    return DistributionCache.get(super.getFrameworkURL());
+  }
+
   @Override
   public String toString() {
     return DistributionConfigurationUtils.toString(interpolator, this, config);
@@ -23,7 +23,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
-import org.apache.commons.io.IOUtils;
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
@@ -66,18 +65,20 @@ public class DominionParameterizedProbeRunner extends AbstractDominionProbeRunne
    * class. Note that the given reactor strategy decides whether or not the setup and teardown
    * actually happens at this level.
    */
-  @SuppressWarnings({
-    "squid:S1181" /* catching VirtualMachineError first */,
-    "squid:CallToDeprecatedMethod" /* don't care if interpolation closing fails at this point */
-  })
+  @SuppressWarnings("squid:S1181" /* catching VirtualMachineError first */)
   @Override
   public void run(RunNotifier notifier) {
     LOGGER.debug("{}::run({})", this, notifier);
     LOGGER.info("Running test class {}", testClass.getName());
     try {
       manager.beforeClass(stagedReactor, testClass);
-      // now let the config factory know the container was started
-      config.processPostStartOptions();
+      // now let the config factory know the container was started unless it was already
+      // configured by a previous test class
+      if (!wereContainersReused()) {
+        config.processPostStartOptions();
+      } else {
+        LOGGER.info("Reusing containers configured for test id {}", getInterpolator().getId());
+      }
       super.run(notifier);
     } catch (VirtualMachineError e) {
       throw e;
@@ -88,7 +89,7 @@ public class DominionParameterizedProbeRunner extends AbstractDominionProbeRunne
       notifier.fireTestFailure(new Failure(description, t));
     } finally {
       manager.afterClass(stagedReactor, testClass);
-      IOUtils.closeQuietly(interpolator);
+      releaseInterpolator();
     }
   }
 
@@ -23,7 +23,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
-import org.apache.commons.io.IOUtils;
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
@@ -62,10 +61,7 @@ public class DominionProbeRunner extends AbstractDominionProbeRunner {
    * class. Note that the given reactor strategy decides whether or not the setup and teardown
    * actually happens at this level.
    */
-  @SuppressWarnings({
-    "squid:S1181" /* catching VirtualMachineError first */,
-    "squid:CallToDeprecatedMethod" /* don't care if interpolation closing fails at this point */
-  })
+  @SuppressWarnings("squid:S1181" /* catching VirtualMachineError first */)
   @Override
   public void run(RunNotifier notifier) {
     LOGGER.debug("{}::run({})", this, notifier);
@@ -75,8 +71,13 @@ public class DominionProbeRunner extends AbstractDominionProbeRunner {
       // which is where the target/dominion directory is typically created and everything laid down
       // under it
       manager.beforeClass(stagedReactor, testClass);
-      // now let the config factory know the container was started
-      config.processPostStartOptions();
+      // now let the config factory know the container was started unless it was already
+      // configured by a previous test class
+      if (!wereContainersReused()) {
+        config.processPostStartOptions();
+      } else {
+        LOGGER.info("Reusing containers configured for test id {}", getInterpolator().getId());
+      }
       super.run(notifier);
     } catch (VirtualMachineError e) {
       throw e;
@@ -87,7 +88,7 @@ public class DominionProbeRunner extends AbstractDominionProbeRunner {
       notifier.fireTestFailure(new Failure(description, t));
     } finally {
       manager.afterClass(stagedReactor, testClass);
-      IOUtils.closeQuietly(interpolator);
+      releaseInterpolator();
     }
   }
 
@@ -13,6 +13,7 @@
  */
 package org.codice.dominion.pax.exam.internal;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
@@ -24,6 +25,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
@@ -70,6 +72,9 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
 
   private volatile KarafDistributionBaseConfigurationOption distribution = null;
 
+  /** Resources tied to the life of the container (shared with all proxies). */
+  private final Resources resources;
+
   /**
    * Initializes a new interpolator inside a driver with the specified test run id and container
    * name.
@@ -92,6 +97,7 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
   public PaxExamDriverInterpolator(Class<?> testClass, String id, String container) {
     super(testClass, id, container);
     LOGGER.debug("PaxExamDriverInterpolator({}, {}, {})", testClass, id, container);
+    this.resources = new Resources();
     initMaven(); // only do this in the driver
   }
 
@@ -103,6 +109,7 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
   protected PaxExamDriverInterpolator(PaxExamDriverInterpolator interpolator) {
     super(interpolator);
     LOGGER.debug("PaxExamDriverInterpolator({})", interpolator);
+    this.resources = interpolator.resources;
   }
 
   @Override
@@ -142,6 +149,27 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
     };
   }
 
+  /**
+   * Registers a resource which should be closed along with this interpolator. Interpolators are
+   * closed once the container they were created for is stopped which makes this a convenient way to
+   * tie the life of a resource to the container. The resource is closed right away if this
+   * interpolator was already closed.
+   *
+   * @param resource the resource to be closed along with this interpolator
+   */
+  public void register(Closeable resource) {
+    resources.register(resource);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      resources.close();
+    } finally {
+      super.close();
+    }
+  }
+
   @Override
   public Path getKarafHome() {
     initKaraf();
@@ -182,7 +210,7 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
                 + "; karaf configuration is unknown");
       }
       final File targetFolder = retrieveFinalTargetFolder(distro);
-      final Path path = searchKarafBase(targetFolder).toPath();
+      final Path path = locateKarafBase(distro, targetFolder).toPath();
       final String home = initPath("karaf.home", path);
       final Path bin = path.resolve("bin"); // bin location cannot be customized
       final Path data = path.resolve(distro.getKarafData());
@@ -228,6 +256,20 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
     }
   }
 
+  private File locateKarafBase(KarafDistributionBaseConfigurationOption distro, File target) {
+    // the location is known upfront when the distribution was retrieved from the cache
+    final String base = DistributionCache.getKarafBase(distro.getFrameworkURL());
+
+    if (base != null) {
+      final File dir = new File(target, base);
+
+      if (new File(dir, "system").isDirectory() && new File(dir, "etc").isDirectory()) {
+        return dir;
+      }
+    }
+    return searchKarafBase(target);
+  }
+
   // see org.ops4j.pax.exam.karaf.container.internal.KarafTestContainer.searchKarafBase()
   // Since we might get quite deep use a simple breath first search algorithm
   @SuppressWarnings("squid:S3776" /* copied from PaxExam */)
@@ -447,4 +489,45 @@ public class PaxExamDriverInterpolator extends PaxExamInterpolator {
   private static boolean isActiveByDefault(Profile profile) {
     return (profile.getActivation() != null) && profile.getActivation().isActiveByDefault();
   }
+
+  /** Resources registered to be closed along with an interpolator. */
+  private static class Resources implements Closeable {
+    private final Deque<Closeable> toClose = new LinkedList<>();
+
+    private boolean closed = false;
+
+    void register(Closeable resource) {
+      synchronized (this) {
+        if (!closed) {
+          toClose.push(resource);
+          return;
+        }
+      }
+      PaxExamDriverInterpolator.close(resource);
+    }
+
+    @Override
+    public void close() {
+      while (true) {
+        final Closeable resource;
+
+        synchronized (this) {
+          this.closed = true;
+          resource = toClose.poll();
+        }
+        if (resource == null) {
+          return;
+        }
+        PaxExamDriverInterpolator.close(resource);
+      }
+    }
+  }
+
+  private static void close(Closeable resource) {
+    try {
+      resource.close();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.debug("failed to close resource: {}", resource, e);
+    }
+  }
 }
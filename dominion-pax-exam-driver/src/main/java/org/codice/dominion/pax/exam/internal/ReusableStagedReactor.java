@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.pax.exam.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+import org.ops4j.pax.exam.TestAddress;
+import org.ops4j.pax.exam.TestContainer;
+import org.ops4j.pax.exam.TestContainerException;
+import org.ops4j.pax.exam.TestProbeBuilder;
+import org.ops4j.pax.exam.spi.StagedExamReactor;
+import org.ops4j.pax.exam.spi.StagedExamReactorFactory;
+import org.ops4j.pax.exam.spi.intern.DefaultTestAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Staged reactor which keeps its containers running after a test class completes such that they can
+ * be reused by the next test class configured with equivalent options. Equivalence is determined
+ * using a fingerprint of the options resolved from the test class annotations.
+ *
+ * <p>Only one set of idle containers is kept running at any point in time. They are stopped as soon
+ * as a test class requires different options or when the VM shuts down.
+ *
+ * <p>The reactor takes ownership of the interpolator used to configure its containers since the
+ * ports it reserved are in use by the containers for as long as they are running. The interpolator
+ * is handed over along with the idle containers to the test class reusing them and is only closed
+ * once the containers are stopped. The interpolator of a test class which ends up reusing idle
+ * containers is closed right away since its containers are never started.
+ *
+ * <p><i>Note:</i> Reusing containers implies that state changes performed by a test class are
+ * visible to the next one unless restored (e.g. using the <code>ServiceAdmin</code> and <code>
+ * ConfigurationAdmin</code> rules).
+ */
+public class ReusableStagedReactor implements StagedExamReactor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReusableStagedReactor.class);
+
+  private static final Object LOCK = new Object();
+
+  /** Fingerprint for the idle containers or <code>null</code> if none are idle. */
+  @Nullable private static String idleFingerprint = null;
+
+  private static List<TestContainer> idleContainers = Collections.emptyList();
+
+  /** Interpolator used to configure the idle containers or <code>null</code> if none are idle. */
+  @Nullable private static PaxExamDriverInterpolator idleInterpolator = null;
+
+  private static boolean shutdownHookRegistered = false;
+
+  private final String fingerprint;
+
+  private final List<TestContainer> stagedContainers;
+
+  private final List<TestProbeBuilder> probes;
+
+  /** Interpolator used to configure the staged containers. */
+  private final PaxExamDriverInterpolator stagedInterpolator;
+
+  /** Maps all test addresses to the index of the container they should be invoked with. */
+  private final Map<TestAddress, Integer> targets = new LinkedHashMap<>();
+
+  private volatile List<TestContainer> containers = Collections.emptyList();
+
+  private volatile PaxExamDriverInterpolator interpolator;
+
+  private volatile boolean reused = false;
+
+  /** Tracks whether the containers were successfully started and had our probes installed. */
+  private volatile boolean ready = false;
+
+  ReusableStagedReactor(
+      String fingerprint,
+      PaxExamDriverInterpolator interpolator,
+      List<TestContainer> containers,
+      List<TestProbeBuilder> probes) {
+    this.fingerprint = fingerprint;
+    this.stagedInterpolator = interpolator;
+    this.interpolator = interpolator;
+    this.stagedContainers = containers;
+    this.probes = probes;
+    for (int i = 0; i < containers.size(); i++) {
+      final String caption = ReusableStagedReactor.buildCaption(containers, i);
+
+      for (final TestProbeBuilder probe : probes) {
+        for (final TestAddress address : probe.getTests()) {
+          targets.put(new DefaultTestAddress(address, caption), i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a factory for staged reactors which will reuse running containers configured with the
+   * specified options fingerprint.
+   *
+   * @param fingerprint a supplier for the fingerprint of the options used to configure the
+   *     containers which will be called once PaxExam has retrieved the configuration
+   * @param interpolator the interpolator used to configure the containers which the reactor will be
+   *     responsible for closing
+   * @return a corresponding staged reactor factory
+   */
+  public static StagedExamReactorFactory factory(
+      Supplier<String> fingerprint, PaxExamDriverInterpolator interpolator) {
+    return (containers, probes) ->
+        new ReusableStagedReactor(fingerprint.get(), interpolator, containers, probes);
+  }
+
+  /**
+   * Checks if running containers were reused by this reactor instead of starting new ones.
+   *
+   * @return <code>true</code> if running containers were reused; <code>false</code> otherwise
+   */
+  public boolean wasReused() {
+    return reused;
+  }
+
+  /**
+   * Gets the interpolator that was used to configure the containers this reactor is running tests
+   * against. When running containers were reused, this is the interpolator handed over from the
+   * test class that started them.
+   *
+   * @return the interpolator used to configure the containers
+   */
+  public PaxExamDriverInterpolator getInterpolator() {
+    return interpolator;
+  }
+
+  @Override
+  public Set<TestAddress> getTargets() {
+    return targets.keySet();
+  }
+
+  @Override
+  public void invoke(TestAddress address) throws Exception {
+    final Integer index = targets.get(address);
+
+    if (index == null) {
+      throw new IllegalArgumentException(
+          "TestAddress " + address + " not from this reactor? Got it from getTargets() really?");
+    }
+    containers.get(index).call(address);
+  }
+
+  @Override
+  public void beforeSuite() { // nothing to do
+  }
+
+  @Override
+  public void beforeClass() {
+    synchronized (ReusableStagedReactor.LOCK) {
+      if (fingerprint.equals(ReusableStagedReactor.idleFingerprint)) {
+        LOGGER.info("Reusing running containers for options: {}", fingerprint);
+        this.containers = ReusableStagedReactor.idleContainers;
+        this.interpolator = ReusableStagedReactor.idleInterpolator;
+        this.reused = true;
+        ReusableStagedReactor.idleFingerprint = null;
+        ReusableStagedReactor.idleContainers = Collections.emptyList();
+        ReusableStagedReactor.idleInterpolator = null;
+        // our own containers will never be started so release the ports we reserved for them
+        ReusableStagedReactor.close(stagedInterpolator);
+      } else {
+        ReusableStagedReactor.stopIdleContainers();
+        // record them first to make sure they get stopped in afterClass() if they fail to start
+        this.containers = stagedContainers;
+        stagedContainers.forEach(TestContainer::start);
+      }
+      ReusableStagedReactor.registerShutdownHook();
+    }
+    for (final TestContainer container : containers) {
+      for (final TestProbeBuilder probe : probes) {
+        LOGGER.debug("installing probe {} in {}", probe, container);
+        try (final InputStream is = probe.build().getStream()) {
+          container.installProbe(is);
+        } catch (IOException e) {
+          throw new TestContainerException("Unable to build the probe.", e);
+        }
+      }
+    }
+    this.ready = true;
+  }
+
+  @Override
+  public void afterClass() {
+    if (!ready) { // don't keep containers that failed to start or to get our probes installed
+      stop();
+      return;
+    }
+    try {
+      containers.forEach(TestContainer::uninstallProbe);
+    } catch (RuntimeException | Error e) { // don't keep containers still holding our probes
+      LOGGER.debug("failed to uninstall probes from {}; stopping them", containers, e);
+      stop();
+      throw e;
+    }
+    synchronized (ReusableStagedReactor.LOCK) {
+      // keep the containers running for the next test class along with the ports they use
+      ReusableStagedReactor.stopIdleContainers();
+      ReusableStagedReactor.idleFingerprint = fingerprint;
+      ReusableStagedReactor.idleContainers = containers;
+      ReusableStagedReactor.idleInterpolator = interpolator;
+    }
+  }
+
+  @Override
+  public void afterSuite() { // nothing to do as containers will be stopped later
+  }
+
+  @Override
+  public String toString() {
+    return "ReusableStagedReactor[" + containers + "]";
+  }
+
+  /** Stops our containers and releases the ports they were using. */
+  private void stop() {
+    try {
+      containers.forEach(TestContainer::stop);
+    } finally {
+      ReusableStagedReactor.close(interpolator);
+    }
+  }
+
+  private static String buildCaption(List<TestContainer> containers, int index) {
+    final TestContainer container = containers.get(index);
+
+    if (containers.size() == 1) {
+      return container.toString();
+    }
+    return String.format("%s[%d]", container, index);
+  }
+
+  /** Stops the idle containers, if any, and releases the ports they were using. */
+  static void stopIdleContainers() {
+    synchronized (ReusableStagedReactor.LOCK) {
+      final List<TestContainer> containers = ReusableStagedReactor.idleContainers;
+      final PaxExamDriverInterpolator interpolator = ReusableStagedReactor.idleInterpolator;
+
+      if (!containers.isEmpty()) {
+        LOGGER.info(
+            "Stopping idle containers for options: {}", ReusableStagedReactor.idleFingerprint);
+      }
+      ReusableStagedReactor.idleFingerprint = null;
+      ReusableStagedReactor.idleContainers = Collections.emptyList();
+      ReusableStagedReactor.idleInterpolator = null;
+      try {
+        containers.forEach(TestContainer::stop);
+      } finally {
+        ReusableStagedReactor.close(interpolator);
+      }
+    }
+  }
+
+  @SuppressWarnings(
+      "squid:CallToDeprecatedMethod" /* don't care if interpolation closing fails at this point */)
+  private static void close(@Nullable PaxExamDriverInterpolator interpolator) {
+    IOUtils.closeQuietly(interpolator);
+  }
+
+  private static void registerShutdownHook() {
+    if (!ReusableStagedReactor.shutdownHookRegistered) {
+      ReusableStagedReactor.shutdownHookRegistered = true;
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(ReusableStagedReactor::stopIdleContainers, "Dominion Container Reaper"));
+    }
+  }
+}
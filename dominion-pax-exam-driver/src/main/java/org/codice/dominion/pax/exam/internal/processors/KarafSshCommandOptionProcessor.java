@@ -15,14 +15,21 @@ package org.codice.dominion.pax.exam.internal.processors;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -55,7 +62,15 @@ import org.codice.dominion.pax.exam.options.KarafSshCommandOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Class used to process configured {@link KarafSshCommandOption}s. */
+/**
+ * Class used to process configured {@link KarafSshCommandOption}s.
+ *
+ * <p>SSH sessions are pooled per container (i.e. per user, host, and port) such that a single
+ * session is established and authenticated for the life of a container and reused whenever commands
+ * need to be executed on it. Sessions are closed along with the container's interpolator when the
+ * container is stopped. Sessions closed by the container are automatically re-established the next
+ * time they are needed.
+ */
 public class KarafSshCommandOptionProcessor {
   private static final Logger LOGGER =
       LoggerFactory.getLogger(KarafDistributionConfigurationFilePostOptionProcessor.class);
@@ -65,10 +80,26 @@ public class KarafSshCommandOptionProcessor {
 
   private static final int DEFAULT_SSH_PORT = 8101;
   private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30L);
-  private static final long DEFAULT_RETRY_DELAY = TimeUnit.SECONDS.toMillis(2L);
   private static final String DEFAULT_HEARTBEAT_INTERVAL =
       String.valueOf(TimeUnit.SECONDS.toMillis(60L));
-  private static final int DEFAULT_RETRY_ATTEMPTS = 2;
+
+  /** Maximum amount of time in milliseconds to wait for the SSH server to become ready. */
+  private static final long DEFAULT_READY_TIMEOUT = TimeUnit.MINUTES.toMillis(1L);
+
+  private static final long DEFAULT_PROBE_TIMEOUT = TimeUnit.SECONDS.toMillis(2L);
+  private static final long INITIAL_RETRY_DELAY = 100L;
+  private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(2L);
+
+  /** Maximum number of lines the SSH server may send before its identification string. */
+  private static final int MAX_BANNER_LINES = 16;
+
+  private static final String SSH_IDENTIFICATION_PREFIX = "SSH-";
+
+  /**
+   * Pooled connections keyed by <code>userId@host:port</code>. Connections are closed and removed
+   * when the container they were established for is stopped.
+   */
+  private static final Map<String, CompletableFuture<Connection>> CONNECTIONS = new HashMap<>();
 
   private final AnnotationOptions options;
   private final PaxExamDriverInterpolator interpolator;
@@ -156,7 +187,107 @@ public class KarafSshCommandOptionProcessor {
     if (commands.isEmpty()) {
       return; // no commands to execute so bail
     }
-    try (final SshClient client = ClientBuilder.builder().build()) {
+    final ClientSession session = getSession();
+
+    for (final KarafSshCommandOption command : commands) {
+      execute(command, session);
+    }
+  }
+
+  /**
+   * Gets the pooled SSH session for the container, establishing and authenticating a new one if
+   * none are currently opened.
+   *
+   * <p>Connections are established outside of the pool's lock such that waiting for one container's
+   * SSH server to become ready does not block other containers. Threads requesting a session for a
+   * container while it is being connected simply wait for that connection.
+   *
+   * @return the corresponding opened and authenticated session
+   * @throws IOException if an I/O error occurs while establishing the session
+   */
+  private ClientSession getSession() throws IOException {
+    final String key = userId + '@' + host + ':' + port;
+    final CompletableFuture<Connection> future = new CompletableFuture<>();
+    final CompletableFuture<Connection> existing;
+    final boolean reuse;
+
+    synchronized (KarafSshCommandOptionProcessor.CONNECTIONS) {
+      existing = KarafSshCommandOptionProcessor.CONNECTIONS.put(key, future);
+      reuse = (existing != null) && KarafSshCommandOptionProcessor.isPending(existing);
+      if (reuse) { // put it back as it is being connected or still opened
+        KarafSshCommandOptionProcessor.CONNECTIONS.put(key, existing);
+      }
+    }
+    if (reuse) {
+      LOGGER.debug("SSH: reusing session to {}", key);
+      return KarafSshCommandOptionProcessor.join(existing).session;
+    } else if (existing != null) { // close the stale connection
+      Optional.ofNullable(existing.getNow(null)).ifPresent(Connection::close);
+    }
+    try {
+      final Connection connection = connect();
+
+      future.complete(connection);
+      // tie the life of the connection to the container
+      interpolator.register(() -> KarafSshCommandOptionProcessor.close(key, future));
+      return connection.session;
+    } catch (IOException | RuntimeException e) {
+      KarafSshCommandOptionProcessor.close(key, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Checks if a pooled connection is being connected or is still opened.
+   *
+   * @param future the pooled connection to check
+   * @return <code>true</code> if the connection is being connected or is still opened; <code>false
+   *     </code> if it failed to connect or was closed
+   */
+  private static boolean isPending(CompletableFuture<Connection> future) {
+    if (!future.isDone()) {
+      return true;
+    }
+    final Connection connection = future.getNow(null);
+
+    return (connection != null) && connection.isOpen();
+  }
+
+  private static Connection join(CompletableFuture<Connection> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) { // failed to connect from another thread
+      throw new IOException(e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for an SSH connection");
+    }
+  }
+
+  /**
+   * Removes a connection from the pool and closes it.
+   *
+   * @param key the key for the connection to close
+   * @param future the pooled connection to close
+   */
+  private static void close(String key, CompletableFuture<Connection> future) {
+    synchronized (KarafSshCommandOptionProcessor.CONNECTIONS) {
+      KarafSshCommandOptionProcessor.CONNECTIONS.remove(key, future);
+    }
+    final Connection connection = future.getNow(null);
+
+    if (connection != null) {
+      LOGGER.debug("SSH: closing session to {}", key);
+      connection.close();
+    }
+  }
+
+  @SuppressWarnings("squid:S2095" /* client is being returned out as part of the connection */)
+  private Connection connect() throws IOException {
+    final SshClient client = ClientBuilder.builder().build();
+
+    try {
       setupAgent(client, null, null);
       // define hearbeat (for the keep alive) and timeouts
       client
@@ -169,15 +300,19 @@ public class KarafSshCommandOptionProcessor {
           .getProperties()
           .put(ClientFactoryManager.NIO2_READ_TIMEOUT, String.valueOf(idleTimeout));
       client.start();
-      try (final ClientSession session = connectWithRetries(client)) {
+      final ClientSession session = connectWithRetries(client);
+
+      try {
         session.addPasswordIdentity(password);
         session.auth().verify();
-        for (final KarafSshCommandOption command : commands) {
-          execute(command, session);
-        }
-      } finally {
-        client.stop();
+        return new Connection(client, session);
+      } catch (IOException | RuntimeException e) {
+        session.close(true);
+        throw e;
       }
+    } catch (IOException | RuntimeException e) {
+      client.stop();
+      throw e;
     }
   }
 
@@ -194,8 +329,10 @@ public class KarafSshCommandOptionProcessor {
       shell.setOut(new NoCloseOutputStream(System.out));
       shell.setErr(new NoCloseOutputStream(System.err));
       shell.open().verify(5L, TimeUnit.SECONDS);
+      // the exit status is sent before the channel gets closed so no need to wait for both
       shell.waitFor(
-          EnumSet.of(ClientChannelEvent.CLOSED), command.getTimeout() + 5000L); // pad 5 seconds
+          EnumSet.of(ClientChannelEvent.EXIT_STATUS, ClientChannelEvent.CLOSED),
+          command.getTimeout() + 5000L); // pad 5 seconds
       final Integer status = shell.getExitStatus();
 
       if (status == null) {
@@ -208,7 +345,9 @@ public class KarafSshCommandOptionProcessor {
   }
 
   private ClientSession connectWithRetries(SshClient client) throws IOException {
-    int retries = 0;
+    final long end =
+        System.currentTimeMillis() + KarafSshCommandOptionProcessor.DEFAULT_READY_TIMEOUT;
+    long delay = KarafSshCommandOptionProcessor.INITIAL_RETRY_DELAY;
 
     LOGGER.info(
         "Establishing an SSH connection to {} container on {}:{} as '{}' ...",
@@ -217,28 +356,90 @@ public class KarafSshCommandOptionProcessor {
         port,
         userId);
     while (true) {
-      final ConnectFuture future = client.connect(userId, host, port);
+      Exception error;
 
-      future.await();
       try {
-        return future.getSession();
-      } catch (RuntimeSshException e) {
-        if (retries++ >= KarafSshCommandOptionProcessor.DEFAULT_RETRY_ATTEMPTS) {
-          throw e;
+        if (isReady()) {
+          final ConnectFuture future = client.connect(userId, host, port);
+
+          future.await();
+          return future.getSession();
         }
-        try {
-          Thread.sleep(KarafSshCommandOptionProcessor.DEFAULT_RETRY_DELAY);
-        } catch (InterruptedException ie) {
-          Thread.currentThread().interrupt();
-          throw e;
+        error = null;
+      } catch (IOException | RuntimeSshException e) {
+        error = e;
+      }
+      final long remaining = end - System.currentTimeMillis();
+
+      if (remaining <= 0L) {
+        throw new IOException(
+            "timed out establishing an SSH connection to "
+                + interpolator.getContainer()
+                + " container on "
+                + host
+                + ':'
+                + port,
+            error);
+      }
+      LOGGER.debug(
+          "SSH server for {} container not ready; retrying in {}ms",
+          interpolator.getContainer(),
+          delay,
+          error);
+      try {
+        Thread.sleep(Math.min(delay, remaining));
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "interrupted while establishing an SSH connection to "
+                + interpolator.getContainer()
+                + " container");
+      }
+      delay = Math.min(delay * 2L, KarafSshCommandOptionProcessor.MAX_RETRY_DELAY);
+    }
+  }
+
+  /**
+   * Probes the SSH server to see if it is ready to accept connections. The server is considered
+   * ready once it listens on its port and sends back its identification string.
+   *
+   * @return <code>true</code> if the server is ready; <code>false</code> otherwise
+   * @throws IOException if unable to connect to the server
+   */
+  private boolean isReady() throws IOException {
+    final int timeout = (int) KarafSshCommandOptionProcessor.DEFAULT_PROBE_TIMEOUT;
+
+    try (final Socket socket = new Socket()) {
+      socket.connect(new InetSocketAddress(host, port), timeout);
+      socket.setSoTimeout(timeout);
+      final InputStream is = socket.getInputStream();
+
+      for (int i = 0; i < KarafSshCommandOptionProcessor.MAX_BANNER_LINES; i++) {
+        final String line = KarafSshCommandOptionProcessor.readLine(is);
+
+        if (line == null) {
+          return false;
+        } else if (line.startsWith(KarafSshCommandOptionProcessor.SSH_IDENTIFICATION_PREFIX)) {
+          return true;
         }
-        LOGGER.info(
-            "Retrying to establish an SSH connection to {} container ...",
-            interpolator.getContainer());
       }
+      return false;
     }
   }
 
+  @Nullable
+  private static String readLine(InputStream is) throws IOException {
+    final StringBuilder sb = new StringBuilder(80);
+
+    for (int c = is.read(); c != '\n'; c = is.read()) {
+      if (c == -1) {
+        return null;
+      }
+      sb.append((char) c);
+    }
+    return sb.toString();
+  }
+
   private void setupAgent(
       SshClient client, @Nullable String keyFile, @Nullable FilePasswordProvider passwordProvider)
       throws IOException {
@@ -291,6 +492,26 @@ public class KarafSshCommandOptionProcessor {
     }
   }
 
+  /** An SSH client along with the authenticated session it established. */
+  private static class Connection {
+    private final SshClient client;
+    private final ClientSession session;
+
+    Connection(SshClient client, ClientSession session) {
+      this.client = client;
+      this.session = session;
+    }
+
+    boolean isOpen() {
+      return session.isOpen() && !session.isClosing();
+    }
+
+    void close() {
+      session.close(true);
+      client.stop();
+    }
+  }
+
   private static boolean isUser(Map.Entry<String, String> e) {
     return !e.getKey().startsWith(KarafSshCommandOptionProcessor.GROUP_PREFIX);
   }
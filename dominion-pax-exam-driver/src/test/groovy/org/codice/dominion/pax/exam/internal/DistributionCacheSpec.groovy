@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.pax.exam.internal
+
+import java.nio.file.Files
+import java.nio.file.Path
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.archivers.zip.ZipFile
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream
+import org.apache.commons.compress.compressors.gzip.GzipParameters
+import spock.lang.Specification
+
+class DistributionCacheSpec extends Specification {
+  /** Fixed time used for all archive entries and headers so identical content hashes the same. */
+  static final long MOD_TIME = 1500000000000L
+
+  Path dir = Files.createTempDirectory('distribution-cache-spec')
+
+  def cleanup() {
+    dir.toFile().deleteDir()
+  }
+
+  def "test distributions with the same content share the same cache key"() {
+    given:
+      def first = distribution('first.tar.gz', [file('karaf/bin/karaf', 'start', 0755)])
+      def second = distribution('second.tar.gz', [file('karaf/bin/karaf', 'start', 0755)])
+      def other = distribution('other.tar.gz', [file('karaf/bin/karaf', 'stop', 0755)])
+
+    expect:
+      download(first) == download(second)
+      download(first) != download(other)
+      download(first) ==~ /[0-9a-f]{64}/
+  }
+
+  def "test repackaging preserves content, unix modes and the karaf base"() {
+    given:
+      def url = distribution('karaf.tar.gz', [
+          directory('karaf-1.0/'),
+          directory('karaf-1.0/etc/'),
+          directory('karaf-1.0/system/'),
+          file('karaf-1.0/bin/karaf', 'start', 0755),
+          file('karaf-1.0/etc/config.properties', 'key=value', 0644)
+      ])
+      def source = dir.resolve('source')
+      def archive = dir.resolve('archive.zip')
+      def info = dir.resolve('archive.properties')
+      def properties = new Properties()
+
+    when:
+      download(url, source)
+      DistributionCache.repackage(url, source, archive, info, properties)
+
+    then:
+      def zip = new ZipFile(archive.toFile())
+      try {
+        assert (zip.getEntry('karaf-1.0/bin/karaf').unixMode & 0777) == 0755
+        assert (zip.getEntry('karaf-1.0/etc/config.properties').unixMode & 0777) == 0644
+        assert zip.getInputStream(zip.getEntry('karaf-1.0/bin/karaf')).text == 'start'
+        assert zip.getEntry('karaf-1.0/etc/').directory
+      } finally {
+        zip.close()
+      }
+
+    and:
+      properties.getProperty('karaf.base') == ''
+      Files.exists(info)
+  }
+
+  def "test distributions with links are not repackaged"() {
+    given:
+      def link = new TarArchiveEntry('karaf-1.0/bin/link', TarArchiveEntry.LF_SYMLINK)
+      link.linkName = 'karaf'
+      def url = distribution('links.tar.gz', [[entry: link], file('karaf-1.0/bin/karaf', 'start', 0755)])
+      def source = dir.resolve('source')
+      def archive = dir.resolve('archive.zip')
+      def info = dir.resolve('archive.properties')
+
+    when:
+      download(url, source)
+      DistributionCache.repackage(url, source, archive, info, new Properties())
+
+    then:
+      thrown(IOException)
+      !Files.exists(archive)
+      !Files.exists(info)
+  }
+
+  private String download(String url, Path target = dir.resolve('download')) {
+    DistributionCache.download(url, target)
+  }
+
+  private String distribution(String name, List<Map> entries) {
+    def file = dir.resolve(name)
+
+    file.withOutputStream { os ->
+      def parameters = new GzipParameters()
+
+      parameters.modificationTime = MOD_TIME
+      parameters.operatingSystem = 3 // unix
+      new TarArchiveOutputStream(new GzipCompressorOutputStream(os, parameters)).withCloseable { tos ->
+        entries.each { e ->
+          e.entry.modTime = new Date(MOD_TIME)
+          tos.putArchiveEntry(e.entry)
+          if (e.content != null) {
+            tos.write(e.content)
+          }
+          tos.closeArchiveEntry()
+        }
+      }
+    }
+    file.toUri().toURL().toString()
+  }
+
+  private Map file(String name, String content, int mode) {
+    def bytes = content.bytes
+    def entry = new TarArchiveEntry(name)
+
+    entry.size = bytes.length
+    entry.mode = mode
+    [entry: entry, content: bytes]
+  }
+
+  private Map directory(String name) {
+    [entry: new TarArchiveEntry(name)]
+  }
+}
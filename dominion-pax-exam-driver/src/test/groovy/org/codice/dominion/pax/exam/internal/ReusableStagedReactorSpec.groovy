@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.pax.exam.internal
+
+import org.codice.dominion.interpolate.PortFinder
+import org.ops4j.pax.exam.TestContainer
+import org.ops4j.pax.exam.TestProbeBuilder
+import org.ops4j.pax.exam.TestProbeProvider
+import spock.lang.Specification
+
+class ReusableStagedReactorSpec extends Specification {
+  def probe = Mock(TestProbeBuilder) {
+    getTests() >> ([] as Set)
+    build() >> Mock(TestProbeProvider) {
+      getStream() >> { new ByteArrayInputStream(new byte[0]) }
+    }
+  }
+
+  def cleanup() {
+    ReusableStagedReactor.stopIdleContainers()
+  }
+
+  def "test idle containers and their interpolator are reused when fingerprints match"() {
+    given:
+      def container1 = Mock(TestContainer)
+      def container2 = Mock(TestContainer)
+      def interpolator1 = Mock(PaxExamDriverInterpolator)
+      def interpolator2 = Mock(PaxExamDriverInterpolator)
+      def reactor1 = new ReusableStagedReactor('options', interpolator1, [container1], [probe])
+      def reactor2 = new ReusableStagedReactor('options', interpolator2, [container2], [probe])
+
+    when:
+      reactor1.beforeClass()
+      reactor1.afterClass()
+      reactor2.beforeClass()
+
+    then:
+      1 * container1.start()
+      2 * container1.installProbe(_)
+      1 * container1.uninstallProbe()
+      0 * container1.stop()
+      0 * container2._
+      0 * interpolator1.close()
+      1 * interpolator2.close()
+
+    and:
+      !reactor1.wasReused()
+      reactor2.wasReused()
+      reactor2.interpolator.is(interpolator1)
+  }
+
+  def "test idle containers are stopped and their interpolator closed when fingerprints do not match"() {
+    given:
+      def container1 = Mock(TestContainer)
+      def container2 = Mock(TestContainer)
+      def interpolator1 = Mock(PaxExamDriverInterpolator)
+      def interpolator2 = Mock(PaxExamDriverInterpolator)
+      def reactor1 = new ReusableStagedReactor('options', interpolator1, [container1], [probe])
+      def reactor2 = new ReusableStagedReactor('other', interpolator2, [container2], [probe])
+
+    when:
+      reactor1.beforeClass()
+      reactor1.afterClass()
+      reactor2.beforeClass()
+
+    then:
+      1 * container1.stop()
+      1 * interpolator1.close()
+
+    then:
+      1 * container2.start()
+      1 * container2.installProbe(_)
+      0 * interpolator2.close()
+
+    and:
+      !reactor2.wasReused()
+      reactor2.interpolator.is(interpolator2)
+  }
+
+  def "test containers that failed to start are stopped and their interpolator closed"() {
+    given:
+      def container = Mock(TestContainer)
+      def interpolator = Mock(PaxExamDriverInterpolator)
+      def reactor = new ReusableStagedReactor('options', interpolator, [container], [probe])
+
+    when:
+      reactor.beforeClass()
+
+    then:
+      1 * container.start() >> { throw new IllegalStateException('failed') }
+      thrown(IllegalStateException)
+
+    when:
+      reactor.afterClass()
+
+    then:
+      1 * container.stop()
+      1 * interpolator.close()
+      0 * container.uninstallProbe()
+  }
+
+  def "test containers whose probes failed to uninstall are stopped instead of being kept idle"() {
+    given:
+      def container1 = Mock(TestContainer)
+      def container2 = Mock(TestContainer)
+      def interpolator1 = Mock(PaxExamDriverInterpolator)
+      def interpolator2 = Mock(PaxExamDriverInterpolator)
+      def reactor1 = new ReusableStagedReactor('options', interpolator1, [container1], [probe])
+      def reactor2 = new ReusableStagedReactor('options', interpolator2, [container2], [probe])
+
+    and:
+      reactor1.beforeClass()
+
+    when:
+      reactor1.afterClass()
+
+    then:
+      1 * container1.uninstallProbe() >> { throw new IllegalStateException('failed') }
+      1 * container1.stop()
+      1 * interpolator1.close()
+      thrown(IllegalStateException)
+
+    when:
+      reactor2.beforeClass()
+
+    then:
+      1 * container2.start()
+      !reactor2.wasReused()
+  }
+
+  def "test ports and their lease are kept while containers are idle and released once stopped"() {
+    given:
+      def ports = new PortFinder('test', 30000, 5)
+      def basePort = ports.getPort('first') - 1
+      def interpolator = Mock(PaxExamDriverInterpolator) {
+        close() >> { ports.close() }
+      }
+      def reactor = new ReusableStagedReactor('options', interpolator, [Mock(TestContainer)], [probe])
+      def other = null
+
+    when:
+      reactor.beforeClass()
+      reactor.afterClass()
+      other = new PortFinder('other', basePort, 5)
+
+    then: "another port finder cannot get the same block while the containers are idle"
+      other.getPort('first') - 1 != basePort
+      !isBindable(basePort)
+
+    when:
+      ReusableStagedReactor.stopIdleContainers()
+
+    then:
+      isBindable(basePort)
+
+    cleanup:
+      other?.close()
+  }
+
+  private static boolean isBindable(int port) {
+    try {
+      new ServerSocket(port).close()
+      return true
+    } catch (IOException e) {
+      return false
+    }
+  }
+}
@@ -56,6 +56,18 @@ public class Dominion extends Runner implements Filterable, Sortable {
   /** System property to use for selecting a distribution matching a specific name. */
   public static final String DISTRIBUTION_PROPERTY = "dominion.distribution";
 
+  /**
+   * System property to use for enabling the reuse of containers across test classes configured with
+   * equivalent options.
+   */
+  public static final String REUSE_CONTAINERS_PROPERTY = "dominion.reuse.containers";
+
+  /**
+   * System property to use for enabling the caching of distributions by specifying the directory
+   * where to cache them.
+   */
+  public static final String DISTRIBUTION_CACHE_PROPERTY = "dominion.distribution.cache";
+
   /** User id for the Dominion user installed. This string expects to be interpolated. */
   public static final String DOMINION_USER_ID = "{dominion.user:-dominion}";
 
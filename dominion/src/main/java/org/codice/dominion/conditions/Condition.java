@@ -19,11 +19,10 @@ import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
-import java.util.Iterator;
-import java.util.ServiceLoader;
 import javax.annotation.Nullable;
 import org.codice.dominion.Dominion;
 import org.codice.dominion.DominionException;
+import org.codice.dominion.internal.ExtensionRegistry;
 import org.codice.dominion.resources.ResourceLoader;
 
 /**
@@ -31,6 +30,9 @@ import org.codice.dominion.resources.ResourceLoader;
  * scoping.
  */
 public class Condition {
+  private static final ExtensionRegistry<Factory, Extension> EXTENSIONS =
+      new ExtensionRegistry<>(Factory.class, Factory::getExtension);
+
   /**
    * Gets a condition extension from a specific subclass for the given condition annotation.
    *
@@ -49,10 +51,7 @@ public class Condition {
   public static <E extends Condition.Extension> E getExtension(
       Class<E> clazz, java.lang.annotation.Annotation annotation) {
     try {
-      for (final Iterator<Factory> i = ServiceLoader.load(Factory.class).iterator();
-          i.hasNext(); ) {
-        final Extension<?> extension = i.next().getExtension(annotation);
-
+      for (final Extension<?> extension : Condition.EXTENSIONS.getExtensions(annotation)) {
         if (clazz.isInstance(extension)) {
           return clazz.cast(extension);
         }
@@ -122,6 +121,9 @@ public class Condition {
    *
    * <p>The factory search stops when a registered factory returns a non-<code>null</code>
    * extension.
+   *
+   * <p>Factories are only instantiated once and the extensions they return are cached based on the
+   * type of annotation they are provided.
    */
   public interface Factory {
     /**
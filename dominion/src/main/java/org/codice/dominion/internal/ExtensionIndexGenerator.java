@@ -0,0 +1,375 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build-time generator for the indexes read by the {@link ExtensionRegistry}.
+ *
+ * <p>It is meant to be executed once classes have been compiled with the following arguments:
+ *
+ * <ul>
+ *   <li>the output directory where the classes were compiled and where the factories are
+ *       registered under <code>META-INF/services/</code>
+ *   <li>one or more <code>&lt;factory class&gt;=&lt;meta annotation class&gt;</code> pairs (e.g.
+ *       <code>
+ *       org.codice.dominion.options.Option$Factory=org.codice.dominion.options.Option$Annotation
+ *       </code>)
+ * </ul>
+ *
+ * <p>For each pair, all annotation types available from the classpath that are annotated with the
+ * meta annotation are presented to each factory registered in the output directory and the ones for
+ * which an extension is returned are recorded in an index file generated under <code>
+ * META-INF/dominion/</code>. Since factories are expected to return extensions based solely on the
+ * type of annotation they are given, the annotations presented are proxies which only report their
+ * annotation type and default values.
+ */
+public class ExtensionIndexGenerator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionIndexGenerator.class);
+
+  private static final String SERVICES_LOCATION = "META-INF/services/";
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  private ExtensionIndexGenerator() {}
+
+  /**
+   * Generates the indexes.
+   *
+   * @param args the output directory followed by factory and meta annotation class name pairs
+   * @throws IOException if an I/O error occurs while scanning the classpath or generating the
+   *     indexes
+   * @throws ClassNotFoundException if a factory or meta annotation class cannot be found
+   */
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) throws IOException, ClassNotFoundException {
+    if (args.length < 2) {
+      throw new IllegalArgumentException(
+          "usage: ExtensionIndexGenerator <output directory> "
+              + "<factory class>=<meta annotation class>...");
+    }
+    final File output = new File(args[0]);
+    final ClassLoader loader = ExtensionIndexGenerator.getClassLoader();
+    final List<File> roots = ExtensionIndexGenerator.getClasspath(loader);
+
+    for (int i = 1; i < args.length; i++) {
+      final String[] pair = args[i].split("=", 2);
+
+      if (pair.length != 2) {
+        throw new IllegalArgumentException("invalid factory and meta annotation pair: " + args[i]);
+      }
+      final Class<?> factoryClass = Class.forName(pair[0].trim(), false, loader);
+      final Class<? extends Annotation> meta =
+          (Class<? extends Annotation>) Class.forName(pair[1].trim(), false, loader);
+      final List<String> factories = ExtensionIndexGenerator.registered(output, factoryClass);
+
+      if (factories.isEmpty()) {
+        LOGGER.info("No {} registered in {}; skipping index", factoryClass.getName(), output);
+        continue;
+      }
+      ExtensionIndexGenerator.write(
+          output,
+          factoryClass,
+          ExtensionIndexGenerator.index(
+              loader,
+              factoryClass,
+              factories,
+              ExtensionIndexGenerator.scan(loader, meta, roots)));
+    }
+  }
+
+  /**
+   * Finds all annotation types annotated with the specified meta annotation from the specified
+   * classpath roots.
+   *
+   * @param loader the class loader to load annotation types with
+   * @param meta the meta annotation to look for
+   * @param roots the directories and jar files to scan
+   * @return the corresponding annotation types
+   * @throws IOException if an I/O error occurs while scanning
+   */
+  static Set<Class<? extends Annotation>> scan(
+      ClassLoader loader, Class<? extends Annotation> meta, Collection<File> roots)
+      throws IOException {
+    // class files refer to annotations by their descriptors which lets us skip loading most classes
+    final byte[] descriptor =
+        ('L' + meta.getName().replace('.', '/') + ';').getBytes(StandardCharsets.UTF_8);
+    final Set<Class<? extends Annotation>> types = new LinkedHashSet<>();
+
+    for (final File root : roots) {
+      if (root.isDirectory()) {
+        final Path base = root.toPath();
+        final List<Path> paths;
+
+        try (final Stream<Path> stream = Files.walk(base)) {
+          paths =
+              stream
+                  .filter(p -> p.toString().endsWith(ExtensionIndexGenerator.CLASS_EXTENSION))
+                  .collect(Collectors.toList());
+        }
+        for (final Path path : paths) {
+          ExtensionIndexGenerator.check(
+              loader,
+              meta,
+              base.relativize(path).toString().replace(File.separatorChar, '/'),
+              Files.readAllBytes(path),
+              descriptor,
+              types);
+        }
+      } else if (root.isFile()) {
+        try (final JarFile jar = new JarFile(root)) {
+          final Enumeration<JarEntry> entries = jar.entries();
+
+          while (entries.hasMoreElements()) {
+            final JarEntry entry = entries.nextElement();
+
+            if (entry.getName().endsWith(ExtensionIndexGenerator.CLASS_EXTENSION)) {
+              try (final InputStream is = jar.getInputStream(entry)) {
+                ExtensionIndexGenerator.check(
+                    loader,
+                    meta,
+                    entry.getName(),
+                    ExtensionIndexGenerator.read(is),
+                    descriptor,
+                    types);
+              }
+            }
+          }
+        }
+      }
+    }
+    LOGGER.debug("Found {} annotation types: {}", meta.getName(), types);
+    return types;
+  }
+
+  /**
+   * Presents all specified annotation types to each factory and records the ones they support.
+   *
+   * @param loader the class loader to load factories with
+   * @param factoryClass the factory interface
+   * @param factories the class names of the factories to index
+   * @param types the annotation types to present to each factory
+   * @return the names of the annotation types supported by each factory keyed by factory class
+   *     names
+   */
+  static Map<String, Set<String>> index(
+      ClassLoader loader,
+      Class<?> factoryClass,
+      List<String> factories,
+      Collection<Class<? extends Annotation>> types) {
+    final Method getter = ExtensionIndexGenerator.getter(factoryClass);
+    final Map<String, Set<String>> index = new TreeMap<>();
+
+    for (final String name : factories) {
+      final Object factory = ExtensionIndexGenerator.newInstance(loader, factoryClass, name);
+      final Set<String> supported = new TreeSet<>();
+
+      for (final Class<? extends Annotation> type : types) {
+        try {
+          if (getter.invoke(factory, ExtensionIndexGenerator.proxy(loader, type)) != null) {
+            supported.add(type.getName());
+          }
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException(
+              "failed to retrieve an extension from " + name + " for: " + type.getName(), e);
+        }
+      }
+      index.put(name, supported);
+    }
+    return index;
+  }
+
+  private static void check(
+      ClassLoader loader,
+      Class<? extends Annotation> meta,
+      String path,
+      byte[] bytes,
+      byte[] descriptor,
+      Set<Class<? extends Annotation>> types) {
+    if (!ExtensionIndexGenerator.contains(bytes, descriptor)) {
+      return;
+    }
+    final String name =
+        path.substring(0, path.length() - ExtensionIndexGenerator.CLASS_EXTENSION.length())
+            .replace('/', '.');
+
+    try {
+      final Class<?> clazz = Class.forName(name, false, loader);
+
+      if (clazz.isAnnotation() && clazz.isAnnotationPresent(meta)) {
+        types.add(clazz.asSubclass(Annotation.class));
+      }
+    } catch (ClassNotFoundException | LinkageError e) { // ignore classes we cannot load
+      LOGGER.debug("Failed to load class: {}", name, e);
+    }
+  }
+
+  private static byte[] read(InputStream is) throws IOException {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int n;
+
+    while ((n = is.read(buffer)) != -1) {
+      os.write(buffer, 0, n);
+    }
+    return os.toByteArray();
+  }
+
+  private static boolean contains(byte[] bytes, byte[] sequence) {
+    outer:
+    for (int i = 0; i <= bytes.length - sequence.length; i++) {
+      for (int j = 0; j < sequence.length; j++) {
+        if (bytes[i + j] != sequence[j]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static Method getter(Class<?> factoryClass) {
+    try {
+      return factoryClass.getMethod("getExtension", Annotation.class);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(
+          "factory class " + factoryClass.getName() + " has no getExtension(Annotation) method", e);
+    }
+  }
+
+  private static Object newInstance(ClassLoader loader, Class<?> factoryClass, String name) {
+    try {
+      return Class.forName(name, true, loader)
+          .asSubclass(factoryClass)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("failed to instantiate factory: " + name, e);
+    }
+  }
+
+  private static Annotation proxy(ClassLoader loader, Class<? extends Annotation> type) {
+    return (Annotation)
+        Proxy.newProxyInstance(
+            loader,
+            new Class<?>[] {type},
+            (p, method, args) -> {
+              switch (method.getName()) {
+                case "annotationType":
+                  return type;
+                case "hashCode":
+                  return type.hashCode();
+                case "equals":
+                  return p == args[0];
+                case "toString":
+                  return "@" + type.getName();
+                default:
+                  return method.getDefaultValue();
+              }
+            });
+  }
+
+  private static List<String> registered(File output, Class<?> factoryClass) throws IOException {
+    final File file =
+        new File(output, ExtensionIndexGenerator.SERVICES_LOCATION + factoryClass.getName());
+
+    if (!file.isFile()) {
+      return new ArrayList<>();
+    }
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)
+        .stream()
+        .map(l -> l.replaceFirst("#.*", "").trim())
+        .filter(l -> !l.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  private static void write(File output, Class<?> factoryClass, Map<String, Set<String>> index)
+      throws IOException {
+    final Path file =
+        output
+            .toPath()
+            .resolve(
+                ExtensionRegistry.INDEX_LOCATION
+                    + factoryClass.getName()
+                    + ExtensionRegistry.INDEX_EXTENSION);
+    // written by hand instead of using Properties.store() to keep the output reproducible
+    final List<String> lines =
+        index
+            .entrySet()
+            .stream()
+            .map(e -> e.getKey() + '=' + String.join(",", e.getValue()))
+            .collect(Collectors.toList());
+
+    Files.createDirectories(file.getParent());
+    Files.write(file, lines, StandardCharsets.ISO_8859_1);
+    LOGGER.info("Generated {} index: {}", factoryClass.getName(), file);
+  }
+
+  private static List<File> getClasspath(ClassLoader loader) {
+    final Set<File> roots = new LinkedHashSet<>();
+
+    for (ClassLoader l = loader; l != null; l = l.getParent()) {
+      if (l instanceof URLClassLoader) {
+        for (final URL url : ((URLClassLoader) l).getURLs()) {
+          if ("file".equals(url.getProtocol())) {
+            try {
+              roots.add(new File(url.toURI()));
+            } catch (URISyntaxException e) {
+              throw new IllegalArgumentException("invalid classpath entry: " + url, e);
+            }
+          }
+        }
+      }
+    }
+    Stream.of(System.getProperty("java.class.path", "").split(File.pathSeparator))
+        .filter(p -> !p.isEmpty())
+        .map(File::new)
+        .forEach(roots::add);
+    return new ArrayList<>(roots);
+  }
+
+  private static ClassLoader getClassLoader() {
+    final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    return (loader != null) ? loader : ExtensionIndexGenerator.class.getClassLoader();
+  }
+}
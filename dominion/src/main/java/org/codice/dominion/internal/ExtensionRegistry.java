@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of extensions created by factories registered as services retrievable via Java's {@link
+ * ServiceLoader}. Factories are loaded and instantiated only once per class loader and the
+ * extensions they return for a given annotation type are cached such that resolving an extension no
+ * longer requires consulting all registered factories every time.
+ *
+ * <p>Factories are expected to return extensions based solely on the type of annotation they are
+ * given (see {@link ConditionExtensionFactory}).
+ *
+ * <p>An index of the annotation types supported by given factories can also be generated at build
+ * time by the {@link ExtensionIndexGenerator} as a properties file named after the factory
+ * interface under <code>META-INF/dominion/</code> (e.g. <code>
+ * META-INF/dominion/org.codice.dominion.options.Option$Factory.index</code>). Each entry maps the
+ * fully qualified class name of a factory to a comma-separated list of the fully qualified names of
+ * the annotation types it supports. Indexed factories will only be consulted for the annotation
+ * types they are indexed with whereas factories that are not indexed will be consulted for all of
+ * them.
+ *
+ * <p>Caches are keyed by weakly referenced class loaders. Since the cached factories, services, and
+ * extensions are typically loaded by these class loaders, they are only softly referenced;
+ * otherwise, they would keep their class loaders reachable and prevent them from ever being garbage
+ * collected.
+ *
+ * @param <F> the type of factories
+ * @param <E> the type of extensions
+ */
+public class ExtensionRegistry<F, E> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionRegistry.class);
+
+  static final String INDEX_LOCATION = "META-INF/dominion/";
+
+  static final String INDEX_EXTENSION = ".index";
+
+  /** Cache of services keyed by class loaders and service classes. */
+  private static final Map<ClassLoader, SoftReference<Map<Class<?>, List<?>>>> SERVICES =
+      new WeakHashMap<>();
+
+  private final Class<F> factoryClass;
+
+  private final BiFunction<F, Annotation, E> getter;
+
+  /** Registries keyed by class loaders. */
+  private final Map<ClassLoader, SoftReference<Registry>> registries = new WeakHashMap<>();
+
+  /**
+   * Creates a new extension registry.
+   *
+   * @param factoryClass the class of factories to load
+   * @param getter a function to retrieve an extension from a given factory for a given annotation
+   *     which returns <code>null</code> if the factory does not support the annotation
+   */
+  public ExtensionRegistry(Class<F> factoryClass, BiFunction<F, Annotation, E> getter) {
+    this.factoryClass = factoryClass;
+    this.getter = getter;
+  }
+
+  /**
+   * Gets all extensions created by registered factories for the specified annotation.
+   *
+   * @param annotation the annotation for which to get extensions
+   * @return an unmodifiable list of all extensions in the order the corresponding factories were
+   *     registered
+   * @throws java.util.ServiceConfigurationError if unable to load the registered factories
+   */
+  public List<E> getExtensions(Annotation annotation) {
+    return ExtensionRegistry.get(
+            registries, ExtensionRegistry.getClassLoader(), Registry::new)
+        .getExtensions(annotation);
+  }
+
+  /**
+   * Gets all services registered via Java's {@link ServiceLoader} for the specified class. Services
+   * are loaded and instantiated only once per class loader.
+   *
+   * @param <S> the type of services to retrieve
+   * @param clazz the class of services to retrieve
+   * @return an unmodifiable list of all registered services
+   * @throws java.util.ServiceConfigurationError if unable to load the registered services
+   */
+  @SuppressWarnings("unchecked")
+  public static <S> List<S> getServices(Class<S> clazz) {
+    final ClassLoader loader = ExtensionRegistry.getClassLoader();
+
+    return (List<S>)
+        ExtensionRegistry.get(ExtensionRegistry.SERVICES, loader, l -> new ConcurrentHashMap<>())
+            .computeIfAbsent(clazz, c -> ExtensionRegistry.load(c, loader));
+  }
+
+  /**
+   * Gets a value from the specified cache, creating and caching a new one if none was cached or if
+   * it was garbage collected.
+   *
+   * @param <V> the type of values cached
+   * @param cache the cache to get a value from
+   * @param loader the class loader for which to get a value
+   * @param creator a function to create a new value for a given class loader
+   * @return the corresponding cached value
+   */
+  private static <V> V get(
+      Map<ClassLoader, SoftReference<V>> cache,
+      ClassLoader loader,
+      Function<ClassLoader, V> creator) {
+    synchronized (cache) {
+      final SoftReference<V> ref = cache.get(loader);
+      final V cached = (ref != null) ? ref.get() : null;
+
+      if (cached != null) {
+        return cached;
+      }
+      final V value = creator.apply(loader);
+
+      cache.put(loader, new SoftReference<>(value));
+      return value;
+    }
+  }
+
+  private static <S> List<S> load(Class<S> clazz, ClassLoader loader) {
+    final List<S> services = new ArrayList<>();
+
+    ServiceLoader.load(clazz, loader).forEach(services::add);
+    LOGGER.debug("Loaded {} services: {}", clazz.getName(), services);
+    return Collections.unmodifiableList(services);
+  }
+
+  private static ClassLoader getClassLoader() {
+    // same class loader as used by ServiceLoader.load(Class)
+    final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    return (loader != null) ? loader : ClassLoader.getSystemClassLoader();
+  }
+
+  /** Extensions available from a given class loader. */
+  private class Registry {
+    private final List<F> factories;
+
+    /** Names of annotation types supported by indexed factories keyed by these factories. */
+    private final Map<F, Set<String>> index;
+
+    /** Cache of extensions keyed by annotation types. */
+    private final Map<Class<? extends Annotation>, List<E>> extensions = new ConcurrentHashMap<>();
+
+    Registry(ClassLoader loader) {
+      this.factories = ExtensionRegistry.getServices(factoryClass);
+      this.index = loadIndex(loader);
+    }
+
+    List<E> getExtensions(Annotation annotation) {
+      final Class<? extends Annotation> type = annotation.annotationType();
+      final List<E> cached = extensions.get(type);
+
+      if (cached != null) {
+        return cached;
+      }
+      // not using computeIfAbsent() as factories might end up retrieving other extensions
+      final List<E> list =
+          Collections.unmodifiableList(
+              factories
+                  .stream()
+                  .filter(f -> supports(f, type))
+                  .map(f -> getter.apply(f, annotation))
+                  .filter(Objects::nonNull)
+                  .collect(Collectors.toList()));
+      final List<E> previous = extensions.putIfAbsent(type, list);
+
+      return (previous != null) ? previous : list;
+    }
+
+    private boolean supports(F factory, Class<? extends Annotation> type) {
+      final Set<String> types = index.get(factory);
+
+      return (types == null) || types.contains(type.getName());
+    }
+
+    private Map<F, Set<String>> loadIndex(ClassLoader loader) {
+      final Map<String, F> factoriesByName = new HashMap<>();
+      final Map<F, Set<String>> map = new IdentityHashMap<>();
+
+      factories.forEach(f -> factoriesByName.put(f.getClass().getName(), f));
+      try {
+        final Enumeration<URL> urls =
+            loader.getResources(
+                ExtensionRegistry.INDEX_LOCATION
+                    + factoryClass.getName()
+                    + ExtensionRegistry.INDEX_EXTENSION);
+
+        while (urls.hasMoreElements()) {
+          final URL url = urls.nextElement();
+          final Properties properties = new Properties();
+
+          try (final InputStream is = url.openStream()) {
+            properties.load(is);
+          }
+          LOGGER.debug("Loading {} index: {}", factoryClass.getName(), url);
+          for (final String name : properties.stringPropertyNames()) {
+            final F factory = factoriesByName.get(name);
+
+            if (factory != null) { // ignore factories that are not registered
+              Collections.addAll(
+                  map.computeIfAbsent(factory, f -> new HashSet<>()),
+                  StringUtils.split(properties.getProperty(name), ", "));
+            }
+          }
+        }
+      } catch (IOException e) {
+        // ignore the index(es) and fallback to consulting all factories
+        LOGGER.debug("Failed to load {} index", factoryClass.getName(), e);
+        return Collections.emptyMap();
+      }
+      return map;
+    }
+  }
+}
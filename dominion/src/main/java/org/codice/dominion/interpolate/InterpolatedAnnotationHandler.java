@@ -14,6 +14,7 @@
 package org.codice.dominion.interpolate;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -24,6 +25,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
  * Proxy handler for front-ending an annotation object in order to interpolate on-demand annotation
@@ -91,6 +93,12 @@ import java.util.stream.Stream;
  * "@interpolation(@MyOption(source=https://localhost:{port.https}, destination=etc/my.cfg), source=https://localhost:1234"
  * </code>.
  *
+ * <p>Attribute values are read from the original annotation only once and then kept by the handler
+ * such that accessing an attribute does not require reflection. Interpolated values are obtained
+ * from the interpolator every time since they depend on its current state; the interpolator keeps
+ * the results of previous interpolations until its state changes. The hash code of the original
+ * annotation is also computed only once.
+ *
  * @param <A> the type of annotation being handled
  */
 class InterpolatedAnnotationHandler<A extends Annotation> implements InvocationHandler {
@@ -150,6 +158,11 @@ class InterpolatedAnnotationHandler<A extends Annotation> implements InvocationH
   private final A annotation;
   private final Set<Method> toInterpolate;
 
+  /** Original attribute values keyed by attribute names; populated the first time they are read. */
+  private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+  @Nullable private volatile Integer hash = null;
+
   private InterpolatedAnnotationHandler(
       Interpolator interpolator, A annotation, Set<Method> toInterpolate) {
     this.interpolator = interpolator;
@@ -159,17 +172,50 @@ class InterpolatedAnnotationHandler<A extends Annotation> implements InvocationH
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    final Object o = method.invoke(annotation, args);
-
-    if (method.equals(InterpolatedAnnotationHandler.TO_STRING)) {
-      return toInterpolate
-          .stream()
-          .map(this::toInterpolatedString)
-          .collect(Collectors.joining(", ", "@interpolation(" + o + ", ", ")"));
-    } else if (!toInterpolate.contains(method)) {
+    if ((args == null) || (args.length == 0)) {
+      switch (method.getName()) {
+        case "toString":
+          return toInterpolatedString();
+        case "hashCode":
+          return getHashCode();
+        case "annotationType":
+          return annotation.annotationType();
+        default:
+          if (method.getDeclaringClass() == annotation.annotationType()) {
+            final Object o = getValue(method);
+
+            return toInterpolate.contains(method)
+                ? toInterpolatedObject(method, o)
+                : InterpolatedAnnotationHandler.cloneIfArray(o);
+          }
+      }
+    } else if ((args.length == 1) && method.getName().equals("equals")) {
+      return (proxy == args[0]) || annotation.equals(args[0]);
+    }
+    return method.invoke(annotation, args);
+  }
+
+  private int getHashCode() {
+    Integer h = hash;
+
+    if (h == null) {
+      h = annotation.hashCode();
+      this.hash = h;
+    }
+    return h;
+  }
+
+  private Object getValue(Method method) throws IllegalAccessException, InvocationTargetException {
+    final Object o = values.get(method.getName());
+
+    if (o != null) {
       return o;
     }
-    return toInterpolatedObject(method, o);
+    // Note. Annotation methods cannot have arguments!
+    final Object value = method.invoke(annotation);
+
+    values.put(method.getName(), value);
+    return value;
   }
 
   private Object toInterpolatedObject(Method method, Object o) {
@@ -182,12 +228,18 @@ class InterpolatedAnnotationHandler<A extends Annotation> implements InvocationH
         "Can only interpolate annotated methods that returns String or String[] for: " + method);
   }
 
+  private String toInterpolatedString() {
+    return toInterpolate
+        .stream()
+        .map(this::toInterpolatedString)
+        .collect(Collectors.joining(", ", "@interpolation(" + annotation + ", ", ")"));
+  }
+
   private String toInterpolatedString(Method method) {
     String s;
 
     try {
-      // Note. Annotation methods cannot have arguments!
-      final Object o = toInterpolatedObject(method, method.invoke(annotation));
+      final Object o = toInterpolatedObject(method, getValue(method));
 
       if (o instanceof String[]) {
         s = Arrays.toString((String[]) o);
@@ -199,4 +251,16 @@ class InterpolatedAnnotationHandler<A extends Annotation> implements InvocationH
     }
     return method.getName() + '=' + s;
   }
+
+  private static Object cloneIfArray(Object o) {
+    // annotations must return a new copy of their array values every time they are accessed
+    if (!o.getClass().isArray()) {
+      return o;
+    }
+    final int length = Array.getLength(o);
+    final Object clone = Array.newInstance(o.getClass().getComponentType(), length);
+
+    System.arraycopy(o, 0, clone, 0, length);
+    return clone;
+  }
 }
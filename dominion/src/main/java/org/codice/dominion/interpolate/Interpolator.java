@@ -30,9 +30,17 @@ import java.lang.reflect.Modifier;
 import java.nio.file.Paths;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.apache.commons.text.StringSubstitutor;
@@ -66,11 +74,21 @@ public class Interpolator implements Closeable, StringLookup {
 
   protected final PortFinder ports;
 
+  /**
+   * Records the system properties and environment variables read by the interpolation currently in
+   * progress on the current thread or <code>null</code> if none is in progress. These can change
+   * without notice and must therefore be re-checked before reusing a cached result.
+   */
+  private static final ThreadLocal<Lookups> LOOKUPS = new ThreadLocal<>();
+
   private final StringSubstitutor substitutor =
       new StringSubstitutor(
               this, new PrefixMatcher(), StringMatcherFactory.INSTANCE.stringMatcher("}"), '\0')
           .setEnableSubstitutionInVariables(true);
 
+  /** Compiled templates keyed by the strings they were compiled from. */
+  private final Map<String, Template> templates = new ConcurrentHashMap<>();
+
   /**
    * Initializes a new interpolator inside a driver with the specified test run id and container
    * name.
@@ -95,7 +113,7 @@ public class Interpolator implements Closeable, StringLookup {
     this.testClass = testClass;
     this.id = id;
     this.container = container;
-    this.replacements = new HashMap<>();
+    this.replacements = new Replacements(new HashMap<>());
     replacements.put("test.id", id);
     replacements.put("container.name", container);
     initSystemReplacements();
@@ -116,7 +134,8 @@ public class Interpolator implements Closeable, StringLookup {
    * @param testClass the current test class
    * @param id a unique id for this the corresponding test run
    * @param container the name of the container for which to create an interpolator
-   * @param replacements the set of replacements strings to use when interpolating
+   * @param replacements the set of replacements strings to use when interpolating (changes must be
+   *     made through {@link #replacements} from now on in order to be detected)
    * @param ports the ports information already allocated from the driver
    */
   public Interpolator(
@@ -129,7 +148,7 @@ public class Interpolator implements Closeable, StringLookup {
     this.testClass = testClass;
     this.id = id;
     this.container = container;
-    this.replacements = replacements;
+    this.replacements = new Replacements(replacements);
     this.ports = ports;
     initSystemReplacements();
   }
@@ -149,7 +168,9 @@ public class Interpolator implements Closeable, StringLookup {
 
     try {
       this.replacements =
-          new Gson().fromJson(properties.getProperty(Interpolator.REPLACEMENTS_KEY, ""), Map.class);
+          new Replacements(
+              new Gson()
+                  .fromJson(properties.getProperty(Interpolator.REPLACEMENTS_KEY, ""), Map.class));
     } catch (JsonSyntaxException e) {
       throw new InterpolationException("Unable to determine replacement information", e);
     }
@@ -324,6 +345,11 @@ public class Interpolator implements Closeable, StringLookup {
   /**
    * Interpolates a string.
    *
+   * <p>Strings are compiled the first time they are interpolated and the results are cached until
+   * the replacements change or new ports are reserved. Keys which are not found in the known
+   * replacements are looked up as system properties or environment variables; the values read are
+   * recorded with the cached result and re-checked before reusing it.
+   *
    * @param s the string to interpolate
    * @return a new interpolated string or <code>null</code> if <code>s</code> is <code>null</code>
    * @throws InterpolationException if unable to interpolate the string
@@ -334,7 +360,10 @@ public class Interpolator implements Closeable, StringLookup {
    */
   @Nullable
   public String interpolate(@Nullable String s) {
-    return substitutor.replace(s);
+    if (s == null) {
+      return null;
+    }
+    return templates.computeIfAbsent(s, Template::new).interpolate();
   }
 
   /**
@@ -366,9 +395,21 @@ public class Interpolator implements Closeable, StringLookup {
     String value = replacements.get(key);
 
     if (value == null) {
+      final Lookups lookups = Interpolator.LOOKUPS.get();
+
+      // whether or not it is defined, a system property can change without notice so record what
+      // we read such that a cached result can be re-checked
       value = System.getProperty(key);
+      if (lookups != null) {
+        lookups.properties.put(key, value);
+      }
       if ((value == null) && key.startsWith("env.")) {
-        value = System.getenv(key.substring(4));
+        final String name = key.substring(4);
+
+        value = System.getenv(name);
+        if (lookups != null) {
+          lookups.environment.put(name, value);
+        }
       }
       if ((value == null) && key.startsWith("port.")) {
         value = Integer.toString(ports.getPort(key.substring(5)));
@@ -466,6 +507,69 @@ public class Interpolator implements Closeable, StringLookup {
     return properties;
   }
 
+  /**
+   * Checks if the specified position marks the start of a variable; that is a '{' not preceded with
+   * '$'. This must be kept in sync with {@link PrefixMatcher}.
+   */
+  private static boolean isVariableStart(char[] chars, int pos) {
+    return (chars[pos] == '{') && ((pos == 0) || (chars[pos - 1] != '$'));
+  }
+
+  /**
+   * Compiles the specified string into a list of literal and variable segments.
+   *
+   * @param text the string to compile
+   * @return the corresponding segments or <code>null</code> if the string cannot be compiled
+   */
+  @Nullable
+  private static List<Segment> compile(String text) {
+    if (text.indexOf('\0') != -1) { // let the substitutor deal with escapes
+      return null;
+    }
+    final char[] chars = text.toCharArray();
+    final List<Segment> segments = new ArrayList<>();
+    int start = 0;
+    int pos = 0;
+
+    while (pos < chars.length) {
+      if (!Interpolator.isVariableStart(chars, pos)) {
+        pos++;
+        continue;
+      }
+      final int end = Interpolator.findVariableEnd(chars, pos + 1);
+
+      if (end == -1) { // unterminated so the rest is all literal
+        break;
+      }
+      if (pos > start) {
+        segments.add(new Segment(text.substring(start, pos), false));
+      }
+      segments.add(new Segment(text.substring(pos, end + 1), true));
+      pos = end + 1;
+      start = pos;
+    }
+    if (start < chars.length) {
+      segments.add(new Segment(text.substring(start), false));
+    }
+    return segments;
+  }
+
+  private static int findVariableEnd(char[] chars, int pos) {
+    int nested = 0;
+
+    for (int i = pos; i < chars.length; i++) {
+      if (Interpolator.isVariableStart(chars, i)) {
+        nested++;
+      } else if (chars[i] == '}') {
+        if (nested == 0) {
+          return i;
+        }
+        nested--;
+      }
+    }
+    return -1;
+  }
+
   /** Matcher to match '{' as the prefix as long as it is not preceded with $. */
   private static class PrefixMatcher implements StringMatcher {
     @Override
@@ -479,4 +583,206 @@ public class Interpolator implements Closeable, StringLookup {
       return 0;
     }
   }
+
+  /**
+   * Template compiled from a string into a list of literal and variable segments such that only
+   * variables need to be evaluated when interpolating. The last result is kept and reused as long
+   * as the replacements and reserved ports have not changed.
+   *
+   * <p>Segments are split following the same rules as the substitutor and each variable segment is
+   * evaluated with the substitutor itself. Strings which rely on escape characters are not compiled
+   * and are evaluated with the substitutor as a whole.
+   */
+  private class Template {
+    private final String text;
+
+    /** The compiled segments or <code>null</code> if the template could not be compiled. */
+    @Nullable private final List<Segment> segments;
+
+    @Nullable private volatile Result result = null;
+
+    Template(String text) {
+      this.text = text;
+      this.segments = Interpolator.compile(text);
+    }
+
+    String interpolate() {
+      final long generation = ((Replacements) replacements).getGeneration();
+      final int assigned = ports.getAssignedCount();
+      final Result last = result;
+
+      if ((last != null)
+          && (last.generation == generation)
+          && (last.assigned == assigned)
+          && last.lookups.areCurrent()) {
+        Interpolator.record(last.lookups);
+        return last.value;
+      }
+      final Lookups outer = Interpolator.LOOKUPS.get();
+      final Lookups lookups = new Lookups();
+
+      Interpolator.LOOKUPS.set(lookups);
+      try {
+        final String value = evaluate();
+
+        // ports reserved while evaluating are part of this result so don't let them invalidate it
+        this.result = new Result(value, generation, ports.getAssignedCount(), lookups);
+        return value;
+      } finally {
+        if (outer != null) {
+          Interpolator.LOOKUPS.set(outer);
+          Interpolator.record(lookups);
+        } else {
+          Interpolator.LOOKUPS.remove();
+        }
+      }
+    }
+
+    private String evaluate() {
+      if (segments == null) {
+        return substitutor.replace(text);
+      }
+      final StringBuilder sb = new StringBuilder(text.length());
+      boolean afterVariable = false;
+
+      for (final Segment segment : segments) {
+        if (afterVariable
+            && (sb.length() > 0)
+            && ((sb.charAt(sb.length() - 1) == '$') || (sb.charAt(sb.length() - 1) == '\0'))
+            && (segment.text.charAt(0) == '{')) {
+          // the value of the previous variable changes the meaning of what follows
+          return substitutor.replace(text);
+        }
+        sb.append(segment.variable ? substitutor.replace(segment.text) : segment.text);
+        afterVariable = segment.variable;
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Records the specified lookups with the interpolation in progress on the current thread, if any,
+   * since it relies on the same values.
+   *
+   * @param lookups the lookups to record
+   */
+  private static void record(Lookups lookups) {
+    final Lookups current = Interpolator.LOOKUPS.get();
+
+    if (current != null) {
+      current.properties.putAll(lookups.properties);
+      current.environment.putAll(lookups.environment);
+    }
+  }
+
+  private static class Segment {
+    private final String text;
+
+    private final boolean variable;
+
+    Segment(String text, boolean variable) {
+      this.text = text;
+      this.variable = variable;
+    }
+  }
+
+  private static class Result {
+    private final String value;
+
+    private final long generation;
+
+    private final int assigned;
+
+    private final Lookups lookups;
+
+    Result(String value, long generation, int assigned, Lookups lookups) {
+      this.value = value;
+      this.generation = generation;
+      this.assigned = assigned;
+      this.lookups = lookups;
+    }
+  }
+
+  /**
+   * System properties and environment variables read while evaluating a template keyed by their
+   * names along with the values read (<code>null</code> if not defined).
+   */
+  private static class Lookups {
+    private final Map<String, String> properties = new HashMap<>(4);
+
+    private final Map<String, String> environment = new HashMap<>(4);
+
+    boolean areCurrent() {
+      return properties
+              .entrySet()
+              .stream()
+              .allMatch(e -> Objects.equals(e.getValue(), System.getProperty(e.getKey())))
+          && environment
+              .entrySet()
+              .stream()
+              .allMatch(e -> Objects.equals(e.getValue(), System.getenv(e.getKey())));
+    }
+  }
+
+  /**
+   * Map of replacement strings which keeps track of modifications such that cached results can be
+   * invalidated. Entries can only be modified through the map itself.
+   */
+  private static class Replacements extends AbstractMap<String, String> {
+    private final Map<String, String> map;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    Replacements(Map<String, String> map) {
+      this.map = map;
+    }
+
+    long getGeneration() {
+      return generation.get();
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return map.containsKey(key);
+    }
+
+    @Override
+    public String get(Object key) {
+      return map.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+      generation.incrementAndGet();
+      return map.put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+      generation.incrementAndGet();
+      return map.remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+      generation.incrementAndGet();
+      map.putAll(m);
+    }
+
+    @Override
+    public void clear() {
+      generation.incrementAndGet();
+      map.clear();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return Collections.unmodifiableMap(map).entrySet();
+    }
+  }
 }
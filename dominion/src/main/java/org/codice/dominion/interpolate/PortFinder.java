@@ -15,8 +15,12 @@ package org.codice.dominion.interpolate;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
@@ -28,6 +32,9 @@ import org.slf4j.LoggerFactory;
  * {@link #getPort(String)} the first time will assign a specific port in that range with the name
  * provided, and calling one of those two methods with that name will return the same port number
  * afterwards.
+ *
+ * <p>Blocks of ports are leased through a registry shared by all VMs building from the same
+ * directory such that concurrent VMs (e.g. forked test VMs) do not compete for the same blocks.
  */
 public class PortFinder implements Closeable {
   private static final Logger LOGGER = LoggerFactory.getLogger(PortFinder.class);
@@ -66,9 +73,9 @@ public class PortFinder implements Closeable {
   public PortFinder(String container, int basePort, int blockSize) {
     this.container = container;
     this.blockSize = blockSize;
-    this.placeHolderSocket = findServerSocket(basePort, blockSize);
+    this.placeHolderSocket = PortLeaseRegistry.lease(basePort, blockSize, this::reserve);
     this.basePort = placeHolderSocket.getLocalPort();
-    this.nextPort = basePort + 1;
+    this.nextPort = this.basePort + 1;
   }
 
   /**
@@ -102,15 +109,38 @@ public class PortFinder implements Closeable {
     }
   }
 
+  /**
+   * Gets the number of ports assigned so far.
+   *
+   * @return the number of ports assigned so far
+   */
+  int getAssignedCount() {
+    synchronized (registeredPorts) {
+      return registeredPorts.size();
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (placeHolderSocket != null) {
-      placeHolderSocket.close();
+      try {
+        placeHolderSocket.close();
+      } finally {
+        PortLeaseRegistry.release(basePort);
+      }
     }
   }
 
+  /**
+   * Attempts to reserve the block of ports starting at the specified port.
+   *
+   * @param portToTry the starting port of the block to reserve
+   * @return the marker socket bound to the starting port if all ports in the block were available
+   *     or <code>null</code> if not
+   */
+  @Nullable
   @SuppressWarnings("squid:S1141" /* simple enough here to keep it as 2 try/catch*/)
-  private ServerSocket findServerSocket(int portToTry, int blockSize) {
+  private ServerSocket reserve(int portToTry) {
     try {
       final ServerSocket markerSocket = getMarkerSocket(portToTry);
 
@@ -122,8 +152,7 @@ public class PortFinder implements Closeable {
         throw e;
       }
     } catch (Exception e) {
-      LOGGER.debug("Starting port {} unavailable, trying {}", portToTry, portToTry + blockSize);
-      return findServerSocket(portToTry + blockSize, blockSize);
+      return null;
     }
   }
 
@@ -137,9 +166,23 @@ public class PortFinder implements Closeable {
   }
 
   private void checkAllPortsInRangeAvailable(int markerPort) throws IOException {
-    for (int i = markerPort + 1; i < markerPort + blockSize; i++) {
-      try (ServerSocket ignored = new ServerSocket(i)) {
-        // Nothing to do, just checking port i was available
+    // bind all ports in the range in a single pass and hold them until all were checked so none
+    // can be grabbed by someone else while we are still checking the others
+    final List<ServerSocketChannel> channels = new ArrayList<>(blockSize - 1);
+
+    try {
+      for (int i = markerPort + 1; i < markerPort + blockSize; i++) {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+
+        channels.add(channel);
+        channel.bind(new InetSocketAddress(i));
+      }
+    } finally {
+      for (final ServerSocketChannel channel : channels) {
+        try {
+          channel.close();
+        } catch (IOException e) { // ignore
+        }
       }
     }
   }
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.interpolate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of port blocks leased by the VMs running on this host. The registry is a properties file
+ * located under the build directory of the project (as defined by the <code>project.basedir</code>
+ * system property or the current working directory if not defined) which maps the starting port of
+ * each leased block to the pid of the VM that leased it along with the time it was leased. All
+ * accesses to the file are protected with a file lock such that concurrent VMs (e.g. forked
+ * surefire or failsafe VMs) never attempt to reserve the same blocks.
+ *
+ * <p>Leases are released when the corresponding {@link PortFinder} is closed. Leases left behind by
+ * VMs that are no longer running are automatically expired. When the liveness of a VM cannot be
+ * determined, its leases are expired after {@link #LEASE_EXPIRATION} milliseconds.
+ *
+ * <p><i>Note:</i> The registry is only a coordination mechanism. Ports are still reserved by
+ * binding to them as other processes on the host might not be using the registry.
+ */
+class PortLeaseRegistry {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PortLeaseRegistry.class);
+
+  /** System property which can be used to override the location of the registry file. */
+  public static final String LEASES_PROPERTY = "dominion.port.leases";
+
+  /** Amount of time in milliseconds after which leases from VMs of unknown status expire. */
+  private static final long LEASE_EXPIRATION = 4L * 60L * 60L * 1000L;
+
+  private static final int MAX_PORT = 65535;
+
+  private static final Path PROC = Paths.get("/proc");
+
+  private static final String PID = PortLeaseRegistry.getPid();
+
+  private static final Path FILE =
+      Paths.get(
+              System.getProperty(
+                  PortLeaseRegistry.LEASES_PROPERTY,
+                  Paths.get(
+                          System.getProperty("project.basedir", ""),
+                          "target",
+                          "dominion-port-leases.properties")
+                      .toString()))
+          .toAbsolutePath();
+
+  /**
+   * Leases and reserves the first available block of ports starting at or after <code>basePort
+   * </code>.
+   *
+   * <p>The reserver is called back with the starting port of each block which is not currently
+   * leased by another VM until it succeeds in reserving one. If the registry cannot be accessed,
+   * all blocks are considered available.
+   *
+   * @param basePort the base port from which to find a block of available ports
+   * @param blockSize the number of ports in a block
+   * @param reserver a function called to reserve a block given its starting port which returns a
+   *     marker socket bound to that port or <code>null</code> if the block cannot be reserved
+   * @return the marker socket returned by the reserver for the leased block
+   * @throws InterpolationException if no blocks of ports are available
+   */
+  static ServerSocket lease(int basePort, int blockSize, IntFunction<ServerSocket> reserver) {
+    // file locks are held on behalf of the whole VM so we must also synchronize between threads;
+    // another copy of this class loaded by a different class loader will still fail to acquire the
+    // lock while we hold it as the VM reports an overlapping lock instead of waiting
+    synchronized (PortLeaseRegistry.class) {
+      try (final FileChannel channel = PortLeaseRegistry.open();
+          final FileLock lock = channel.lock()) {
+        final Properties leases = PortLeaseRegistry.read(channel);
+
+        PortLeaseRegistry.expire(leases);
+        final ServerSocket socket =
+            PortLeaseRegistry.reserve(
+                basePort, blockSize, reserver, p -> leases.containsKey(Integer.toString(p)));
+
+        leases.setProperty(
+            Integer.toString(socket.getLocalPort()),
+            PortLeaseRegistry.PID + ':' + System.currentTimeMillis());
+        PortLeaseRegistry.write(channel, leases);
+        return socket;
+      } catch (IOException | OverlappingFileLockException e) {
+        LOGGER.debug(
+            "Failed to access port lease registry '{}'; reserving ports without it",
+            PortLeaseRegistry.FILE,
+            e);
+      }
+    }
+    return PortLeaseRegistry.reserve(basePort, blockSize, reserver, p -> false);
+  }
+
+  /**
+   * Releases the lease on the block of ports starting with the specified port if it is owned by
+   * this VM.
+   *
+   * @param port the starting port of the block to release
+   */
+  static void release(int port) {
+    synchronized (PortLeaseRegistry.class) {
+      if (!Files.exists(PortLeaseRegistry.FILE)) {
+        return;
+      }
+      try (final FileChannel channel = PortLeaseRegistry.open();
+          final FileLock lock = channel.lock()) {
+        final Properties leases = PortLeaseRegistry.read(channel);
+        final String key = Integer.toString(port);
+
+        if (PortLeaseRegistry.PID.equals(PortLeaseRegistry.getLeasePid(leases.getProperty(key)))) {
+          leases.remove(key);
+          PortLeaseRegistry.write(channel, leases);
+        }
+      } catch (IOException | OverlappingFileLockException e) {
+        LOGGER.debug("Failed to release port lease {} from '{}'", port, PortLeaseRegistry.FILE, e);
+      }
+    }
+  }
+
+  private static ServerSocket reserve(
+      int basePort, int blockSize, IntFunction<ServerSocket> reserver, IntPredicate leased) {
+    for (int port = basePort;
+        port + blockSize - 1 <= PortLeaseRegistry.MAX_PORT;
+        port += blockSize) {
+      if (leased.test(port)) {
+        LOGGER.debug("Starting port {} leased by another VM, trying {}", port, port + blockSize);
+        continue;
+      }
+      final ServerSocket socket = reserver.apply(port);
+
+      if (socket != null) {
+        return socket;
+      }
+      LOGGER.debug("Starting port {} unavailable, trying {}", port, port + blockSize);
+    }
+    throw new InterpolationException(
+        "Failed to reserve a block of " + blockSize + " ports starting at or after " + basePort);
+  }
+
+  /**
+   * Removes leases owned by VMs that are no longer running or that have expired.
+   *
+   * @param leases the leases to check
+   */
+  private static void expire(Properties leases) {
+    final long now = System.currentTimeMillis();
+
+    for (final String port : leases.stringPropertyNames()) {
+      final String lease = leases.getProperty(port);
+
+      if (PortLeaseRegistry.isStale(lease, now)) {
+        LOGGER.debug("Expiring port lease {}: {}", port, lease);
+        leases.remove(port);
+      }
+    }
+  }
+
+  private static boolean isStale(String lease, long now) {
+    final String pid = PortLeaseRegistry.getLeasePid(lease);
+
+    if (StringUtils.isEmpty(pid)) {
+      return true;
+    } else if (Files.isDirectory(PortLeaseRegistry.PROC)) {
+      return !Files.isDirectory(PortLeaseRegistry.PROC.resolve(pid));
+    }
+    try { // cannot determine if the VM is still running so rely on when it was leased
+      return now - Long.parseLong(StringUtils.substringAfter(lease, ":"))
+          > PortLeaseRegistry.LEASE_EXPIRATION;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+  @Nullable
+  private static String getLeasePid(@Nullable String lease) {
+    return (lease != null) ? StringUtils.substringBefore(lease, ":") : null;
+  }
+
+  private static FileChannel open() throws IOException {
+    Files.createDirectories(PortLeaseRegistry.FILE.getParent());
+    return FileChannel.open(
+        PortLeaseRegistry.FILE,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  private static Properties read(FileChannel channel) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    final Properties leases = new Properties();
+
+    while (buffer.hasRemaining() && (channel.read(buffer, buffer.position()) != -1)) {
+      // keep reading until the whole file has been read
+    }
+    leases.load(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+    return leases;
+  }
+
+  private static void write(FileChannel channel, Properties leases) throws IOException {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    leases.store(os, "Dominion port leases (port=pid:time)");
+    final ByteBuffer buffer = ByteBuffer.wrap(os.toByteArray());
+
+    channel.truncate(0L);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, buffer.position());
+    }
+    channel.force(false);
+  }
+
+  private static String getPid() {
+    // the runtime name is typically in the form <pid>@<hostname>
+    return StringUtils.substringBefore(ManagementFactory.getRuntimeMXBean().getName(), "@");
+  }
+
+  private PortLeaseRegistry() {}
+}
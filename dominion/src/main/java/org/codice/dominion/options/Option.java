@@ -20,16 +20,18 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ServiceLoader;
 import javax.annotation.Nullable;
 import org.codice.dominion.Dominion;
 import org.codice.dominion.DominionException;
+import org.codice.dominion.internal.ExtensionRegistry;
 import org.codice.dominion.interpolate.Interpolate;
 
 /** This class provides configuration support for containers. It is primarily used for scoping. */
 public class Option {
+  private static final ExtensionRegistry<Factory, Extension> EXTENSIONS =
+      new ExtensionRegistry<>(Factory.class, Factory::getExtension);
+
   /**
    * Gets an option extension from a specific subclass for the given option annotation.
    *
@@ -48,10 +50,7 @@ public class Option {
   public static <E extends Extension> E getExtension(
       Class<E> clazz, java.lang.annotation.Annotation annotation) {
     try {
-      for (final Iterator<Factory> i = ServiceLoader.load(Factory.class).iterator();
-          i.hasNext(); ) {
-        final Extension extension = i.next().getExtension(annotation);
-
+      for (final Extension extension : Option.EXTENSIONS.getExtensions(annotation)) {
         if (clazz.isInstance(extension)) {
           return clazz.cast(extension);
         }
@@ -84,10 +83,7 @@ public class Option {
     try {
       final List<E> extensions = new ArrayList<>(4);
 
-      for (final Iterator<Factory> i = ServiceLoader.load(Factory.class).iterator();
-          i.hasNext(); ) {
-        final Extension extension = i.next().getExtension(annotation);
-
+      for (final Extension extension : Option.EXTENSIONS.getExtensions(annotation)) {
         if (clazz.isInstance(extension)) {
           extensions.add(clazz.cast(extension));
         }
@@ -101,6 +97,23 @@ public class Option {
     }
   }
 
+  /**
+   * Gets all registered system dominion options.
+   *
+   * @return an unmodifiable list of all registered system dominion options
+   * @throws OptionException if a failure occurred while retrieving the system options
+   */
+  @SuppressWarnings("squid:S1181" /* catching VirtualMachineError first */)
+  public static List<System> getSystems() {
+    try {
+      return ExtensionRegistry.getServices(System.class);
+    } catch (VirtualMachineError | DominionException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new OptionException("failure retrieving system options", t);
+    }
+  }
+
   /**
    * Defines a meta annotation which enables the developer to create a new option annotation which
    * can be used to configure a test container.
@@ -152,6 +165,9 @@ public class Option {
    *
    * <p>The factory search stops when a registered factory returns a non-<code>null</code> extension
    * of an expected class.
+   *
+   * <p>Factories are only instantiated once and the extensions they return are cached based on the
+   * type of annotation they are provided.
    */
   public interface Factory {
     /**
@@ -17,25 +17,41 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
 import org.codice.dominion.interpolate.Interpolator;
 import org.codice.dominion.resources.ResourceLoader;
 import org.codice.maven.MavenUrl;
 import org.codice.maven.MavenUrlReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Enumeration defining different types for the source content. It also provides utility methods to
- * convert referenced content into temporary files.
+ * convert referenced content into files.
+ *
+ * <p>Content which is not already a file on disk is stored under the build directory in a content
+ * addressed store where each file is named after a digest of its content. A given content is
+ * therefore only written once and shared by all test classes and subsequent runs.
  */
 public enum SourceType {
   /** Source is a file on disk. */
@@ -95,13 +111,23 @@ public enum SourceType {
     }
   };
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(SourceType.class);
+
+  /** Amount of content kept in memory before being spilled to disk while computing its digest. */
+  private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+  /** Directory where sources are stored based on a digest of their content. */
+  private static final Path STORE_DIR =
+      Paths.get(System.getProperty("project.basedir", ""), "target", "dominion-sources")
+          .toAbsolutePath();
+
   /**
    * Converts a source of this type to a file.
    *
    * @param source the source of this type to retrieve
    * @param interpolator the interpolator to use for retrieving line separators when needed
    * @param resourceLoader the resource loader to use when loading resources
-   * @return a corresponding temporary file with the content of the specified resource of this type
+   * @return a corresponding file with the content of the specified resource of this type
    * @throws IOException if an I/O error occurred
    */
   public abstract File toFile(
@@ -133,7 +159,7 @@ public enum SourceType {
    * @param annotation the annotation defining the above information
    * @param interpolator the interpolator to use for retrieving line separators when needed
    * @param resourceLoader the resource loader to use when loading resources
-   * @return a corresponding temporary file with the content of the specified source
+   * @return a corresponding file with the content of the specified source
    * @throws IllegalArgumentException if no attributes are defined; more than one are defined or the
    *     annotation class doesn't define them or it defines them with the wrong type
    * @throws IOException if an I/O error occurred
@@ -192,7 +218,7 @@ public enum SourceType {
    * Converts a source url to a file.
    *
    * @param url the source url to retrieve and create a file with
-   * @return a corresponding temporary file with the content of the specified url
+   * @return a corresponding file with the content of the specified url
    * @throws IOException if an I/O error occurred
    */
   public static File fromUrlToFile(String url) throws IOException {
@@ -206,7 +232,7 @@ public enum SourceType {
    *
    * @param artifact the maven artifact url to retrieve and create a file with
    * @param resourceLoader the loader to use for loading <code>dependencies.properties</code>
-   * @return a corresponding temporary file with the content of the specified maven url
+   * @return a corresponding file with the content of the specified maven url
    * @throws IOException if an I/O error occurred
    */
   public static File fromArtifactToFile(MavenUrl artifact, ResourceLoader resourceLoader)
@@ -218,15 +244,64 @@ public enum SourceType {
   /**
    * Converts a source stream to a file.
    *
+   * <p>Files are stored under the build directory based on a digest of their content such that a
+   * given content is only ever written once and shared by all test classes and subsequent runs.
+   * Files are published to the store atomically and must therefore never be modified.
+   *
    * @param is the source stream to retrieve and create a file with
-   * @return a corresponding temporary file with the content of the specified stream
+   * @return a corresponding file with the content of the specified stream
    * @throws IOException if an I/O error occurred
    */
+  public static File fromStreamToFile(InputStream is) throws IOException {
+    final File dir = SourceType.STORE_DIR.toFile();
+
+    try {
+      Files.createDirectories(SourceType.STORE_DIR);
+    } catch (IOException e) { // fallback to a temp file that is not shared
+      LOGGER.debug("failed to create source store: {}", SourceType.STORE_DIR, e);
+      return SourceType.fromStreamToTempFile(is);
+    }
+    final MessageDigest digest = SourceType.newDigest();
+    final DeferredFileOutputStream deferred =
+        new DeferredFileOutputStream(SourceType.MEMORY_THRESHOLD, "source-", ".tmp", dir);
+    Path tmp = null;
+
+    try {
+      try (final OutputStream os = new DigestOutputStream(deferred, digest)) {
+        IOUtils.copy(is, os);
+      }
+      final Path file = SourceType.STORE_DIR.resolve(SourceType.toHex(digest.digest()));
+
+      if (Files.isRegularFile(file)) { // already published
+        return file.toFile();
+      }
+      if (deferred.isInMemory()) {
+        tmp = Files.createTempFile(SourceType.STORE_DIR, "source-", ".tmp");
+        Files.write(tmp, deferred.getData());
+      } else {
+        tmp = deferred.getFile().toPath();
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) { // published concurrently with the same content
+        LOGGER.trace("source already published: {}", file, e);
+      }
+      return file.toFile();
+    } finally {
+      if (!deferred.isInMemory()) {
+        Files.deleteIfExists(deferred.getFile().toPath());
+      }
+      if (tmp != null) { // no longer exists unless we failed to publish it
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
   @SuppressWarnings({
     "squid:S4042" /* deleting a temp file and we don't care if it fails */,
     "squid:S899" /* deleting a temp file and we don't care if it fails */
   })
-  public static File fromStreamToFile(InputStream is) throws IOException {
+  private static File fromStreamToTempFile(InputStream is) throws IOException {
     final File temp = Files.createTempFile(SourceType.class.getName(), ".tmp").toFile();
 
     temp.deleteOnExit();
@@ -239,12 +314,29 @@ public enum SourceType {
     }
   }
 
+  private static String toHex(byte[] digest) {
+    final StringBuilder sb = new StringBuilder(64);
+
+    for (final byte b : digest) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) { // should not happen as all VMs must support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Converts a resource to a file.
    *
    * @param resource the resource to retrieve and create a file with
    * @param resourceLoader the loader to use for loading the resource
-   * @return a corresponding temporary file with the content of the specified resource
+   * @return a corresponding file with the content of the specified resource
    * @throws IOException if an I/O error occurred
    */
   public static File fromResourceToFile(String resource, ResourceLoader resourceLoader)
@@ -266,7 +358,7 @@ public enum SourceType {
    *
    * @param content the content to write to a file
    * @param interpolator the interpolator to use for retrieving the line separators
-   * @return a corresponding temporary file with the specified content
+   * @return a corresponding file with the specified content
    * @throws IOException if an I/O error occurred
    */
   public static File fromContentToFile(String content, Interpolator interpolator)
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.internal
+
+import java.lang.annotation.Annotation
+import java.lang.annotation.ElementType
+import java.lang.annotation.Retention
+import java.lang.annotation.RetentionPolicy
+import java.lang.annotation.Target
+import spock.lang.Specification
+
+class ExtensionIndexGeneratorSpec extends Specification {
+  static def LOADER = ExtensionIndexGeneratorSpec.classLoader
+
+  def "test scanning finds the annotation types annotated with the meta annotation"() {
+    given:
+      def root = new File(ExtensionIndexGeneratorSpec.protectionDomain.codeSource.location.toURI())
+
+    when:
+      def types = ExtensionIndexGenerator.scan(LOADER, IndexedMeta, [root])
+
+    then:
+      types == [IndexedFirst, IndexedSecond] as Set
+  }
+
+  def "test indexing records the annotation types supported by each factory"() {
+    when:
+      def index = ExtensionIndexGenerator.index(
+          LOADER,
+          IndexedFactory,
+          [FirstIndexedFactory.name, NoneIndexedFactory.name],
+          [IndexedFirst, IndexedSecond])
+
+    then:
+      index == [
+          (FirstIndexedFactory.name): [IndexedFirst.name] as Set,
+          (NoneIndexedFactory.name) : [] as Set
+      ]
+  }
+}
+
+@Target(ElementType.ANNOTATION_TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@interface IndexedMeta {}
+
+@IndexedMeta
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@interface IndexedFirst {
+  String value() default 'first'
+}
+
+@IndexedMeta
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@interface IndexedSecond {}
+
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@interface NotIndexed {}
+
+interface IndexedFactory {
+  String getExtension(Annotation annotation)
+}
+
+class FirstIndexedFactory implements IndexedFactory {
+  @Override
+  String getExtension(Annotation annotation) {
+    (annotation.annotationType() == IndexedFirst) ? annotation.value() : null
+  }
+}
+
+class NoneIndexedFactory implements IndexedFactory {
+  @Override
+  String getExtension(Annotation annotation) {
+    null
+  }
+}
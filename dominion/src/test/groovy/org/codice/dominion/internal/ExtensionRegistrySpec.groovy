@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.internal
+
+import java.lang.annotation.Annotation
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ExtensionRegistrySpec extends Specification {
+  @Rule
+  TemporaryFolder folder = new TemporaryFolder()
+
+  def original = Thread.currentThread().contextClassLoader
+
+  def cleanup() {
+    Thread.currentThread().contextClassLoader = original
+  }
+
+  def "test services are loaded once per class loader"() {
+    given:
+      def first = loader()
+      def other = loader()
+
+    when:
+      Thread.currentThread().contextClassLoader = first
+      def services = ExtensionRegistry.getServices(Factory)
+      def again = ExtensionRegistry.getServices(Factory)
+
+    and:
+      Thread.currentThread().contextClassLoader = other
+      def fromOther = ExtensionRegistry.getServices(Factory)
+
+    then:
+      services*.class == [AFactory, BFactory]
+      again.is(services)
+      !fromOther.is(services)
+      fromOther*.class == [AFactory, BFactory]
+  }
+
+  def "test extensions are cached per annotation type"() {
+    given:
+      def calls = 0
+      def registry = new ExtensionRegistry<Factory, String>(Factory, { f, a ->
+        calls++
+        f.getExtension(a)
+      })
+
+    and:
+      Thread.currentThread().contextClassLoader = loader()
+
+    when:
+      def extensions = registry.getExtensions(Annotated.getAnnotation(Deprecated))
+      def again = registry.getExtensions(Annotated.getAnnotation(Deprecated))
+
+    then:
+      extensions == ['a']
+      again.is(extensions)
+      calls == 2 // once per factory
+  }
+
+  def "test indexed factories are only consulted for the annotation types they are indexed with"() {
+    given:
+      def consulted = []
+      def registry = new ExtensionRegistry<Factory, String>(Factory, { f, a ->
+        consulted << f.class
+        f.getExtension(a)
+      })
+
+    and: "only AFactory is indexed"
+      Thread.currentThread().contextClassLoader = loader("${AFactory.name}=${Deprecated.name}\n")
+
+    when:
+      def deprecated = registry.getExtensions(Annotated.getAnnotation(Deprecated))
+
+    then:
+      deprecated == ['a']
+      consulted == [AFactory, BFactory]
+
+    when:
+      consulted.clear()
+      def other = registry.getExtensions(Other.getAnnotation(FunctionalInterface))
+
+    then: "BFactory is still consulted since it is not indexed"
+      other.empty
+      consulted == [BFactory]
+  }
+
+  private def loader(String index = null) {
+    def dir = folder.newFolder()
+    def services = new File(dir, "META-INF/services/${Factory.name}")
+
+    services.parentFile.mkdirs()
+    services.text = "${AFactory.name}\n${BFactory.name}\n"
+    if (index != null) {
+      def file = new File(dir, "META-INF/dominion/${Factory.name}.index")
+
+      file.parentFile.mkdirs()
+      file.text = index
+    }
+    new URLClassLoader([dir.toURI().toURL()] as URL[], ExtensionRegistrySpec.classLoader)
+  }
+
+  static interface Factory {
+    String getExtension(Annotation annotation)
+  }
+
+  static class AFactory implements Factory {
+    @Override
+    String getExtension(Annotation annotation) {
+      (annotation instanceof Deprecated) ? 'a' : null
+    }
+  }
+
+  static class BFactory implements Factory {
+    @Override
+    String getExtension(Annotation annotation) {
+      null
+    }
+  }
+
+  @Deprecated
+  static class Annotated {}
+
+  @FunctionalInterface
+  static interface Other {
+    void run()
+  }
+}
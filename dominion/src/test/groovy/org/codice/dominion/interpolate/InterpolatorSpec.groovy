@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.interpolate
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class InterpolatorSpec extends Specification {
+  static final String PROPERTY = 'interpolator.spec.property'
+
+  def interpolator = new Interpolator(InterpolatorSpec, 'id', 'interpolator-spec')
+
+  def cleanup() {
+    System.clearProperty(PROPERTY)
+    interpolator.close()
+  }
+
+  @Unroll
+  def "test compiled interpolation of #description matches the substitutor"() {
+    given:
+      interpolator.replacements.put('a', 'A')
+      interpolator.replacements.put('b', 'a')
+      interpolator.replacements.put('dollar', '$')
+
+    when:
+      def result = interpolator.interpolate(text)
+
+    then:
+      result == interpolator.substitutor.replace(text)
+
+    and: "a second interpolation returns the same result"
+      interpolator.interpolate(text) == result
+
+    where:
+      description                         || text
+      'a literal'                         || 'no variables'
+      'a variable'                        || 'x{a}y'
+      'consecutive variables'             || '{a}{a}'
+      'a nested variable'                 || 'x{{b}}y'
+      'deeply nested variables'           || '{{{b}}}-{a}'
+      'an unterminated variable'          || 'x{a'
+      'an unterminated nested variable'   || 'x{{b}y'
+      'an unmatched closing brace'        || 'x}{a}}'
+      'a dollar prefixed brace'           || 'x${a}y'
+      'a dollar produced by a variable'   || '{dollar}{a}'
+      'a ternary operator'                || '{true?yes:no} {false?yes:no}'
+      'a nested ternary operator'         || '{{b}?yes:no}'
+      'an unknown variable'               || 'x{unknown}y'
+      'a port'                            || 'http={port.http} https={port.https} http={port.http}'
+  }
+
+  def "test results are recomputed when a defined system property changes"() {
+    given:
+      System.setProperty(PROPERTY, 'first')
+
+    when:
+      def first = interpolator.interpolate("{${PROPERTY}}")
+      System.setProperty(PROPERTY, 'second')
+      def second = interpolator.interpolate("{${PROPERTY}}")
+
+    then:
+      first == 'first'
+      second == 'second'
+  }
+
+  def "test results are recomputed when an undefined system property gets defined"() {
+    when:
+      def first = interpolator.interpolate("{${PROPERTY}}")
+      System.setProperty(PROPERTY, 'defined')
+      def second = interpolator.interpolate("{${PROPERTY}}")
+
+    then:
+      first == "{${PROPERTY}}"
+      second == 'defined'
+  }
+
+  def "test results relying on ports are cached"() {
+    when:
+      def first = interpolator.interpolate('{port.http}')
+      def result = interpolator.templates['{port.http}'].result
+      def second = interpolator.interpolate('{port.http}')
+
+    then:
+      first ==~ /[0-9]+/
+      second == first
+      interpolator.templates['{port.http}'].result.is(result)
+  }
+
+  def "test results relying on unchanged system properties are cached"() {
+    given:
+      System.setProperty(PROPERTY, 'value')
+
+    when:
+      def first = interpolator.interpolate("{${PROPERTY}}")
+      def result = interpolator.templates["{${PROPERTY}}".toString()].result
+      def second = interpolator.interpolate("{${PROPERTY}}")
+
+    then:
+      first == 'value'
+      second == 'value'
+      interpolator.templates["{${PROPERTY}}".toString()].result.is(result)
+  }
+
+  def "test results are recomputed when replacements change"() {
+    given:
+      interpolator.replacements.put('a', 'first')
+
+    when:
+      def first = interpolator.interpolate('{a}')
+      interpolator.replacements.put('a', 'second')
+      def second = interpolator.interpolate('{a}')
+
+    then:
+      first == 'first'
+      second == 'second'
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.interpolate
+
+import spock.lang.Specification
+
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class PortLeaseRegistrySpec extends Specification {
+  static final int BASE_PORT = 47000
+
+  /** Script run in another VM which holds the registry lock until its input is closed. */
+  static final String LOCKING_SCRIPT = '''
+      import java.nio.channels.FileChannel
+      import java.nio.file.Paths
+      import java.nio.file.StandardOpenOption
+
+      def channel = FileChannel.open(
+          Paths.get(args[0]), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+      def lock = channel.lock()
+
+      println 'locked'
+      System.in.read()
+      lock.release()
+      channel.close()
+      '''
+
+  def sockets = []
+
+  def cleanup() {
+    sockets.each {
+      PortLeaseRegistry.release(it.localPort)
+      it.close()
+    }
+    updateLeases { it.remove(Integer.toString(BASE_PORT)) }
+  }
+
+  def "test blocks leased by another running VM are skipped"() {
+    given:
+      updateLeases { it.setProperty(Integer.toString(BASE_PORT), '1:' + System.currentTimeMillis()) }
+
+    when:
+      def socket = lease()
+
+    then:
+      socket.localPort == BASE_PORT + 10
+      readLeases().getProperty(Integer.toString(BASE_PORT + 10)).startsWith(PortLeaseRegistry.PID + ':')
+  }
+
+  def "test leases from VMs that are no longer running are expired"() {
+    given:
+      updateLeases { it.setProperty(Integer.toString(BASE_PORT), ':' + System.currentTimeMillis()) }
+
+    when:
+      def socket = lease()
+
+    then:
+      socket.localPort == BASE_PORT
+  }
+
+  def "test only leases owned by this VM are released"() {
+    given:
+      def socket = lease()
+      updateLeases { it.setProperty(Integer.toString(BASE_PORT + 10), '1:' + System.currentTimeMillis()) }
+
+    when:
+      PortLeaseRegistry.release(BASE_PORT + 10)
+      PortLeaseRegistry.release(socket.localPort)
+
+    then:
+      def leases = readLeases()
+      leases.getProperty(Integer.toString(BASE_PORT + 10)) != null
+      leases.getProperty(Integer.toString(socket.localPort)) == null
+
+    cleanup:
+      updateLeases { it.remove(Integer.toString(BASE_PORT + 10)) }
+  }
+
+  def "test leasing waits for another VM to release the registry"() {
+    given:
+      Files.createDirectories(PortLeaseRegistry.FILE.parent)
+      def vm = new ProcessBuilder(
+          Paths.get(System.getProperty('java.home'), 'bin', 'java').toString(),
+          '-cp',
+          System.getProperty('java.class.path'),
+          'groovy.ui.GroovyMain',
+          '-e',
+          LOCKING_SCRIPT,
+          PortLeaseRegistry.FILE.toString())
+          .redirectErrorStream(true)
+          .start()
+      def output = new BufferedReader(new InputStreamReader(vm.inputStream))
+
+      assert output.readLine() == 'locked'
+
+    when:
+      def future = CompletableFuture.supplyAsync { lease() }
+      Thread.sleep(500L)
+
+    then:
+      !future.isDone()
+
+    when:
+      vm.outputStream.close()
+
+    then:
+      future.get(30L, TimeUnit.SECONDS).localPort == BASE_PORT
+      vm.waitFor(30L, TimeUnit.SECONDS)
+
+    cleanup:
+      vm?.destroyForcibly()
+  }
+
+  def "test leasing reserves ports without the registry when its lock is already held in this VM"() {
+    given:
+      updateLeases { it.setProperty(Integer.toString(BASE_PORT), '1:' + System.currentTimeMillis()) }
+
+    and: "simulates another copy of the registry class holding the lock"
+      def channel = PortLeaseRegistry.open()
+      def lock = channel.lock()
+
+    when:
+      def socket = lease()
+
+    then:
+      socket.localPort == BASE_PORT
+
+    when:
+      PortLeaseRegistry.release(BASE_PORT)
+
+    then:
+      notThrown(OverlappingFileLockException)
+
+    cleanup:
+      lock?.release()
+      channel?.close()
+  }
+
+  private def lease() {
+    def socket = PortLeaseRegistry.lease(BASE_PORT, 10, { port ->
+      try {
+        new ServerSocket(port)
+      } catch (IOException e) {
+        null
+      }
+    })
+
+    sockets << socket
+    socket
+  }
+
+  private static def readLeases() {
+    def channel = PortLeaseRegistry.open()
+
+    try {
+      PortLeaseRegistry.read(channel)
+    } finally {
+      channel.close()
+    }
+  }
+
+  private static def updateLeases(Closure update) {
+    synchronized (PortLeaseRegistry) {
+      def channel = PortLeaseRegistry.open()
+
+      try {
+        def lock = channel.lock()
+        def leases = PortLeaseRegistry.read(channel)
+
+        update(leases)
+        PortLeaseRegistry.write(channel, leases)
+        lock.release()
+      } finally {
+        channel.close()
+      }
+    }
+  }
+}
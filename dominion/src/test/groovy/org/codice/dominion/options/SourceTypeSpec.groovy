@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.dominion.options
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.MessageDigest
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import org.apache.commons.io.FileUtils
+import spock.lang.Specification
+
+class SourceTypeSpec extends Specification {
+  def content = "source type spec ${UUID.randomUUID()}"
+
+  def leftovers
+
+  def setup() {
+    Files.createDirectories(SourceType.STORE_DIR)
+    leftovers = temporaryFiles(SourceType.STORE_DIR)
+  }
+
+  def "test the same content is only published once"() {
+    when:
+      def file = SourceType.fromStreamToFile(stream(content))
+      def modified = file.lastModified()
+      def again = SourceType.fromStreamToFile(stream(content))
+      def other = SourceType.fromStreamToFile(stream(content + ' other'))
+
+    then:
+      again == file
+      again.lastModified() == modified
+      file.getText(StandardCharsets.UTF_8.name()) == content
+      other != file
+      file.name == sha256(content.getBytes(StandardCharsets.UTF_8))
+
+    and:
+      temporaryFiles(SourceType.STORE_DIR) == leftovers
+  }
+
+  def "test content larger than the memory threshold is published"() {
+    given:
+      def bytes = (content * (SourceType.MEMORY_THRESHOLD / content.length() + 1)).getBytes(StandardCharsets.UTF_8)
+
+    when:
+      def file = SourceType.fromStreamToFile(new ByteArrayInputStream(bytes))
+      def again = SourceType.fromStreamToFile(new ByteArrayInputStream(bytes))
+
+    then:
+      again == file
+      file.bytes == bytes
+      file.name == sha256(bytes)
+
+    and:
+      temporaryFiles(SourceType.STORE_DIR) == leftovers
+  }
+
+  def "test the same content published concurrently resolves to the same file"() {
+    given:
+      def count = 8
+      def start = new CountDownLatch(1)
+      def executor = Executors.newFixedThreadPool(count)
+
+    when:
+      def futures = (1..count).collect {
+        executor.submit({
+          start.await()
+          SourceType.fromStreamToFile(stream(content))
+        } as Callable<File>)
+      }
+      start.countDown()
+      def files = futures*.get()
+
+    then:
+      files.unique(false).size() == 1
+      files[0].getText(StandardCharsets.UTF_8.name()) == content
+
+    and:
+      temporaryFiles(SourceType.STORE_DIR) == leftovers
+
+    cleanup:
+      executor.shutdownNow()
+  }
+
+  def "test the temporary file is deleted when it cannot be published"() {
+    given: "a directory is in the way of the published file"
+      def blocker = SourceType.STORE_DIR.resolve(sha256(content.getBytes(StandardCharsets.UTF_8)))
+      Files.createDirectories(blocker.resolve('child'))
+
+    when:
+      SourceType.fromStreamToFile(stream(content))
+
+    then:
+      thrown(IOException)
+      temporaryFiles(SourceType.STORE_DIR) == leftovers
+
+    cleanup:
+      FileUtils.deleteDirectory(blocker.toFile())
+  }
+
+  private static def stream(String content) {
+    new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))
+  }
+
+  private static def sha256(byte[] bytes) {
+    MessageDigest.getInstance('SHA-256').digest(bytes).collect { String.format('%02x', it) }.join()
+  }
+
+  private static def temporaryFiles(Path dir) {
+    dir.toFile().listFiles().findAll { it.name.endsWith('.tmp') }
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.test.commons;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Provides access to resources defined in a given code source location.
+ *
+ * <p>Jar files are indexed the first time they are accessed such that looking up a resource only
+ * requires opening the jar file if the resource is actually present. Resources found to be missing
+ * from directories are remembered. Jar files and class loaders used to read resources are closed as
+ * soon as the returned stream is closed.
+ */
+abstract class CodeSourceResources {
+  /** Cache of code source resources keyed by their locations. */
+  private static final Map<String, CodeSourceResources> RESOURCES = new ConcurrentHashMap<>();
+
+  /**
+   * Gets an input stream for a resource defined in a given code source location.
+   *
+   * @param name the name of the resource to retrieve
+   * @param location the code source location from which to retrieve it
+   * @return the corresponding input stream or <code>null</code> if not found
+   * @throws IOException if an I/O error occurs while opening the resource
+   */
+  @Nullable
+  static InputStream getResourceAsStream(String name, URL location) throws IOException {
+    return CodeSourceResources.RESOURCES
+        .computeIfAbsent(location.toExternalForm(), l -> CodeSourceResources.create(location))
+        .getResourceAsStream(name);
+  }
+
+  private static CodeSourceResources create(URL location) {
+    if ("file".equals(location.getProtocol())) {
+      try {
+        final File file = new File(location.toURI());
+
+        if (file.isDirectory()) {
+          return new DirectoryResources(file);
+        } else if (file.isFile()) {
+          return new JarResources(file);
+        }
+      } catch (URISyntaxException | IllegalArgumentException | IOException e) { // fall-through
+      }
+    }
+    return new LocationResources(location);
+  }
+
+  /**
+   * Gets an input stream for a resource defined in this code source location.
+   *
+   * @param name the name of the resource to retrieve
+   * @return the corresponding input stream or <code>null</code> if not found
+   * @throws IOException if an I/O error occurs while opening the resource
+   */
+  @Nullable
+  abstract InputStream getResourceAsStream(String name) throws IOException;
+
+  /** Resources defined in a jar file. */
+  private static class JarResources extends CodeSourceResources {
+    private final File file;
+
+    private final Set<String> entries;
+
+    JarResources(File file) throws IOException {
+      this.file = file;
+      try (final JarFile jar = new JarFile(file)) {
+        this.entries =
+            Collections.unmodifiableSet(
+                jar.stream()
+                    .filter(e -> !e.isDirectory())
+                    .map(JarEntry::getName)
+                    .collect(Collectors.toSet()));
+      }
+    }
+
+    @Nullable
+    @Override
+    InputStream getResourceAsStream(String name) throws IOException {
+      if (!entries.contains(name)) {
+        return null;
+      }
+      final JarFile jar = new JarFile(file);
+
+      try {
+        final JarEntry entry = jar.getJarEntry(name);
+
+        if (entry == null) { // the jar was modified since it was indexed
+          jar.close();
+          return null;
+        }
+        return new ProxyInputStream(jar.getInputStream(entry)) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              jar.close();
+            }
+          }
+        };
+      } catch (IOException | RuntimeException e) {
+        jar.close();
+        throw e;
+      }
+    }
+  }
+
+  /** Resources defined in a directory. */
+  private static class DirectoryResources extends CodeSourceResources {
+    private final File dir;
+
+    /** Names of resources which were previously found to be missing. */
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    DirectoryResources(File dir) {
+      this.dir = dir;
+    }
+
+    @Nullable
+    @Override
+    InputStream getResourceAsStream(String name) {
+      if (missing.contains(name)) {
+        return null;
+      }
+      try {
+        return new FileInputStream(new File(dir, name.replace('/', File.separatorChar)));
+      } catch (FileNotFoundException e) {
+        missing.add(name);
+        return null;
+      }
+    }
+  }
+
+  /** Resources defined in a location of an unknown type which are loaded via a class loader. */
+  private static class LocationResources extends CodeSourceResources {
+    private final URL location;
+
+    LocationResources(URL location) {
+      this.location = location;
+    }
+
+    @SuppressWarnings("squid:S2095" /* the classloader is being closed by the stream itself */)
+    @Nullable
+    @Override
+    InputStream getResourceAsStream(String name) throws IOException {
+      final URLClassLoader classloader =
+          new URLClassLoader(new URL[] {location}) {
+            @Override
+            public URL getResource(String name) {
+              // don't bother checking the parent classloader as we will do that in a different step
+              return super.findResource(name);
+            }
+          };
+      final InputStream is = classloader.getResourceAsStream(name);
+
+      if (is == null) {
+        classloader.close();
+        return null;
+      }
+      return new ProxyInputStream(is) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            classloader.close();
+          }
+        }
+      };
+    }
+  }
+}
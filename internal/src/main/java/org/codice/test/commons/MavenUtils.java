@@ -16,16 +16,18 @@ package org.codice.test.commons;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.Properties;
 import javax.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.ProxyInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /** Sets of maven useful functions. */
 public class MavenUtils {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MavenUtils.class);
+
   public static final String DEPENDENCIES_FILE = "META-INF/maven/dependencies.properties";
 
   public static final String GROUP_ID = "groupId";
@@ -118,11 +120,13 @@ public class MavenUtils {
   /**
    * Gets an input stream for a resource defined in a given code source location.
    *
+   * <p><i>Note:</i> The content of code source locations is cached the first time they are accessed
+   * such that repeated lookups do not require searching them again.
+   *
    * @param name the name of the resource to retrieve
    * @param codesource the code source from which to retrieve it
    * @return the corresponding input stream or <code>null</code> if not found
    */
-  @SuppressWarnings("squid:S2095" /* the classloader is being closed by the stream itself */)
   @Nullable
   public static InputStream getResourceAsStreamFromCodeSource(
       String name, @Nullable CodeSource codesource) {
@@ -132,24 +136,10 @@ public class MavenUtils {
     final URL location = codesource.getLocation();
 
     if (location != null) {
-      final URLClassLoader classloader =
-          new URLClassLoader(new URL[] {location}) {
-            @Override
-            public URL getResource(String name) {
-              // don't bother checking the parent classloader as we will do that in a different step
-              return super.findResource(name);
-            }
-          };
-      final InputStream is = classloader.getResourceAsStream(name);
-
-      if (is != null) {
-        return new ProxyInputStream(is) {
-          @Override
-          public void close() throws IOException {
-            super.close();
-            classloader.close();
-          }
-        };
+      try {
+        return CodeSourceResources.getResourceAsStream(name, location);
+      } catch (IOException e) { // ignored
+        LOGGER.debug("failed to retrieve resource '{}' from: {}", name, location, e);
       }
     }
     return null;
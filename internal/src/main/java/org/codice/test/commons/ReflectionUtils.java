@@ -28,6 +28,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.security.CodeSource;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
@@ -36,6 +37,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -46,13 +48,27 @@ import org.apache.commons.lang3.StringUtils;
 
 /** Sets of reflection useful functions. */
 public class ReflectionUtils {
-  // cache of all expanded annotations for a given annotated element
-  private static final Map<AnnotatedElement, Annotation[]> annotations = new IdentityHashMap<>();
+  // cache of all expanded annotations and annotation entries for annotated elements. Elements are
+  // cached with the class they are declared in to make sure the cache doesn't prevent classloaders
+  // from being garbage collected and is discarded along with the classes
+  private static final ClassValue<AnnotationCache> CACHES =
+      new ClassValue<AnnotationCache>() {
+        @Override
+        protected AnnotationCache computeValue(Class<?> type) {
+          return new AnnotationCache();
+        }
+      };
 
   // cache of the value() method for retrieving repeatable annotations for a given container
   // annotation type
-  private static final Map<Class<? extends Annotation>, Method> containerValueMethod =
-      new IdentityHashMap<>();
+  private static final ClassValue<Method> CONTAINER_VALUE_METHODS =
+      new ClassValue<Method>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Method computeValue(Class<?> type) {
+          return ReflectionUtils.getContainerValueMethod0((Class<? extends Annotation>) type);
+        }
+      };
 
   // fake method to indicate that no container annotation value() method is defined
   private static final Method NOT_DEFINED;
@@ -78,13 +94,7 @@ public class ReflectionUtils {
    */
   public static <A extends Annotation> Stream<AnnotationEntry<A>> annotationsByType(
       AnnotatedElement element, Class<A> clazz) {
-    final LinkedList<Map<Annotation, Annotation>> stack = new LinkedList<>();
-
-    stack.push(new IdentityHashMap<>());
-    return ReflectionUtils.annotations(element)
-        .map(a -> ReflectionUtils.annotationEntry(stack, element, null, a))
-        .filter(Objects::nonNull)
-        .flatMap(AnnotationEntry::thisAndEnclosedAnnotations)
+    return ReflectionUtils.annotationEntries(element)
         .filter(ae -> ae.isInstanceOf(clazz))
         .map(AnnotationEntry.class::<A>cast);
   }
@@ -105,17 +115,12 @@ public class ReflectionUtils {
    */
   public static <A extends Annotation> Stream<AnnotationEntry<A>> annotationsByType(
       Predicate<AnnotationEntry<?>> filter, AnnotatedElement element, Class<A> clazz) {
-    final LinkedList<Map<Annotation, Annotation>> stack = new LinkedList<>();
     final Set<AnnotationEntry<?>> filtered = new HashSet<>();
 
-    stack.push(new IdentityHashMap<>());
     // the stream we get back is ordered from top annotation to deepest annotation. As such, if an
     // annotation doesn't pass the filter, we can therefore remove all its contained annotations
     // recursively safely. we must apply the filter before checking for instance of
-    return ReflectionUtils.annotations(element)
-        .map(a -> ReflectionUtils.annotationEntry(stack, element, null, a))
-        .filter(Objects::nonNull)
-        .flatMap(AnnotationEntry::thisAndEnclosedAnnotations)
+    return ReflectionUtils.annotationEntries(element)
         .filter(ae -> ae.filter(filter, filtered))
         .filter(ae -> ae.isInstanceOf(clazz))
         .map(AnnotationEntry.class::<A>cast);
@@ -133,17 +138,7 @@ public class ReflectionUtils {
    */
   public static Stream<AnnotationEntry<?>> annotationsByTypes(
       AnnotatedElement element, Class<? extends Annotation>... classes) {
-    final LinkedList<Map<Annotation, Annotation>> stack = new LinkedList<>();
-
-    stack.push(new IdentityHashMap<>());
-    // the stream we get back is ordered from top annotation to deepest annotation. As such, if an
-    // annotation doesn't pass the filter, we can therefore remove all its contained annotations
-    // recursively safely. we must apply the filter before checking for instance of
-    return ReflectionUtils.annotations(element)
-        .map(a -> ReflectionUtils.annotationEntry(stack, element, null, a))
-        .filter(Objects::nonNull)
-        .flatMap(AnnotationEntry::thisAndEnclosedAnnotations)
-        .filter(ae -> ae.isInstanceOf(classes));
+    return ReflectionUtils.annotationEntries(element).filter(ae -> ae.isInstanceOf(classes));
   }
 
   /**
@@ -163,18 +158,12 @@ public class ReflectionUtils {
       Predicate<AnnotationEntry<?>> filter,
       AnnotatedElement element,
       Class<? extends Annotation>... classes) {
-    final LinkedList<Map<Annotation, Annotation>> stack = new LinkedList<>();
     final Set<AnnotationEntry<?>> filtered = new HashSet<>();
 
-    stack.push(new IdentityHashMap<>());
     // the stream we get back is ordered from top annotation to deepest annotation. As such, if an
     // annotation doesn't pass the filter, we can therefore remove all its contained annotations
-    // recursively
-    // safely. we must apply the filter before checking for instance of
-    return ReflectionUtils.annotations(element)
-        .map(a -> ReflectionUtils.annotationEntry(stack, element, null, a))
-        .filter(Objects::nonNull)
-        .flatMap(AnnotationEntry::thisAndEnclosedAnnotations)
+    // recursively safely. we must apply the filter before checking for instance of
+    return ReflectionUtils.annotationEntries(element)
         .filter(ae -> ae.filter(filter, filtered))
         .filter(ae -> ae.isInstanceOf(classes));
   }
@@ -301,6 +290,9 @@ public class ReflectionUtils {
    *
    * <p>Relies on default {@link #hashCode()} and {@link #equals(Object)} for identity check.
    *
+   * <p><i>Note:</i> Entries are cached and shared between all searches performed on the same
+   * annotated element. They are immutable once created.
+   *
    * @param <A> the type of annotation
    */
   public static class AnnotationEntry<A extends Annotation> {
@@ -548,21 +540,16 @@ public class ReflectionUtils {
       if (is == null) { // fallback to the thread context classloader
         is = AnnotationEntry.getResourceAsStreamFromThreadContextClassLoader(name);
       }
-      if (is == null) { // fallback to a test resource under target
+      if (is == null) { // fallback to a test resource or a resource under target
         String buildDir = System.getProperty("project.basedir", "");
 
         if (!buildDir.isEmpty()) {
           buildDir = StringUtils.appendIfMissing(buildDir, "/");
         }
         is = AnnotationEntry.getResourceAsStreamFromFile(buildDir + "target/test-classes/", name);
-      }
-      if (is == null) { // finally fallback to a resource under target
-        String buildDir = System.getProperty("project.basedir", "");
-
-        if (!buildDir.isEmpty()) {
-          buildDir = StringUtils.appendIfMissing(buildDir, "/");
+        if (is == null) {
+          is = AnnotationEntry.getResourceAsStreamFromFile(buildDir + "target/classes/", name);
         }
-        is = AnnotationEntry.getResourceAsStreamFromFile(buildDir + "target/classes/", name);
       }
       return is;
     }
@@ -639,8 +626,67 @@ public class ReflectionUtils {
 
   // this method properly expands containers for repeatable annotations
   private static Stream<Annotation> annotations(AnnotatedElement element) {
-    return Stream.of(
-        ReflectionUtils.annotations.computeIfAbsent(element, ReflectionUtils::getAnnotations0));
+    final AnnotationCache cache = ReflectionUtils.cacheFor(element);
+
+    if (cache == null) {
+      return Stream.of(ReflectionUtils.getAnnotations0(element));
+    }
+    Annotation[] as = cache.annotations.get(element);
+
+    if (as == null) {
+      // don't use computeIfAbsent() here as we might recurse through the same cache
+      as = ReflectionUtils.getAnnotations0(element);
+      final Annotation[] previous = cache.annotations.putIfAbsent(element, as);
+
+      if (previous != null) {
+        as = previous;
+      }
+    }
+    return Stream.of(as);
+  }
+
+  // returns all annotations entries recursively expanded in the order they are defined
+  private static Stream<AnnotationEntry<?>> annotationEntries(AnnotatedElement element) {
+    final AnnotationCache cache = ReflectionUtils.cacheFor(element);
+
+    if (cache == null) {
+      return ReflectionUtils.getAnnotationEntries0(element).stream();
+    }
+    List<AnnotationEntry<?>> entries = cache.entries.get(element);
+
+    if (entries == null) {
+      // don't use computeIfAbsent() here as we might recurse through the same cache
+      entries = ReflectionUtils.getAnnotationEntries0(element);
+      final List<AnnotationEntry<?>> previous = cache.entries.putIfAbsent(element, entries);
+
+      if (previous != null) {
+        entries = previous;
+      }
+    }
+    return entries.stream();
+  }
+
+  private static List<AnnotationEntry<?>> getAnnotationEntries0(AnnotatedElement element) {
+    final LinkedList<Map<Annotation, Annotation>> stack = new LinkedList<>();
+
+    stack.push(new IdentityHashMap<>());
+    return Collections.unmodifiableList(
+        ReflectionUtils.annotations(element)
+            .map(a -> ReflectionUtils.annotationEntry(stack, element, null, a))
+            .filter(Objects::nonNull)
+            .flatMap(AnnotationEntry::thisAndEnclosedAnnotations)
+            .collect(Collectors.toList()));
+  }
+
+  // annotations for members are cached with their declaring class
+  @Nullable
+  private static AnnotationCache cacheFor(AnnotatedElement element) {
+    if (element instanceof Class) {
+      return ReflectionUtils.CACHES.get((Class<?>) element);
+    } else if (element instanceof Member) {
+      return ReflectionUtils.CACHES.get(((Member) element).getDeclaringClass());
+    }
+    return null;
   }
 
   // this method properly expands containers for repeatable annotations
@@ -670,7 +716,9 @@ public class ReflectionUtils {
           ReflectionUtils.annotations(annotation.annotationType())
               .map(a -> ReflectionUtils.annotationEntry(stack, element, entry, a))
               .filter(Objects::nonNull)
-              .collect(Collectors.toList()));
+              .collect(
+                  Collectors.collectingAndThen(
+                      Collectors.toList(), Collections::unmodifiableList)));
       return entry;
     } finally {
       stack.pop();
@@ -692,7 +740,9 @@ public class ReflectionUtils {
       }
       final Repeatable repeatable = elementType.getAnnotation(Repeatable.class);
 
-      return ((repeatable != null) && clazz.equals(repeatable.value())) ? method : null;
+      return ((repeatable != null) && clazz.equals(repeatable.value()))
+          ? method
+          : ReflectionUtils.NOT_DEFINED;
     } catch (NoSuchMethodException e) {
       return ReflectionUtils.NOT_DEFINED;
     }
@@ -700,9 +750,7 @@ public class ReflectionUtils {
 
   @Nullable
   private static Method getContainerValueMethod(Class<? extends Annotation> clazz) {
-    final Method method =
-        ReflectionUtils.containerValueMethod.computeIfAbsent(
-            clazz, ReflectionUtils::getContainerValueMethod0);
+    final Method method = ReflectionUtils.CONTAINER_VALUE_METHODS.get(clazz);
 
     return (method != ReflectionUtils.NOT_DEFINED) ? method : null;
   }
@@ -727,4 +775,12 @@ public class ReflectionUtils {
           annotation + " is an invalid container for repeating annotations", e);
     }
   }
+
+  /** Cache of expanded annotations and annotation entries for elements declared in a class. */
+  private static class AnnotationCache {
+    private final Map<AnnotatedElement, Annotation[]> annotations = new ConcurrentHashMap<>(8);
+
+    private final Map<AnnotatedElement, List<AnnotationEntry<?>>> entries =
+        new ConcurrentHashMap<>(8);
+  }
 }
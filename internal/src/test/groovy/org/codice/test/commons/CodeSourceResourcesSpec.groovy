@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.test.commons
+
+import org.apache.commons.io.IOUtils
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+class CodeSourceResourcesSpec extends Specification {
+  @Rule
+  TemporaryFolder folder = new TemporaryFolder()
+
+  def "test resources are found in jar files"() {
+    given:
+      def jar = jar('resource.txt': 'content')
+
+    when:
+      def is = CodeSourceResources.getResourceAsStream('resource.txt', jar.toURI().toURL())
+
+    then:
+      IOUtils.toString(is, StandardCharsets.UTF_8) == 'content'
+
+    cleanup:
+      is?.close()
+  }
+
+  def "test missing resources are not found in jar files"() {
+    given:
+      def jar = jar('resource.txt': 'content')
+
+    expect:
+      CodeSourceResources.getResourceAsStream('missing.txt', jar.toURI().toURL()) == null
+  }
+
+  @Requires({ new File('/proc/self/fd').directory })
+  def "test jar files are closed when the returned stream is closed"() {
+    given:
+      def jar = jar('resource.txt': 'content')
+      def is = CodeSourceResources.getResourceAsStream('resource.txt', jar.toURI().toURL())
+
+    expect:
+      IOUtils.toString(is, StandardCharsets.UTF_8) == 'content'
+      isOpen(jar) // still open
+
+    when:
+      is.close()
+
+    then:
+      !isOpen(jar)
+  }
+
+  def "test resources are found in directories"() {
+    given:
+      def dir = folder.newFolder()
+      new File(dir, 'some').mkdir()
+      new File(dir, 'some/resource.txt').text = 'content'
+
+    when:
+      def is = CodeSourceResources.getResourceAsStream('some/resource.txt', dir.toURI().toURL())
+
+    then:
+      is.text == 'content'
+
+    cleanup:
+      is?.close()
+  }
+
+  def "test missing resources are remembered for directories"() {
+    given:
+      def dir = folder.newFolder()
+      def location = dir.toURI().toURL()
+
+    when:
+      def missing = CodeSourceResources.getResourceAsStream('resource.txt', location)
+
+    then:
+      missing == null
+
+    when:
+      new File(dir, 'resource.txt').text = 'content'
+      def cached = CodeSourceResources.getResourceAsStream('resource.txt', location)
+
+    then:
+      cached == null
+  }
+
+  private static def isOpen(File file) {
+    def path = file.canonicalPath
+
+    new File('/proc/self/fd').listFiles().any {
+      try {
+        return Files.readSymbolicLink(it.toPath()).toString() == path
+      } catch (IOException e) { // closed while listing
+        return false
+      }
+    }
+  }
+
+  private def jar(Map<String, String> entries) {
+    def file = folder.newFile('resources.jar')
+
+    new JarOutputStream(new FileOutputStream(file)).withCloseable { os ->
+      entries.each { name, content ->
+        os.putNextEntry(new JarEntry(name))
+        os.write(content.bytes)
+        os.closeEntry()
+      }
+    }
+    file
+  }
+}
@@ -20,6 +20,8 @@ import java.lang.annotation.Inherited
 import java.lang.annotation.Repeatable
 import java.lang.annotation.Retention
 import java.lang.annotation.Target
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.stream.Collectors
 
 class ReflectionUtilsSpec extends Specification {
@@ -247,5 +249,23 @@ class ReflectionUtilsSpec extends Specification {
       }).collect(Collectors.toList()) == [Target, Retention, Inherited, Repeatable]
       entries[6].enclosedAnnotations().filter({ it.enclosingAnnotation == entries[6] }).count() == 4
   }
-}
 
+  def "test annotationsByType() reuses the same entries across multiple and concurrent calls"() {
+    given:
+      def method = AClass.getMethod('method')
+      def expected = ReflectionUtils.annotationsByType(method, OptionAnnotation).collect(Collectors.toList())
+      def executor = Executors.newFixedThreadPool(4)
+
+    when:
+      def entries = executor.invokeAll((1..8).collect({
+        { -> ReflectionUtils.annotationsByType(method, OptionAnnotation).collect(Collectors.toList()) } as Callable
+      }))*.get()
+
+    then:
+      entries.every({ it.size() == expected.size() })
+      entries.every({ (0..<expected.size()).every({ i -> it[i].is(expected[i]) }) })
+
+    cleanup:
+      executor.shutdownNow()
+  }
+}
@@ -42,4 +42,17 @@ public @interface DeFinalize {
    * @return the fully qualified names for the packages to de-finalize
    */
   public String[] packages() default {};
+
+  /**
+   * Specifies whether the classloader created to definalize classes can be shared with other test
+   * classes requesting the exact same set of classes and packages to be definalized and which also
+   * opted in for sharing. Sharing avoids reloading all classes for each test class but also means
+   * that static state in reloaded classes will be shared between these test classes. Sharing can
+   * also be enabled for all test classes by setting the {@link
+   * DeFinalizer#SHARE_CLASSLOADERS_PROPERTY} system property to <code>true</code>.
+   *
+   * @return <code>true</code> to share the classloader with other test classes; <code>false</code>
+   *     to use a dedicated classloader
+   */
+  public boolean shared() default false;
 }
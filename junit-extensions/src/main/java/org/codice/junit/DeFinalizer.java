@@ -16,6 +16,7 @@ package org.codice.junit;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 import org.codice.junit.impl.DeFinalizeClassLoader;
 import org.junit.runner.Describable;
 import org.junit.runner.Description;
@@ -64,6 +65,12 @@ import spock.lang.Specification;
  * required.
  */
 public class DeFinalizer extends Runner implements Describable, Filterable, Sortable {
+  /**
+   * System property to use for enabling the sharing of classloaders across all test classes
+   * requesting the same set of classes and packages to be definalized (see {@link
+   * DeFinalize#shared()}).
+   */
+  public static final String SHARE_CLASSLOADERS_PROPERTY = "definalizer.share.classloaders";
 
   private static final List<Class<?>> SUPPORTED_INTERFACES =
       Arrays.asList(Describable.class, Filterable.class, Sortable.class);
@@ -83,7 +90,10 @@ public class DeFinalizer extends Runner implements Describable, Filterable, Sort
    */
   public DeFinalizer(Class<?> testClass) throws InitializationError {
     this.testClass = testClass;
-    this.classloader = new DeFinalizeClassLoader(testClass);
+    this.classloader =
+        DeFinalizer.isShared(testClass)
+            ? DeFinalizeClassLoader.getSharedInstance(testClass)
+            : new DeFinalizeClassLoader(testClass);
     try {
       // reload the test class using the new classloader
       this.reloadedTestClass = classloader.loadClass(testClass.getName());
@@ -133,6 +143,11 @@ public class DeFinalizer extends Runner implements Describable, Filterable, Sort
     sortable.sort(sorter);
   }
 
+  private static boolean isShared(Class<?> testClass) {
+    return Boolean.getBoolean(DeFinalizer.SHARE_CLASSLOADERS_PROPERTY)
+        || Stream.of(testClass.getAnnotationsByType(DeFinalize.class)).anyMatch(DeFinalize::shared);
+  }
+
   @SuppressWarnings("squid:S2259" /* runnerClass cannot be null */)
   private Runner newTestRunner() throws InitializationError {
     final DeFinalizeWith a = testClass.getAnnotation(DeFinalizeWith.class);
@@ -13,7 +13,22 @@
  */
 package org.codice.junit.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javassist.CannotCompileException;
@@ -23,8 +38,12 @@ import javassist.CtMethod;
 import javassist.LoaderClassPath;
 import javassist.Modifier;
 import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.InnerClassesAttribute;
 import org.codice.junit.DeFinalize;
 import org.codice.junit.DeFinalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Defines the classloader used by the {@link DeFinalizer} test runner. This classloader is designed
@@ -45,12 +64,56 @@ import org.codice.junit.DeFinalizer;
  *
  * <p>All loaded classes will be done so with the same protection domain used if they had been
  * loaded by the parent classloader.
+ *
+ * <p>Test classes opting in and requesting the same set of classes and packages to be definalized
+ * can share the same classloader (see {@link #getSharedInstance(Class)}) to avoid reloading all
+ * classes for each test class. Only a few of these shared classloaders are kept around at any given
+ * time.
  */
 public class DeFinalizeClassLoader extends ClassLoader {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeFinalizeClassLoader.class);
+
+  /**
+   * Version of the definalization performed by this classloader. It must be incremented whenever
+   * the way classes are definalized changes such that bytecode cached by previous versions is no
+   * longer used.
+   */
+  private static final int DEFINALIZE_VERSION = 2;
+
+  /**
+   * Directory where definalized bytecode is cached across VMs keyed by a digest of the original
+   * bytecode, the classes and packages to definalize, the definalization version, and the Javassist
+   * version used to produce it.
+   */
+  private static final Path CACHE_DIR =
+      Paths.get(System.getProperty("project.basedir", ""), "target", "definalized-classes");
+
+  /** Maximum number of shared classloaders to keep around. */
+  private static final int MAX_SHARED_LOADERS = 4;
+
+  /**
+   * Classloaders shared by all test classes requesting the same set of classes and packages to be
+   * definalized. The least recently used ones are evicted once the maximum is reached.
+   */
+  private static final Map<Set<String>, DeFinalizeClassLoader> LOADERS =
+      new LinkedHashMap<Set<String>, DeFinalizeClassLoader>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<String>, DeFinalizeClassLoader> eldest) {
+          return size() > DeFinalizeClassLoader.MAX_SHARED_LOADERS;
+        }
+      };
 
-  private final ClassPool pool;
   private final Set<String> filters;
 
+  /**
+   * Holds the names of all classes which must also be definalized because one of their inner
+   * classes was.
+   */
+  private final Set<String> declaringClasses = ConcurrentHashMap.newKeySet();
+
+  /** Javassist class pool which is only created when a class is to be definalized. */
+  private volatile ClassPool pool = null;
+
   /**
    * Constructs a new classloader for the specified Spock test specification class. The class is
    * used to retrieve the {@link DeFinalize} annotations in order to identify which classes or
@@ -62,21 +125,38 @@ public class DeFinalizeClassLoader extends ClassLoader {
    * @param testClass the test class
    */
   public DeFinalizeClassLoader(Class<?> testClass) {
+    this(DeFinalizeClassLoader.filtersFor(testClass));
+  }
+
+  private DeFinalizeClassLoader(Set<String> filters) {
     super(DeFinalizeClassLoader.class.getClassLoader());
-    this.pool = new ClassPool(false);
-    this.pool.appendClassPath(new LoaderClassPath(getParent()));
-    this.pool.appendSystemPath();
-    this.filters =
-        Stream.concat(
-                Stream.of(testClass.getAnnotationsByType(DeFinalize.class))
-                    .map(DeFinalize::value)
-                    .flatMap(Stream::of)
-                    .map(DeFinalizeClassLoader::checkDefinalizedClass),
-                Stream.of(testClass.getAnnotationsByType(DeFinalize.class))
-                    .map(DeFinalize::packages)
-                    .flatMap(Stream::of)
-                    .map(DeFinalizeClassLoader::checkDefinalizedPackage))
-            .collect(Collectors.toSet());
+    this.filters = filters;
+  }
+
+  /**
+   * Gets a shared classloader for the specified Spock test specification class. The classloader is
+   * shared with all other test classes that requested the exact same set of classes and packages to
+   * be definalized via their {@link DeFinalize} annotations such that common classes are only
+   * reloaded once. As such, static state in reloaded classes is also shared.
+   *
+   * @param testClass the test class
+   * @return a corresponding classloader
+   */
+  public static DeFinalizeClassLoader getSharedInstance(Class<?> testClass) {
+    final Set<String> filters = DeFinalizeClassLoader.filtersFor(testClass);
+
+    synchronized (DeFinalizeClassLoader.LOADERS) {
+      return DeFinalizeClassLoader.LOADERS.computeIfAbsent(filters, DeFinalizeClassLoader::new);
+    }
+  }
+
+  /**
+   * Clears all shared classloaders such that new ones are created the next time they are needed.
+   */
+  public static void clearSharedInstances() {
+    synchronized (DeFinalizeClassLoader.LOADERS) {
+      DeFinalizeClassLoader.LOADERS.clear();
+    }
   }
 
   /**
@@ -91,6 +171,10 @@ public class DeFinalizeClassLoader extends ClassLoader {
    * domain from the version of the class loaded by the parent classloader will be re-used when
    * defining the reloaded class.
    *
+   * <p>Classes that are not definalized are reloaded directly from their original bytecode. The
+   * bytecode for definalized classes is cached under <code>target/definalized-classes</code> such
+   * that subsequent reloads do not have to definalize them again.
+   *
    * @param name the binary name of the class to load
    * @param resolve <code>true</code> to resolve the class; <code>false</code> otherwise
    * @return the resulting class object
@@ -105,8 +189,8 @@ public class DeFinalizeClassLoader extends ClassLoader {
         clazz = super.loadClass(name, resolve); // always load it from our parent first
         if (DeFinalizeClassLoader.isNotFromAReservedPackage(name)) {
           try {
-            clazz = reloadClass(clazz, shouldDefinalize(name));
-          } catch (NotFoundException e) {
+            clazz = reloadClass(clazz);
+          } catch (NotFoundException | IOException e) {
             throw new ClassNotFoundException(e.getMessage(), e);
           } catch (CannotCompileException e) {
             throw (ClassFormatError) new ClassFormatError(e.getMessage()).initCause(e);
@@ -135,21 +219,62 @@ public class DeFinalizeClassLoader extends ClassLoader {
     return false;
   }
 
-  private Class<?> reloadClass(Class<?> clazz, boolean definalize)
-      throws NotFoundException, CannotCompileException {
-    final CtClass ctClass = pool.get(clazz.getName());
+  private Class<?> reloadClass(Class<?> clazz)
+      throws IOException, NotFoundException, CannotCompileException {
+    final String name = clazz.getName();
+    byte[] bytecode = DeFinalizeClassLoader.readBytecode(getParent(), name);
 
-    if (definalize) {
-      final CtClass parentClass = ctClass.getDeclaringClass();
+    if (shouldDefinalize(name)) {
+      final Class<?> declaringClass = clazz.getDeclaringClass();
 
-      if (parentClass != null) { // must process the parent for inner classes but leave it unfrozen
-        definalizeClass(parentClass);
+      if (declaringClass != null) { // must also definalize the parent for inner classes
+        declaringClasses.add(declaringClass.getName());
       }
-      definalizeClass(ctClass);
+      bytecode = definalize(name, bytecode);
+    } else if (declaringClasses.contains(name)) {
+      bytecode = definalize(name, bytecode);
     }
-    ctClass.stopPruning(true);
     // use the same protection domain as the original class loaded from our parent
-    return ctClass.toClass(this, clazz.getProtectionDomain());
+    return defineClass(name, bytecode, 0, bytecode.length, clazz.getProtectionDomain());
+  }
+
+  private byte[] definalize(String name, byte[] bytecode)
+      throws IOException, NotFoundException, CannotCompileException {
+    final Path file = DeFinalizeClassLoader.CACHE_DIR.resolve(digest(bytecode) + ".class");
+    byte[] definalized = DeFinalizeClassLoader.readCachedBytecode(file);
+
+    if (definalized == null) {
+      final CtClass ctClass = getPool().get(name);
+      final CtClass declaringClass = ctClass.getDeclaringClass();
+
+      if (declaringClass != null) {
+        // updating the modifiers of an inner class also updates its entry in the parent so we must
+        // leave the parent unfrozen in case it was already definalized
+        declaringClass.defrost();
+      }
+      definalizeClass(ctClass);
+      ctClass.stopPruning(true);
+      definalized = ctClass.toBytecode();
+      DeFinalizeClassLoader.writeCachedBytecode(file, definalized);
+    }
+    return definalized;
+  }
+
+  private ClassPool getPool() {
+    ClassPool p = pool;
+
+    if (p == null) {
+      synchronized (this) {
+        p = pool;
+        if (p == null) {
+          p = new ClassPool(false);
+          p.appendClassPath(new LoaderClassPath(getParent()));
+          p.appendSystemPath();
+          this.pool = p;
+        }
+      }
+    }
+    return p;
   }
 
   private void definalizeClass(CtClass ctClass) {
@@ -160,6 +285,32 @@ public class DeFinalizeClassLoader extends ClassLoader {
       ctClass.setModifiers(Modifier.clear(modifiers, Modifier.FINAL));
     }
     Stream.of(ctClass.getDeclaredMethods()).forEach(this::definalizeMethod);
+    definalizeInnerClassEntries(ctClass);
+  }
+
+  /**
+   * Clears the final modifier from the entries of all inner classes to be definalized which are
+   * recorded in the specified class. These entries are otherwise only updated when the inner
+   * classes themselves are definalized which would make the resulting bytecode depend on the order
+   * in which classes are loaded.
+   *
+   * @param ctClass the class for which to update inner class entries
+   */
+  private void definalizeInnerClassEntries(CtClass ctClass) {
+    final InnerClassesAttribute inners =
+        (InnerClassesAttribute) ctClass.getClassFile2().getAttribute(InnerClassesAttribute.tag);
+
+    if (inners == null) {
+      return;
+    }
+    for (int i = 0; i < inners.tableLength(); i++) {
+      final String inner = inners.innerClass(i);
+      final int flags = inners.accessFlags(i);
+
+      if ((inner != null) && ((flags & AccessFlag.FINAL) != 0) && shouldDefinalize(inner)) {
+        inners.setAccessFlags(i, AccessFlag.clear(flags, AccessFlag.FINAL));
+      }
+    }
   }
 
   private void definalizeMethod(CtMethod ctMethod) {
@@ -170,6 +321,72 @@ public class DeFinalizeClassLoader extends ClassLoader {
     }
   }
 
+  private static byte[] readBytecode(ClassLoader classloader, String name) throws IOException {
+    final String resource = name.replace('.', '/') + ".class";
+
+    try (final InputStream is = classloader.getResourceAsStream(resource)) {
+      if (is == null) {
+        throw new IOException("unable to locate bytecode for class: " + name);
+      }
+      final ByteArrayOutputStream os = new ByteArrayOutputStream(8192);
+      final byte[] buf = new byte[8192];
+
+      for (int n = is.read(buf); n != -1; n = is.read(buf)) {
+        os.write(buf, 0, n);
+      }
+      return os.toByteArray();
+    }
+  }
+
+  private static byte[] readCachedBytecode(Path file) {
+    try {
+      return Files.readAllBytes(file);
+    } catch (IOException e) { // not cached yet
+      return null;
+    }
+  }
+
+  private static void writeCachedBytecode(Path file, byte[] bytecode) {
+    try {
+      Files.createDirectories(file.getParent());
+      final Path tmp = Files.createTempFile(file.getParent(), "definalized-", ".tmp");
+
+      try {
+        Files.write(tmp, bytecode);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) { // ignore as it will simply be definalized again next time
+      LOGGER.debug("failed to cache definalized bytecode in: {}", file, e);
+    }
+  }
+
+  private String digest(byte[] bytecode) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      final StringBuilder sb = new StringBuilder(64);
+
+      // salt with the versions so bytecode produced differently is never reused and with the
+      // filters since they determine which inner class entries are definalized
+      md.update(
+          ("definalize-"
+                  + DeFinalizeClassLoader.DEFINALIZE_VERSION
+                  + "/javassist-"
+                  + CtClass.version
+                  + '/'
+                  + String.join(",", filters)
+                  + '\n')
+              .getBytes(StandardCharsets.UTF_8));
+      for (final byte b : md.digest(bytecode)) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) { // should not happen as all VMs must support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
   private static boolean isNotFromAReservedPackage(String name) {
     return !name.startsWith("java.")
         && !name.startsWith("javax.")
@@ -178,6 +395,21 @@ public class DeFinalizeClassLoader extends ClassLoader {
         && !name.startsWith("org.junit.");
   }
 
+  private static Set<String> filtersFor(Class<?> testClass) {
+    return Stream.concat(
+            Stream.of(testClass.getAnnotationsByType(DeFinalize.class))
+                .map(DeFinalize::value)
+                .flatMap(Stream::of)
+                .map(DeFinalizeClassLoader::checkDefinalizedClass),
+            Stream.of(testClass.getAnnotationsByType(DeFinalize.class))
+                .map(DeFinalize::packages)
+                .flatMap(Stream::of)
+                .map(DeFinalizeClassLoader::checkDefinalizedPackage))
+        .collect(
+            Collectors.collectingAndThen(
+                Collectors.toCollection(TreeSet::new), Collections::unmodifiableSet));
+  }
+
   private static String checkDefinalizedClass(Class<?> clazz) {
     final String name = clazz.getName();
 
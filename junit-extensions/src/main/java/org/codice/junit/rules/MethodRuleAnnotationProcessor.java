@@ -14,10 +14,17 @@
 package org.codice.junit.rules;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.codice.junit.ExtensionMethodRuleAnnotation;
@@ -44,6 +51,15 @@ import org.junit.runners.model.Statement;
  * how these are internally initialized.
  */
 public class MethodRuleAnnotationProcessor implements SnapshotMethodRule {
+  /** Cache of compiled plans for each test class. */
+  private static final ClassValue<Plan> PLANS =
+      new ClassValue<Plan>() {
+        @Override
+        protected Plan computeValue(Class<?> type) {
+          return new Plan(type);
+        }
+      };
+
   /**
    * Adds a method rule annotation processor around a set of other rules. If one is already defined,
    * it is promoted to the bottom of the list otherwise a new one is added at the bottom of the
@@ -74,12 +90,10 @@ public class MethodRuleAnnotationProcessor implements SnapshotMethodRule {
 
   @Override
   public void snapshot(FrameworkMethod method, Object target) {
-    Stream.concat(
-            ReflectionUtils.annotationsByType(
-                target.getClass(), ExtensionMethodRuleAnnotation.class),
-            ReflectionUtils.annotationsByType(
-                method.getMethod(), ExtensionMethodRuleAnnotation.class))
-        .map(MethodRuleAnnotationProcessor::newInstance)
+    MethodRuleAnnotationProcessor.PLANS
+        .get(target.getClass())
+        .rulesFor(method.getMethod())
+        .map(RuleFactory::newInstance)
         .filter(SnapshotMethodRule.class::isInstance)
         .map(SnapshotMethodRule.class::cast)
         .forEach(r -> r.snapshot(method, target));
@@ -88,12 +102,10 @@ public class MethodRuleAnnotationProcessor implements SnapshotMethodRule {
   @Override
   public Statement applyAfterSnapshot(Statement base, FrameworkMethod method, Object target) {
     final List<MethodRule> rules =
-        Stream.concat(
-                ReflectionUtils.annotationsByType(
-                    target.getClass(), ExtensionMethodRuleAnnotation.class),
-                ReflectionUtils.annotationsByType(
-                    method.getMethod(), ExtensionMethodRuleAnnotation.class))
-            .map(MethodRuleAnnotationProcessor::newInstance)
+        MethodRuleAnnotationProcessor.PLANS
+            .get(target.getClass())
+            .rulesFor(method.getMethod())
+            .map(RuleFactory::newInstance)
             .collect(Collectors.toList());
 
     for (final ListIterator<MethodRule> i = rules.listIterator(rules.size()); i.hasPrevious(); ) {
@@ -108,27 +120,94 @@ public class MethodRuleAnnotationProcessor implements SnapshotMethodRule {
     return base;
   }
 
-  private static MethodRule newInstance(AnnotationEntry<ExtensionMethodRuleAnnotation> entry) {
-    final Class<? extends MethodRule> clazz = entry.getAnnotation().value();
-
-    try {
-      return MethodRuleAnnotationProcessor.newInstance(
-          clazz, entry.getEnclosingAnnotation().getAnnotation());
-    } catch (IllegalAccessException | InstantiationException e) {
-      throw new AssertionError("failed to instantiate method rule: " + clazz.getName(), e);
-    } catch (InvocationTargetException e) {
-      throw new AssertionError(
-          "failed to instantiate method rule: " + clazz.getName(), e.getTargetException());
+  /**
+   * Plan for a given test class which holds the rule factories for all method rule annotations
+   * defined on the class and on each of its test methods. The plan is computed once per test class
+   * and reused for all its test methods.
+   */
+  private static class Plan {
+    private final List<RuleFactory> classRules;
+
+    private final Map<Method, List<RuleFactory>> methodRules = new ConcurrentHashMap<>();
+
+    Plan(Class<?> clazz) {
+      this.classRules = Plan.compile(clazz);
+    }
+
+    Stream<RuleFactory> rulesFor(Method method) {
+      return Stream.concat(
+          classRules.stream(), methodRules.computeIfAbsent(method, Plan::compile).stream());
+    }
+
+    private static List<RuleFactory> compile(AnnotatedElement element) {
+      return ReflectionUtils.annotationsByType(element, ExtensionMethodRuleAnnotation.class)
+          .map(RuleFactory::new)
+          .collect(
+              Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
     }
   }
 
-  private static MethodRule newInstance(Class<? extends MethodRule> clazz, Annotation enclosing)
-      throws InvocationTargetException, InstantiationException, IllegalAccessException {
-    try {
-      // first check if a constructor that can receive the annotation exist
-      return clazz.getConstructor(enclosing.annotationType()).newInstance(enclosing);
-    } catch (NoSuchMethodException e) { // ignore and continue with default ctor
-      return clazz.newInstance();
+  /** Factory capable of instantiating a method rule for a given method rule annotation. */
+  private static class RuleFactory {
+    private final Class<? extends MethodRule> clazz;
+
+    private final Annotation enclosing;
+
+    /**
+     * The constructor for the method rule adapted to always receive the enclosing annotation or
+     * <code>null</code> if it could not be resolved in which case <code>error</code> is set.
+     */
+    private final MethodHandle constructor;
+
+    private final Throwable error;
+
+    @SuppressWarnings("squid:S1181" /* catching VirtualMachineError first */)
+    RuleFactory(AnnotationEntry<ExtensionMethodRuleAnnotation> entry) {
+      this.clazz = entry.getAnnotation().value();
+      this.enclosing = entry.getEnclosingAnnotation().getAnnotation();
+      MethodHandle handle = null;
+      Throwable t = null;
+
+      try {
+        handle = RuleFactory.findConstructor(clazz, enclosing.annotationType());
+      } catch (VirtualMachineError e) {
+        throw e;
+      } catch (Throwable e) { // report it when we attempt to instantiate the rule
+        t = e;
+      }
+      this.constructor = handle;
+      this.error = t;
+    }
+
+    @SuppressWarnings("squid:S1181" /* catching VirtualMachineError first */)
+    MethodRule newInstance() {
+      if (constructor == null) {
+        throw new AssertionError("failed to instantiate method rule: " + clazz.getName(), error);
+      }
+      try {
+        return (MethodRule) constructor.invokeExact(enclosing);
+      } catch (VirtualMachineError e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new AssertionError("failed to instantiate method rule: " + clazz.getName(), t);
+      }
+    }
+
+    private static MethodHandle findConstructor(
+        Class<? extends MethodRule> clazz, Class<? extends Annotation> annotationType)
+        throws NoSuchMethodException, IllegalAccessException {
+      final MethodHandles.Lookup lookup = MethodHandles.lookup();
+      MethodHandle handle;
+
+      try {
+        // first check if a constructor that can receive the annotation exist
+        handle = lookup.unreflectConstructor(clazz.getConstructor(annotationType));
+      } catch (NoSuchMethodException e) { // ignore and continue with default ctor
+        handle =
+            MethodHandles.dropArguments(
+                lookup.unreflectConstructor(clazz.getDeclaredConstructor()), 0, annotationType);
+      }
+      return handle.asType(MethodType.methodType(MethodRule.class, Annotation.class));
     }
   }
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.junit
+
+import java.lang.reflect.Modifier
+import org.codice.junit.impl.DeFinalizeClassLoader
+import spock.lang.Specification
+
+class DefinalizePackageSpec extends Specification {
+  static final String OUTER = 'org.codice.junit.definalized.Outer'
+  static final String INNER = 'org.codice.junit.definalized.Outer$Inner'
+
+  def "test definalizing a package with a final nested class when the outer class is loaded first"() {
+    given:
+      def loader = new DeFinalizeClassLoader(DefinalizedPackage)
+
+    when:
+      def outer = loader.loadClass(OUTER)
+      def inner = loader.loadClass(INNER)
+
+    then:
+      outer.classLoader.is(loader)
+      inner.classLoader.is(loader)
+      !Modifier.isFinal(outer.modifiers)
+      !Modifier.isFinal(inner.modifiers)
+      !Modifier.isFinal(outer.getMethod('getString').modifiers)
+      !Modifier.isFinal(inner.getMethod('getString').modifiers)
+  }
+
+  def "test definalized classes do not depend on the order they were loaded in"() {
+    given:
+      def outerFirst = new DeFinalizeClassLoader(DefinalizedPackage)
+      def innerFirst = new DeFinalizeClassLoader(DefinalizedPackage)
+
+    when:
+      def outer1 = outerFirst.loadClass(OUTER)
+      def inner1 = outerFirst.loadClass(INNER)
+      def inner2 = innerFirst.loadClass(INNER)
+      def outer2 = innerFirst.loadClass(OUTER)
+
+    then:
+      outer1.modifiers == outer2.modifiers
+      inner1.modifiers == inner2.modifiers
+      outer1.declaredClasses*.modifiers == outer2.declaredClasses*.modifiers
+      !Modifier.isFinal(outer2.declaredClasses[0].modifiers)
+  }
+
+  @DeFinalize(packages = 'org.codice.junit.definalized')
+  static class DefinalizedPackage {}
+}
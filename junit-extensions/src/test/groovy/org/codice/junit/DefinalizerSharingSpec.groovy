@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.junit
+
+import org.codice.junit.impl.DeFinalizeClassLoader
+import org.junit.Test
+import spock.lang.Specification
+
+class DefinalizerSharingSpec extends Specification {
+  def cleanup() {
+    DeFinalizeClassLoader.clearSharedInstances()
+    System.clearProperty(DeFinalizer.SHARE_CLASSLOADERS_PROPERTY)
+  }
+
+  def "test static state is isolated when classloaders are not shared"() {
+    given:
+      def runner1 = new DeFinalizer(NotShared)
+      def runner2 = new DeFinalizer(NotShared)
+
+    when:
+      runner1.reloadedTestClass.state = 'changed'
+
+    then:
+      !runner1.classloader.is(runner2.classloader)
+      runner2.reloadedTestClass.state == 'initial'
+  }
+
+  def "test static state is shared when classloaders are shared"() {
+    given:
+      def runner1 = new DeFinalizer(Shared)
+      def runner2 = new DeFinalizer(Shared)
+
+    when:
+      runner1.reloadedTestClass.state = 'changed'
+
+    then:
+      runner1.classloader.is(runner2.classloader)
+      runner2.reloadedTestClass.state == 'changed'
+  }
+
+  def "test classloaders are shared when enabled via system property"() {
+    given:
+      System.setProperty(DeFinalizer.SHARE_CLASSLOADERS_PROPERTY, 'true')
+
+    when:
+      def runner1 = new DeFinalizer(NotShared)
+      def runner2 = new DeFinalizer(NotShared)
+
+    then:
+      runner1.classloader.is(runner2.classloader)
+  }
+
+  def "test shared classloaders are no longer reused once cleared"() {
+    given:
+      def runner1 = new DeFinalizer(Shared)
+
+    when:
+      DeFinalizeClassLoader.clearSharedInstances()
+      def runner2 = new DeFinalizer(Shared)
+
+    then:
+      !runner1.classloader.is(runner2.classloader)
+  }
+
+  @DeFinalize(FinalClass)
+  static class NotShared {
+    static String state = 'initial'
+
+    @Test
+    void test() {}
+  }
+
+  @DeFinalize(value = FinalClass, shared = true)
+  static class Shared {
+    static String state = 'initial'
+
+    @Test
+    void test() {}
+  }
+
+  static final class FinalClass {}
+}
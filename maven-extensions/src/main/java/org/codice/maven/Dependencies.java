@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.maven;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable table of the information parsed from a <code>dependencies.properties</code> file.
+ * Project attributes are kept separately from artifact attributes which are indexed by <code>
+ * groupId:artifactId</code>.
+ */
+final class Dependencies {
+  /** The raw properties as loaded from the file. */
+  private final Map<String, String> properties;
+
+  private final Map<String, String> project;
+
+  /** Artifact attributes keyed by <code>groupId:artifactId</code> and then by attribute names. */
+  private final Map<String, Map<String, String>> artifacts;
+
+  /**
+   * Creates a new dependencies table.
+   *
+   * @param dependencies the loaded dependencies.properties information
+   */
+  Dependencies(Properties dependencies) {
+    final Map<String, String> all = new HashMap<>();
+    final Map<String, String> projectAttributes = new HashMap<>();
+    final Map<String, Map<String, String>> artifactAttributes = new HashMap<>();
+
+    for (final String key : dependencies.stringPropertyNames()) {
+      final String value = dependencies.getProperty(key);
+      final int slash = key.lastIndexOf('/');
+
+      all.put(key, value);
+      if (slash == -1) {
+        projectAttributes.put(key, value);
+      } else {
+        artifactAttributes
+            .computeIfAbsent(key.substring(0, slash).replace('/', ':'), k -> new HashMap<>())
+            .put(key.substring(slash + 1), value);
+      }
+    }
+    artifactAttributes.replaceAll((k, m) -> Collections.unmodifiableMap(m));
+    this.properties = Collections.unmodifiableMap(all);
+    this.project = Collections.unmodifiableMap(projectAttributes);
+    this.artifacts = Collections.unmodifiableMap(artifactAttributes);
+  }
+
+  /**
+   * Gets a project attribute.
+   *
+   * @param name the name of the project attribute to retrieve
+   * @return the corresponding attribute's value or <code>null</code> if not defined
+   */
+  @Nullable
+  String getProjectAttribute(String name) {
+    return project.get(name);
+  }
+
+  /**
+   * Gets an artifact's attribute.
+   *
+   * @param groupId the group id of the artifact for which to retrieve an attribute
+   * @param artifactId the id of the artifact for which to retrieve an attribute
+   * @param name the name of the attribute to retrieve
+   * @return the corresponding attribute's value or <code>null</code> if not defined
+   */
+  @Nullable
+  String getArtifactAttribute(String groupId, String artifactId, String name) {
+    final Map<String, String> attributes = artifacts.get(groupId + ':' + artifactId);
+
+    return (attributes != null) ? attributes.get(name) : null;
+  }
+
+  /**
+   * Gets a new copy of the dependencies.properties information represented by this table.
+   *
+   * @return a new copy of the corresponding properties
+   */
+  Properties toProperties() {
+    final Properties copy = new Properties();
+
+    copy.putAll(properties);
+    return copy;
+  }
+}
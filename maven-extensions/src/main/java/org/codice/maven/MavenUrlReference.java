@@ -15,7 +15,6 @@ package org.codice.maven;
 
 import java.lang.annotation.Annotation;
 import java.util.Objects;
-import java.util.Properties;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.StringUtils;
 import org.codice.test.commons.MavenUtils;
@@ -47,7 +46,7 @@ public class MavenUrlReference {
     final String version = url.version();
     final String type = url.type();
     final String classifier = url.classifier();
-    Properties dependencies = null;
+    Dependencies dependencies = null;
 
     if (MavenUrl.AS_PROJECT.equals(groupId)) {
       dependencies = Utilities.getDependencies(annotation, resourceLoader, dependencies);
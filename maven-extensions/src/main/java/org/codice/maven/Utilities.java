@@ -17,9 +17,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
+import java.net.URL;
 import java.security.AccessController;
+import java.security.CodeSource;
 import java.security.PrivilegedAction;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -30,6 +34,9 @@ import org.ops4j.pax.url.mvn.Handler;
 public class Utilities {
   private static final String PROTOCOL_HANDLER_PKGS_KEY = "java.protocol.handler.pkgs";
 
+  /** Cache of parsed dependencies.properties information keyed by code source locations. */
+  private static final Map<String, Dependencies> DEPENDENCIES = new ConcurrentHashMap<>();
+
   private static boolean initialized = false;
 
   /**
@@ -73,23 +80,13 @@ public class Utilities {
       String artifactId,
       String name,
       Properties dependencies) {
-    final String value = MavenUtils.getArtifactAttribute(dependencies, groupId, artifactId, name);
-
-    if (value == null) {
-      throw new IllegalArgumentException(
-          "Could not resolve "
-              + name
-              + " for "
-              + annotation
-              + " in "
-              + resourceLoader.getLocationClass().getName()
-              + ". Do you have a dependency for "
-              + groupId
-              + '/'
-              + artifactId
-              + " in your maven project?");
-    }
-    return value;
+    return Utilities.validateArtifactAttribute(
+        annotation,
+        resourceLoader,
+        groupId,
+        artifactId,
+        name,
+        MavenUtils.getArtifactAttribute(dependencies, groupId, artifactId, name));
   }
 
   /**
@@ -103,18 +100,8 @@ public class Utilities {
    */
   public static String getProjectAttribute(
       Annotation annotation, ResourceLoader resourceLoader, String name, Properties dependencies) {
-    final String value = MavenUtils.getProjectAttribute(dependencies, name);
-
-    if (value == null) {
-      throw new IllegalArgumentException(
-          "Could not resolve "
-              + name
-              + " from project dependencies for "
-              + annotation
-              + " in "
-              + resourceLoader.getLocationClass().getName());
-    }
-    return value;
+    return Utilities.validateProjectAttribute(
+        annotation, resourceLoader, name, MavenUtils.getProjectAttribute(dependencies, name));
   }
 
   /**
@@ -147,43 +134,182 @@ public class Utilities {
    *     yet loaded
    * @return the loaded dependencies.properties or <code>properties</code> if not <code>null</code>
    */
-  @SuppressWarnings(
-      "squid:CallToDeprecatedMethod" /* perfectly acceptable to not care about errors closing the
-                                     file once we have retrieved the info we want from it */)
   public static Properties getDependencies(
       Annotation annotation, ResourceLoader resourceLoader, @Nullable Properties dependencies) {
     if (dependencies == null) {
-      InputStream is = null;
-
-      try {
-        is =
-            AccessController.doPrivileged(
-                (PrivilegedAction<InputStream>)
-                    () -> resourceLoader.getResourceAsStream(MavenUtils.DEPENDENCIES_FILE));
-        if (is == null) {
-          throw new FileNotFoundException(
-              "File '"
-                  + MavenUtils.DEPENDENCIES_FILE
-                  + "' associated with "
-                  + resourceLoader.getLocationClass().getName()
-                  + " could not be found in classpath or on disk");
-        }
-        dependencies = new Properties();
-        dependencies.load(is);
-      } catch (IOException e) {
-        throw new IllegalArgumentException(
-            "Could not retrieved dependency information generated by maven for "
-                + annotation
-                + " in "
-                + resourceLoader.getLocationClass().getName(),
-            e);
-      } finally {
-        IOUtils.closeQuietly(is);
-      }
+      dependencies =
+          Utilities.getDependencies(annotation, resourceLoader, (Dependencies) null).toProperties();
     }
     return dependencies;
   }
 
+  /**
+   * Gets a particular artifact attribute from the provided dependencies.
+   *
+   * @param annotation the annotation instance for which to retrieve the artifact info
+   * @param resourceLoader the resource loader the dependencies.properties file was loaded from
+   * @param groupId the group id of the artifact for which to retrieve an artifact attribute
+   * @param artifactId the id of the artifact for which to retrieve an artifact attribute
+   * @param name the name of the attribute for the maven url to retrieve from the
+   *     dependencies.properties
+   * @param dependencies the loaded dependencies.properties information
+   * @return the corresponding attribute's value
+   */
+  static String getArtifactAttribute(
+      Annotation annotation,
+      ResourceLoader resourceLoader,
+      String groupId,
+      String artifactId,
+      String name,
+      Dependencies dependencies) {
+    return Utilities.validateArtifactAttribute(
+        annotation,
+        resourceLoader,
+        groupId,
+        artifactId,
+        name,
+        dependencies.getArtifactAttribute(groupId, artifactId, name));
+  }
+
+  /**
+   * Gets a particular project attribute from the provided dependencies.
+   *
+   * @param annotation the annotation instance for which to retrieve the artifact info
+   * @param resourceLoader the resource loader the dependencies.properties file was loaded from
+   * @param name the name of the project attribute to retrieve from the dependencies.properties
+   * @param dependencies the loaded dependencies.properties information
+   * @return the corresponding attribute's value
+   */
+  static String getProjectAttribute(
+      Annotation annotation,
+      ResourceLoader resourceLoader,
+      String name,
+      Dependencies dependencies) {
+    return Utilities.validateProjectAttribute(
+        annotation, resourceLoader, name, dependencies.getProjectAttribute(name));
+  }
+
+  /**
+   * Gets the dependencies.properties information for the provided annotation using the provided
+   * resource loader.
+   *
+   * <p>The parsed information is cached based on the code source of the resource loader's location
+   * class such that the file is only located and parsed once per code source.
+   *
+   * @param annotation the annotation instance for which to retrieve the dependencies.properties
+   * @param resourceLoader the resource loader to use to load the dependencies.properties file
+   * @param dependencies the loaded dependencies.properties information or <code>null</code> if not
+   *     yet loaded
+   * @return the loaded dependencies.properties or <code>dependencies</code> if not <code>null
+   *     </code>
+   */
+  static Dependencies getDependencies(
+      Annotation annotation, ResourceLoader resourceLoader, @Nullable Dependencies dependencies) {
+    if (dependencies != null) {
+      return dependencies;
+    }
+    final String location = Utilities.getCodeSourceLocation(resourceLoader.getLocationClass());
+
+    if (location == null) { // cannot safely cache it
+      return new Dependencies(Utilities.loadDependencies(annotation, resourceLoader));
+    }
+    final Dependencies cached = Utilities.DEPENDENCIES.get(location);
+
+    if (cached != null) {
+      return cached;
+    }
+    final Dependencies loaded =
+        new Dependencies(Utilities.loadDependencies(annotation, resourceLoader));
+    final Dependencies previous = Utilities.DEPENDENCIES.putIfAbsent(location, loaded);
+
+    return (previous != null) ? previous : loaded;
+  }
+
+  @Nullable
+  private static String getCodeSourceLocation(Class<?> clazz) {
+    return AccessController.doPrivileged(
+        (PrivilegedAction<String>)
+            () -> {
+              final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+              final URL location = (codeSource != null) ? codeSource.getLocation() : null;
+
+              return (location != null) ? location.toExternalForm() : null;
+            });
+  }
+
+  @SuppressWarnings(
+      "squid:CallToDeprecatedMethod" /* perfectly acceptable to not care about errors closing the
+                                     file once we have retrieved the info we want from it */)
+  private static Properties loadDependencies(Annotation annotation, ResourceLoader resourceLoader) {
+    InputStream is = null;
+
+    try {
+      is =
+          AccessController.doPrivileged(
+              (PrivilegedAction<InputStream>)
+                  () -> resourceLoader.getResourceAsStream(MavenUtils.DEPENDENCIES_FILE));
+      if (is == null) {
+        throw new FileNotFoundException(
+            "File '"
+                + MavenUtils.DEPENDENCIES_FILE
+                + "' associated with "
+                + resourceLoader.getLocationClass().getName()
+                + " could not be found in classpath or on disk");
+      }
+      final Properties dependencies = new Properties();
+
+      dependencies.load(is);
+      return dependencies;
+    } catch (IOException e) {
+      throw new IllegalArgumentException(
+          "Could not retrieved dependency information generated by maven for "
+              + annotation
+              + " in "
+              + resourceLoader.getLocationClass().getName(),
+          e);
+    } finally {
+      IOUtils.closeQuietly(is);
+    }
+  }
+
+  private static String validateArtifactAttribute(
+      Annotation annotation,
+      ResourceLoader resourceLoader,
+      String groupId,
+      String artifactId,
+      String name,
+      @Nullable String value) {
+    if (value == null) {
+      throw new IllegalArgumentException(
+          "Could not resolve "
+              + name
+              + " for "
+              + annotation
+              + " in "
+              + resourceLoader.getLocationClass().getName()
+              + ". Do you have a dependency for "
+              + groupId
+              + '/'
+              + artifactId
+              + " in your maven project?");
+    }
+    return value;
+  }
+
+  private static String validateProjectAttribute(
+      Annotation annotation, ResourceLoader resourceLoader, String name, @Nullable String value) {
+    if (value == null) {
+      throw new IllegalArgumentException(
+          "Could not resolve "
+              + name
+              + " from project dependencies for "
+              + annotation
+              + " in "
+              + resourceLoader.getLocationClass().getName());
+    }
+    return value;
+  }
+
   /** Initializes a URL protocol handler for the Maven protocol if not already registered. */
   public static synchronized void initMavenUrlHandler() {
     if (!Utilities.initialized) {
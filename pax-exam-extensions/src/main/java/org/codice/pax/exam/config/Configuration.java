@@ -27,9 +27,7 @@ import java.util.Set;
 import org.codice.pax.exam.config.internal.InternalConfigListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
-import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationAdmin;
-import org.osgi.service.cm.ConfigurationListener;
 
 /**
  * Defines an extension to OSGi {@link org.osgi.service.cm.Configuration} which provides additional
@@ -165,17 +163,17 @@ public class Configuration implements org.osgi.service.cm.Configuration {
    */
   public void updateAndWait(long timeout) throws IOException, InterruptedException {
     final long end = System.currentTimeMillis() + timeout;
-    final InternalConfigListener listener = new InternalConfigListener(pid);
-    final ServiceRegistration<ConfigurationListener> registration =
-        configAdmin.getBundleContext().registerService(ConfigurationListener.class, listener, null);
+    final InternalConfigListener.Notification notification =
+        InternalConfigListener.forContext(configAdmin.getBundleContext()).expect(pid);
 
     try {
       update();
-      // wait for the asynchronous event related to the update before stabilizing config admin
-      listener.waitForNotification(end - System.currentTimeMillis());
-    } finally {
-      registration.unregister();
+    } catch (IOException | RuntimeException e) {
+      notification.cancel();
+      throw e;
     }
+    // wait for the asynchronous event related to the update before stabilizing config admin
+    notification.waitForNotification(end - System.currentTimeMillis());
     stabilizer.stabilize(end - System.currentTimeMillis());
   }
 
@@ -197,17 +195,17 @@ public class Configuration implements org.osgi.service.cm.Configuration {
   public void updateAndWait(Dictionary<String, ?> properties, long timeout)
       throws IOException, InterruptedException {
     final long end = System.currentTimeMillis() + timeout;
-    final InternalConfigListener listener = new InternalConfigListener(pid);
-    final ServiceRegistration<ConfigurationListener> registration =
-        configAdmin.getBundleContext().registerService(ConfigurationListener.class, listener, null);
+    final InternalConfigListener.Notification notification =
+        InternalConfigListener.forContext(configAdmin.getBundleContext()).expect(pid);
 
     try {
       update(properties);
-      // wait for the asynchronous event related to the update before stabilizing config admin
-      listener.waitForNotification(end - System.currentTimeMillis());
-    } finally {
-      registration.unregister();
+    } catch (IOException | RuntimeException e) {
+      notification.cancel();
+      throw e;
     }
+    // wait for the asynchronous event related to the update before stabilizing config admin
+    notification.waitForNotification(end - System.currentTimeMillis());
     stabilizer.stabilize(end - System.currentTimeMillis());
   }
 
@@ -224,17 +222,17 @@ public class Configuration implements org.osgi.service.cm.Configuration {
    */
   public void deleteAndWait(long timeout) throws IOException, InterruptedException {
     final long end = System.currentTimeMillis() + timeout;
-    final InternalConfigListener listener = new InternalConfigListener(pid);
-    final ServiceRegistration<ConfigurationListener> registration =
-        configAdmin.getBundleContext().registerService(ConfigurationListener.class, listener, null);
+    final InternalConfigListener.Notification notification =
+        InternalConfigListener.forContext(configAdmin.getBundleContext()).expect(pid);
 
     try {
       delete();
-      // wait for the asynchronous event related to the delete before stabilizing config admin
-      listener.waitForNotification(end - System.currentTimeMillis());
-    } finally {
-      registration.unregister();
+    } catch (IOException | RuntimeException e) {
+      notification.cancel();
+      throw e;
     }
+    // wait for the asynchronous event related to the delete before stabilizing config admin
+    notification.waitForNotification(end - System.currentTimeMillis());
     stabilizer.stabilize(end - System.currentTimeMillis());
   }
 
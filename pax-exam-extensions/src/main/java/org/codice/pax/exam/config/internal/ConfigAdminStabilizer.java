@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.config.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.codice.pax.exam.config.ConfigException;
+import org.codice.pax.exam.config.ConfigStabilizer;
+import org.codice.pax.exam.config.ConfigTimeoutException;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.cm.ManagedServiceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stabilizer which waits for the configuration admin service and the components reacting to
+ * configuration changes to become quiescent.
+ *
+ * <p>The config objects changed since the last stabilization are reported by the {@link
+ * InternalConfigListener}. If none were changed, the configuration admin is first given a chance to
+ * complete the deliveries it has already queued for managed services as components reacting to
+ * them might change other config objects. If still none were changed, the system is considered
+ * stable. Otherwise, the system is considered stable once:
+ *
+ * <ul>
+ *   <li>all <code>ManagedService</code> and <code>ManagedServiceFactory</code> deliveries queued
+ *       for these config objects have completed; this is tracked using a barrier scheduled by the
+ *       {@link InternalConfigListener} after the fact since the configuration admin service
+ *       delivers configurations to managed services in order
+ *   <li>the Blueprint containers of all bundles consuming these config objects (i.e. bundles which
+ *       registered a managed service for them, such as a Blueprint cm property placeholder, or a
+ *       SCR component named after them) which were unregistered have been registered back; a
+ *       Blueprint container being reloaded by its property placeholder is destroyed and re-created
+ *       asynchronously after the configuration was delivered
+ *   <li>no service tied to these config objects (including the services of SCR components named
+ *       after them) was registered, modified, or unregistered and no other configuration changes
+ *       were reported for a short period of time (Blueprint containers and SCR components being
+ *       reconfigured will unregister and re-register their services)
+ * </ul>
+ *
+ * <p><i>Note:</i> SCR components configured from a persistent id other than their name and
+ * services re-registered by consuming bundles that do not carry the persistent id of their config
+ * object are only covered by the quiet period.
+ */
+public class ConfigAdminStabilizer implements ConfigStabilizer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigAdminStabilizer.class);
+
+  /** Amount of time in milliseconds during which the system must remain quiet. */
+  private static final long QUIET_PERIOD = 50L;
+
+  private static final List<String> MANAGED_CLASSES =
+      Arrays.asList(ManagedService.class.getName(), ManagedServiceFactory.class.getName());
+
+  private static final String BLUEPRINT_CONTAINER_CLASS =
+      "org.osgi.service.blueprint.container.BlueprintContainer";
+
+  /** Name of the service property holding the name of the SCR component providing the service. */
+  private static final String COMPONENT_NAME = "component.name";
+
+  private final BundleContext context;
+
+  private final Object lock = new Object();
+
+  /** Persistent ids and factory persistent ids of the config objects being monitored. */
+  private final Set<String> pids = new HashSet<>();
+
+  /** Ids of bundles consuming the config objects being monitored. */
+  private final Set<Long> consumers = new HashSet<>();
+
+  /** Ids of consuming bundles whose Blueprint container was unregistered and not yet re-created. */
+  private final Set<Long> reloading = new HashSet<>();
+
+  /** Barriers scheduled and still waiting to be reached. */
+  private final List<CompletableFuture<Void>> barriers = new LinkedList<>();
+
+  private final ServiceListener serviceListener = this::serviceChanged;
+
+  private final Consumer<ConfigurationEvent> configObserver = this::configurationEvent;
+
+  @Nullable private InternalConfigListener listener = null;
+
+  /** Time of the last service or configuration event seen or <code>0L</code> if none. */
+  private long lastEvent = 0L;
+
+  /** Time the last barrier was reached. */
+  private long lastDelivery = 0L;
+
+  /**
+   * Creates a new stabilizer.
+   *
+   * @param context the bundle context to use for monitoring configuration and service events
+   */
+  public ConfigAdminStabilizer(BundleContext context) {
+    this.context = context;
+  }
+
+  @Override
+  public void stabilize(long timeout) throws InterruptedException {
+    final InternalConfigListener configListener = InternalConfigListener.forContext(context);
+
+    // observe before draining to make sure we do not miss changes happening in between
+    configListener.addObserver(configObserver);
+    try {
+      final long end = System.currentTimeMillis() + timeout;
+      Set<String> changed = configListener.drainChangedPids();
+
+      if (changed.isEmpty()) {
+        // deliveries still queued might make components change other config objects in reaction
+        // so flush them before concluding nothing changed
+        flush(configListener, end);
+        changed = configListener.drainChangedPids();
+        if (changed.isEmpty()) {
+          LOGGER.trace("config admin stabilizer found no configuration changes");
+          return;
+        }
+      }
+      synchronized (lock) {
+        this.listener = configListener;
+        monitor(changed);
+        while (true) {
+          final long now = System.currentTimeMillis();
+          final long quiet = now - Math.max(lastEvent, lastDelivery);
+
+          if (barriers.isEmpty()
+              && reloading.isEmpty()
+              && (quiet >= ConfigAdminStabilizer.QUIET_PERIOD)) {
+            return;
+          }
+          final long remaining = end - now;
+
+          if (remaining <= 0L) {
+            if (barriers.isEmpty()
+                && reloading.isEmpty()
+                && (now - lastEvent >= ConfigAdminStabilizer.QUIET_PERIOD)) {
+              // all deliveries are done and nothing happened since so we are not going to wait for
+              // the rest of the quiet period
+              return;
+            }
+            throw new ConfigTimeoutException(
+                "timed out waiting for config admin to stabilize"
+                    + (barriers.isEmpty()
+                        ? ""
+                        : pids.stream()
+                            .collect(
+                                Collectors.joining(", ", " (outstanding deliveries for: ", ")")))
+                    + (reloading.isEmpty()
+                        ? ""
+                        : reloading.stream()
+                            .map(String::valueOf)
+                            .collect(
+                                Collectors.joining(
+                                    ", ", " (blueprint containers reloading for bundles: ", ")"))));
+          }
+          lock.wait(
+              (barriers.isEmpty() && reloading.isEmpty())
+                  ? Math.min(remaining, ConfigAdminStabilizer.QUIET_PERIOD - quiet)
+                  : remaining);
+        }
+      }
+    } finally {
+      configListener.removeObserver(configObserver);
+      context.removeServiceListener(serviceListener);
+      final List<CompletableFuture<Void>> toCancel;
+
+      synchronized (lock) {
+        this.listener = null;
+        toCancel = new LinkedList<>(barriers);
+        barriers.clear();
+        // the service listener was removed so start afresh with the next stabilization
+        pids.clear();
+        consumers.clear();
+        reloading.clear();
+      }
+      toCancel.forEach(b -> b.cancel(false));
+    }
+  }
+
+  /**
+   * Waits for the configuration admin to be done delivering all configurations currently queued for
+   * managed services.
+   *
+   * @param configListener the config listener to schedule a barrier with
+   * @param end the time at which to stop waiting
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   * @throws ConfigTimeoutException if we timed out before all queued deliveries were completed
+   */
+  private static void flush(InternalConfigListener configListener, long end)
+      throws InterruptedException {
+    final CompletableFuture<Void> barrier = configListener.barrier();
+
+    try {
+      barrier.get(Math.max(end - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+      LOGGER.trace("config admin stabilizer flushed queued deliveries");
+    } catch (TimeoutException e) {
+      barrier.cancel(false);
+      throw new ConfigTimeoutException(
+          "timed out waiting for config admin to stabilize (outstanding queued deliveries)");
+    } catch (CancellationException e) { // the listener was released so nothing more will come
+      LOGGER.debug("config admin stabilizer barrier was cancelled", e);
+    } catch (ExecutionException e) { // should not happen as we never complete it exceptionally
+      throw new ConfigException(e.getCause());
+    }
+  }
+
+  /**
+   * Starts monitoring the specified config objects and schedules a barrier to be reached once the
+   * configuration admin is done delivering the changes to their managed services.
+   *
+   * <p><i>Note:</i> Must be called while holding the lock.
+   *
+   * @param toMonitor the persistent ids and factory persistent ids of the config objects to monitor
+   */
+  private void monitor(Set<String> toMonitor) {
+    if (pids.addAll(toMonitor)) {
+      final String pidFilter =
+          pids.stream()
+              .flatMap(
+                  p ->
+                      Arrays.asList(
+                              Constants.SERVICE_PID,
+                              ConfigurationAdmin.SERVICE_FACTORYPID,
+                              ConfigAdminStabilizer.COMPONENT_NAME)
+                          .stream()
+                          .map(k -> '(' + k + '=' + ConfigAdminStabilizer.escape(p) + ')'))
+              .collect(Collectors.joining());
+      final String filter =
+          "(|"
+              + pidFilter
+              + '('
+              + Constants.OBJECTCLASS
+              + '='
+              + ConfigAdminStabilizer.BLUEPRINT_CONTAINER_CLASS
+              + "))";
+
+      try {
+        // re-adding the same listener replaces its filter
+        context.addServiceListener(serviceListener, filter);
+        final ServiceReference<?>[] refs =
+            context.getServiceReferences((String) null, "(|" + pidFilter + ')');
+
+        if (refs != null) {
+          Arrays.stream(refs).forEach(this::addConsumer);
+        }
+      } catch (InvalidSyntaxException e) {
+        throw new ConfigException("invalid service filter: " + filter, e);
+      }
+    }
+    if (listener == null) { // stabilization is over
+      return;
+    }
+    final CompletableFuture<Void> barrier = listener.barrier();
+
+    barriers.add(barrier);
+    barrier.thenRun(() -> barrierReached(barrier));
+  }
+
+  private void barrierReached(CompletableFuture<Void> barrier) {
+    synchronized (lock) {
+      if (!barriers.remove(barrier)) { // stabilization is over
+        return;
+      }
+      LOGGER.trace("config admin stabilizer reached barrier");
+      this.lastDelivery = System.currentTimeMillis();
+      lock.notifyAll();
+    }
+  }
+
+  private void configurationEvent(ConfigurationEvent event) {
+    final Set<String> changed = new HashSet<>(4);
+
+    changed.add(event.getPid());
+    if (event.getFactoryPid() != null) {
+      changed.add(event.getFactoryPid());
+    }
+    synchronized (lock) {
+      LOGGER.trace("config admin stabilizer received config event for: {}", changed);
+      this.lastEvent = System.currentTimeMillis();
+      monitor(changed);
+      lock.notifyAll();
+    }
+  }
+
+  private void serviceChanged(ServiceEvent event) {
+    final ServiceReference<?> reference = event.getServiceReference();
+    final String[] classes = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+
+    synchronized (lock) {
+      if ((classes != null)
+          && Arrays.asList(classes).contains(ConfigAdminStabilizer.BLUEPRINT_CONTAINER_CLASS)) {
+        blueprintContainerChanged(event);
+        return;
+      }
+      LOGGER.trace("config admin stabilizer received service event for: {}", event);
+      this.lastEvent = System.currentTimeMillis();
+      if ((event.getType() == ServiceEvent.REGISTERED)
+          && (classes != null)
+          && Arrays.stream(classes).anyMatch(ConfigAdminStabilizer.MANAGED_CLASSES::contains)) {
+        // the config admin will deliver the configuration to this new managed service
+        addConsumer(reference);
+        monitor(pids);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Tracks the Blueprint container of a consuming bundle being destroyed and re-created.
+   *
+   * <p><i>Note:</i> Must be called while holding the lock.
+   *
+   * @param event the service event reported for the Blueprint container
+   */
+  private void blueprintContainerChanged(ServiceEvent event) {
+    final Bundle bundle = event.getServiceReference().getBundle();
+
+    if ((bundle == null) || !consumers.contains(bundle.getBundleId())) {
+      return; // unregistered already or not a bundle consuming our config objects
+    }
+    LOGGER.trace("config admin stabilizer received blueprint container event for: {}", event);
+    this.lastEvent = System.currentTimeMillis();
+    if (event.getType() == ServiceEvent.UNREGISTERING) {
+      reloading.add(bundle.getBundleId());
+    } else if (event.getType() == ServiceEvent.REGISTERED) {
+      reloading.remove(bundle.getBundleId());
+    }
+    lock.notifyAll();
+  }
+
+  private void addConsumer(ServiceReference<?> reference) {
+    final Bundle bundle = reference.getBundle();
+
+    if (bundle != null) { // null if already unregistered
+      consumers.add(bundle.getBundleId());
+    }
+  }
+
+  private static String escape(String value) {
+    final StringBuilder sb = new StringBuilder(value.length() + 8);
+
+    for (final char c : value.toCharArray()) {
+      if ((c == '\\') || (c == '*') || (c == '(') || (c == ')')) {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+}
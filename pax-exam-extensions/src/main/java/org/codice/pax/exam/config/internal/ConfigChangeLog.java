@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.config.internal;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An observer of the {@link InternalConfigListener} which records the persistent ids of all config
+ * objects that were updated, deleted, or had their location changed since the last time the system
+ * was known to match the snapshot.
+ *
+ * <p>The log stops tracking changes as soon as the listener it observes is released (e.g. when the
+ * bundle owning its bundle context is stopping) since no more events will be dispatched to it.
+ *
+ * <p><i>Note:</i> Since the {@link InternalConfigListener} is a synchronous listener, a change made
+ * through the configuration admin service is recorded before the call making it returns. Changes
+ * still being made by components reacting to earlier ones are only recorded once they happen which
+ * is why the system should be stabilized before relying on the recorded persistent ids.
+ */
+public class ConfigChangeLog implements Consumer<ConfigurationEvent> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigChangeLog.class);
+
+  private final InternalConfigListener listener;
+
+  /** The persistent id of an internal config object for which events should be ignored. */
+  private final String ignoredPid;
+
+  private final Set<String> pids = new LinkedHashSet<>();
+
+  private boolean all = false;
+
+  /**
+   * Creates a new change log and adds it as an observer of the specified config listener.
+   *
+   * @param listener the config listener to observe
+   * @param ignoredPid the persistent id of an internal config object for which to ignore events
+   */
+  public ConfigChangeLog(InternalConfigListener listener, String ignoredPid) {
+    this.listener = listener;
+    this.ignoredPid = ignoredPid;
+    listener.addObserver(this);
+  }
+
+  /**
+   * Checks if this change log is observing the specified config listener and can therefore be
+   * relied upon to track configuration changes.
+   *
+   * @param listener the current config listener
+   * @return <code>true</code> if this log is tracking changes reported by the specified listener;
+   *     <code>false</code> otherwise
+   */
+  public boolean isTracking(InternalConfigListener listener) {
+    return this.listener == listener;
+  }
+
+  @Override
+  public void accept(ConfigurationEvent event) {
+    final String pid = event.getPid();
+
+    if (!pid.equals(ignoredPid)) {
+      synchronized (this) {
+        pids.add(pid);
+      }
+    }
+  }
+
+  /**
+   * Checks if all config objects should be considered changed.
+   *
+   * @return <code>true</code> if all config objects should be processed; <code>false</code> if only
+   *     those reported by {@link #pids()} should be
+   */
+  public synchronized boolean allChanged() {
+    return all;
+  }
+
+  /**
+   * Gets the persistent ids of all config objects that were changed.
+   *
+   * @return a copy of the set of changed persistent ids
+   */
+  public synchronized Set<String> pids() {
+    return new LinkedHashSet<>(pids);
+  }
+
+  /**
+   * Marks all config objects as changed. This should be called whenever the state of the system can
+   * no longer be determined from this log (e.g. after a failed restore).
+   */
+  public synchronized void invalidate() {
+    LOGGER.debug("Invalidating configuration change log");
+    this.all = true;
+  }
+
+  /**
+   * Clears the specified persistent ids from this log to indicate that their corresponding config
+   * objects are now known to match the snapshot.
+   *
+   * @param restored the persistent ids of config objects that were restored
+   */
+  public synchronized void clear(Collection<String> restored) {
+    LOGGER.trace("Clearing configuration change log: {}", restored);
+    pids.removeAll(restored);
+    this.all = false;
+  }
+
+  /** Stops observing the config listener. */
+  public void close() {
+    listener.removeObserver(this);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ConfigChangeLog[pids=" + (all ? "*" : pids) + "]";
+  }
+}
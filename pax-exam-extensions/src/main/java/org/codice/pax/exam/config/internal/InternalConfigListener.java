@@ -13,57 +13,317 @@
  */
 package org.codice.pax.exam.config.internal;
 
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.codice.pax.exam.config.ConfigException;
 import org.codice.pax.exam.config.ConfigTimeoutException;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.service.cm.ConfigurationEvent;
-import org.osgi.service.cm.ConfigurationListener;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.cm.SynchronousConfigurationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * An internal configuration listener capable of waiting for any configuration events on a given
- * config object.
+ * An internal configuration listener capable of waiting for configuration events on any config
+ * objects.
+ *
+ * <p>A single listener is registered for a given bundle context and dispatches the events it
+ * receives to whoever is expecting an event for the corresponding config object or observing all
+ * events. This avoids having to register and unregister a listener service every time one needs to
+ * wait for an event.
+ *
+ * <p>The listener is registered as a synchronous listener such that changes made through the
+ * configuration admin are recorded on the thread making them before the corresponding call returns.
+ * This guarantees that neither the changed persistent ids nor the observers can lag behind changes
+ * the caller already made.
+ *
+ * <p>It also manages a single barrier <code>ManagedService</code> which is used to detect when the
+ * configuration admin is done delivering configurations to managed services. Instead of registering
+ * a new managed service for each barrier, its persistent id is changed which forces the
+ * configuration admin to queue a new delivery to it.
+ *
+ * <p>The listener unregisters itself and is forgotten as soon as the bundle owning its bundle
+ * context is stopping.
  */
-public class InternalConfigListener implements ConfigurationListener {
-  private final String pid;
+public class InternalConfigListener implements SynchronousConfigurationListener {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InternalConfigListener.class);
+
+  private static final String BARRIER_PID_PREFIX = "org.codice.pax.exam.config.barrier.";
+
+  private static final AtomicLong BARRIER_ID = new AtomicLong();
+
+  private static InternalConfigListener instance = null;
+
+  private final BundleContext context;
+
+  private final ServiceRegistration<SynchronousConfigurationListener> registration;
+
+  private final SynchronousBundleListener bundleListener = this::bundleChanged;
+
+  /** Notifications waiting for an event keyed by the persistent ids of their config objects. */
+  private final Map<String, List<Notification>> notifications = new HashMap<>();
+
+  /** Persistent ids and factory persistent ids of config objects changed since last drained. */
+  private final Set<String> changed = new HashSet<>();
 
-  private boolean received = false;
+  /** Observers notified of all configuration events. */
+  private final List<Consumer<ConfigurationEvent>> observers = new CopyOnWriteArrayList<>();
+
+  /** Barriers waiting to be reached in the order their deliveries were queued. */
+  private final List<CompletableFuture<Void>> barriers = new LinkedList<>();
+
+  /** Lock used to serialize changes to the barrier managed service registration. */
+  private final Object barrierLock = new Object();
+
+  @Nullable private ServiceRegistration<ManagedService> barrierRegistration = null;
 
   /**
-   * Creates a config listener which will be listening for configuration events for the specified
-   * configuration object.
+   * Creates a config listener and registers it with the specified bundle context.
    *
-   * @param pid the persistent id of the config object for which to listen for events
+   * @param context the bundle context to register with
    */
-  public InternalConfigListener(String pid) {
-    this.pid = pid;
+  private InternalConfigListener(BundleContext context) {
+    this.context = context;
+    this.registration =
+        context.registerService(SynchronousConfigurationListener.class, this, null);
+    context.addBundleListener(bundleListener);
   }
 
-  @Override
-  public void configurationEvent(ConfigurationEvent event) {
-    if (event.getPid().equals(pid)) {
-      synchronized (this) {
-        this.received = true;
-        notifyAll();
+  /**
+   * Gets the config listener registered with the specified bundle context, registering a new one
+   * (and unregistering the previous one) if need be.
+   *
+   * @param context the current bundle context
+   * @return the corresponding config listener
+   */
+  public static synchronized InternalConfigListener forContext(BundleContext context) {
+    if ((InternalConfigListener.instance == null)
+        || (InternalConfigListener.instance.context != context)) {
+      if (InternalConfigListener.instance != null) {
+        LOGGER.debug("Bundle context changed; replacing configuration listener");
+        InternalConfigListener.instance.close();
       }
+      InternalConfigListener.instance = new InternalConfigListener(context);
     }
+    return InternalConfigListener.instance;
   }
 
   /**
-   * Waits for the specified amount of time for this listener to be notified of any configuration
-   * events for the corresponding configuration object.
+   * Starts expecting a configuration event for the specified config object. This method should be
+   * called before performing the change for which an event is expected to make sure the event is
+   * not missed.
    *
-   * @param timeout the maximum amount of time in milliseconds to wait for a config change on the
-   *     corresponding config object
-   * @throws InterruptedException if the current thread was interrupted while waiting
-   * @throws ConfigTimeoutException if we timed out before receiving a config change event for the
-   *     corresponding config object
+   * @param pid the persistent id of the config object for which to expect an event
+   * @return a notification which can be used to wait for the event
    */
-  public void waitForNotification(long timeout) throws InterruptedException {
-    synchronized (this) {
-      if (!received) {
-        if (timeout > 0L) {
-          wait(timeout);
-        }
-        if (!received) {
-          throw new ConfigTimeoutException("timed out waiting for a config event for: " + pid);
+  public Notification expect(String pid) {
+    final Notification notification = new Notification(pid);
+
+    synchronized (notifications) {
+      notifications.computeIfAbsent(pid, p -> new LinkedList<>()).add(notification);
+    }
+    return notification;
+  }
+
+  /**
+   * Retrieves and clears the persistent ids and factory persistent ids of all config objects for
+   * which configuration events were received since the last time this method was called.
+   *
+   * @return the set of changed persistent ids and factory persistent ids
+   */
+  public Set<String> drainChangedPids() {
+    synchronized (notifications) {
+      final Set<String> pids = new HashSet<>(changed);
+
+      changed.clear();
+      return pids;
+    }
+  }
+
+  /**
+   * Starts notifying the specified observer of all configuration events received.
+   *
+   * @param observer the observer to notify
+   */
+  public void addObserver(Consumer<ConfigurationEvent> observer) {
+    observers.add(observer);
+  }
+
+  /**
+   * Stops notifying the specified observer of configuration events.
+   *
+   * @param observer the observer to stop notifying
+   */
+  public void removeObserver(Consumer<ConfigurationEvent> observer) {
+    observers.remove(observer);
+  }
+
+  /**
+   * Schedules a barrier which will be reached once the configuration admin is done delivering all
+   * configurations currently queued for managed services. This relies on the configuration admin
+   * delivering configurations to managed services in the order they are queued.
+   *
+   * @return a future completed when the barrier is reached
+   */
+  public CompletableFuture<Void> barrier() {
+    final CompletableFuture<Void> barrier = new CompletableFuture<>();
+    final Dictionary<String, Object> properties = new Hashtable<>(4);
+
+    properties.put(
+        Constants.SERVICE_PID,
+        InternalConfigListener.BARRIER_PID_PREFIX
+            + InternalConfigListener.BARRIER_ID.incrementAndGet());
+    synchronized (barrierLock) {
+      synchronized (barriers) {
+        barriers.add(barrier);
+      }
+      if (barrierRegistration == null) {
+        this.barrierRegistration =
+            context.registerService(ManagedService.class, this::barrierReached, properties);
+      } else { // changing the pid forces a new delivery to be queued
+        barrierRegistration.setProperties(properties);
+      }
+    }
+    return barrier;
+  }
+
+  @Override
+  public void configurationEvent(ConfigurationEvent event) {
+    final List<Notification> toNotify;
+
+    synchronized (notifications) {
+      changed.add(event.getPid());
+      if (event.getFactoryPid() != null) {
+        changed.add(event.getFactoryPid());
+      }
+      toNotify = notifications.remove(event.getPid());
+    }
+    if (toNotify != null) {
+      toNotify.forEach(n -> n.future.complete(event));
+    }
+    observers.forEach(o -> o.accept(event));
+  }
+
+  private void bundleChanged(BundleEvent event) {
+    if ((event.getType() == BundleEvent.STOPPING) && (event.getBundle() == context.getBundle())) {
+      LOGGER.debug("Bundle stopping; removing configuration listener");
+      InternalConfigListener.release(this);
+    }
+  }
+
+  private static synchronized void release(InternalConfigListener listener) {
+    if (InternalConfigListener.instance == listener) {
+      InternalConfigListener.instance = null;
+    }
+    listener.close();
+  }
+
+  private void barrierReached(@Nullable Dictionary<String, ?> properties) {
+    final CompletableFuture<Void> barrier;
+
+    synchronized (barriers) {
+      if (barriers.isEmpty()) {
+        return;
+      }
+      barrier = barriers.remove(0);
+    }
+    LOGGER.trace("reached configuration admin barrier");
+    barrier.complete(null);
+  }
+
+  private void close() {
+    try {
+      context.removeBundleListener(bundleListener);
+    } catch (IllegalStateException e) { // bundle context is no longer valid so nothing to remove
+      LOGGER.debug("failed to remove configuration listener bundle listener", e);
+    }
+    InternalConfigListener.unregister(registration);
+    synchronized (barrierLock) {
+      InternalConfigListener.unregister(barrierRegistration);
+      this.barrierRegistration = null;
+    }
+    final List<CompletableFuture<Void>> toCancel;
+
+    synchronized (barriers) {
+      toCancel = new LinkedList<>(barriers);
+      barriers.clear();
+    }
+    toCancel.forEach(b -> b.cancel(false));
+  }
+
+  private static void unregister(@Nullable ServiceRegistration<?> registration) {
+    if (registration == null) {
+      return;
+    }
+    try {
+      registration.unregister();
+    } catch (IllegalStateException e) { // already unregistered so nothing to remove
+      LOGGER.debug("failed to unregister configuration listener service", e);
+    }
+  }
+
+  /** Notification for a configuration event on a given config object. */
+  public class Notification {
+    private final String pid;
+
+    private final CompletableFuture<ConfigurationEvent> future = new CompletableFuture<>();
+
+    private Notification(String pid) {
+      this.pid = pid;
+    }
+
+    /**
+     * Waits for the specified amount of time for the configuration event to be received.
+     *
+     * @param timeout the maximum amount of time in milliseconds to wait for a config change on the
+     *     corresponding config object
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ConfigTimeoutException if we timed out before receiving a config change event for the
+     *     corresponding config object
+     */
+    public void waitForNotification(long timeout) throws InterruptedException {
+      try {
+        future.get(Math.max(timeout, 0L), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        cancel();
+        throw new ConfigTimeoutException("timed out waiting for a config event for: " + pid);
+      } catch (ExecutionException e) { // should not happen as we never complete it exceptionally
+        throw new ConfigException(e.getCause());
+      } catch (InterruptedException e) {
+        cancel();
+        throw e;
+      }
+    }
+
+    /** Stops expecting a configuration event if one was not already received. */
+    public void cancel() {
+      if (future.isDone()) {
+        return;
+      }
+      synchronized (notifications) {
+        final List<Notification> waiting = notifications.get(pid);
+
+        if ((waiting != null) && waiting.remove(this) && waiting.isEmpty()) {
+          notifications.remove(pid);
         }
       }
     }
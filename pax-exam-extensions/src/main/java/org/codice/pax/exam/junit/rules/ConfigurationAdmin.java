@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -42,7 +44,10 @@ import org.codice.junit.rules.EmptyStatement;
 import org.codice.pax.exam.config.ConfigException;
 import org.codice.pax.exam.config.ConfigTimeoutException;
 import org.codice.pax.exam.config.Configuration;
+import org.codice.pax.exam.config.internal.ConfigAdminStabilizer;
+import org.codice.pax.exam.config.internal.ConfigChangeLog;
 import org.codice.pax.exam.config.internal.ConfigurationSnapshot;
+import org.codice.pax.exam.config.internal.InternalConfigListener;
 import org.codice.test.commons.ReflectionUtils;
 import org.codice.test.commons.ReflectionUtils.AnnotationEntry;
 import org.junit.runners.model.FrameworkMethod;
@@ -84,22 +89,21 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
         Configuration.Property.SetBoolean.class
       };
 
-  private static final String THREAD_GROUP = "Configuration Admin Service";
-
   private static final String INTERNAL_PID = ConfigurationAdmin.class.getName();
 
   private static final String TIME_KEY = "time";
 
   private static final long USE_SYSTEM_PROPERTY = -1L;
 
-  // config admin creates 2 threads in this group: CM Configuration Updater, and CM Event Dispatcher
-  private static final int EXPECTED_THREADS = 2;
-
-  private static volatile ThreadGroup threadGroup = null;
-
   private static final Map<String, ConfigurationSnapshot> snapshotConfigs =
       new ConcurrentHashMap<>();
 
+  /** Log of all config objects changed since they were last known to match the snapshot. */
+  private static ConfigChangeLog changeLog = null;
+
+  /** The test class for which class annotations were last cached as containers can be reused. */
+  private static Class<?> classAnnotationsFor = null;
+
   private static List<AnnotationEntry<?>> classAnnotations = null;
 
   private static final Map<String, Resource> resources = new ConcurrentHashMap<>();
@@ -175,47 +179,39 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
   public org.osgi.service.cm.Configuration createFactoryConfiguration(String factoryPid)
       throws IOException {
     return new Configuration(
-        this, ConfigurationAdmin::stabilize0, getService().createFactoryConfiguration(factoryPid));
+        this, this::stabilize0, getService().createFactoryConfiguration(factoryPid));
   }
 
   @Override
   public org.osgi.service.cm.Configuration createFactoryConfiguration(
       String factoryPid, String location) throws IOException {
     return new Configuration(
-        this,
-        ConfigurationAdmin::stabilize0,
-        getService().createFactoryConfiguration(factoryPid, location));
+        this, this::stabilize0, getService().createFactoryConfiguration(factoryPid, location));
   }
 
   @Override
   public org.osgi.service.cm.Configuration getConfiguration(String pid, String location)
       throws IOException {
-    return new Configuration(
-        this, ConfigurationAdmin::stabilize0, getService().getConfiguration(pid, location));
+    return new Configuration(this, this::stabilize0, getService().getConfiguration(pid, location));
   }
 
   @Override
   public org.osgi.service.cm.Configuration getConfiguration(String pid) throws IOException {
-    return new Configuration(
-        this, ConfigurationAdmin::stabilize0, getService().getConfiguration(pid));
+    return new Configuration(this, this::stabilize0, getService().getConfiguration(pid));
   }
 
   @Override
   public org.osgi.service.cm.Configuration getFactoryConfiguration(
       String factoryPid, String name, String location) throws IOException {
     return new Configuration(
-        this,
-        ConfigurationAdmin::stabilize0,
-        getService().getFactoryConfiguration(factoryPid, name, location));
+        this, this::stabilize0, getService().getFactoryConfiguration(factoryPid, name, location));
   }
 
   @Override
   public org.osgi.service.cm.Configuration getFactoryConfiguration(String factoryPid, String name)
       throws IOException {
     return new Configuration(
-        this,
-        ConfigurationAdmin::stabilize0,
-        getService().getFactoryConfiguration(factoryPid, name));
+        this, this::stabilize0, getService().getFactoryConfiguration(factoryPid, name));
   }
 
   @Override
@@ -225,7 +221,7 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
 
     if (cfgs != null) {
       for (int i = 0; i < cfgs.length; i++) {
-        cfgs[i] = new Configuration(this, ConfigurationAdmin::stabilize0, cfgs[i]);
+        cfgs[i] = new Configuration(this, this::stabilize0, cfgs[i]);
       }
     }
     return cfgs;
@@ -256,6 +252,51 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
     }
   }
 
+  /**
+   * Updates all the specified configuration objects and waits a maximum amount of time for the
+   * configuration changes to stabilize in the system. All updates are performed first before
+   * waiting for all corresponding configuration events together.
+   *
+   * @param updates the configuration objects to update mapped to their new set of properties or to
+   *     <code>null</code> to simply update them using their current properties
+   * @param timeout the maximum amount of time in milliseconds to wait for all configuration changes
+   *     to stabilize
+   * @throws IOException if an update cannot be made persistent
+   * @throws IllegalArgumentException if a dictionary object contains invalid configuration types or
+   *     contains case variants of the same key name
+   * @throws IllegalStateException if one of the configuration objects has been deleted
+   * @throws InterruptedException if the current thread was interrupted while waiting for the config
+   *     changes to stabilize
+   * @throws ConfigTimeoutException if we timed out before the config changes were able to stabilize
+   */
+  public void updateAllAndWait(Map<Configuration, Dictionary<String, ?>> updates, long timeout)
+      throws IOException, InterruptedException {
+    final long end = System.currentTimeMillis() + timeout;
+    final InternalConfigListener listener = InternalConfigListener.forContext(getBundleContext());
+    final List<InternalConfigListener.Notification> notifications = new ArrayList<>(updates.size());
+
+    try {
+      for (final Map.Entry<Configuration, Dictionary<String, ?>> e : updates.entrySet()) {
+        final Configuration config = e.getKey();
+        final Dictionary<String, ?> properties = e.getValue();
+
+        notifications.add(listener.expect(config.getPid()));
+        if (properties != null) {
+          config.update(properties);
+        } else {
+          config.update();
+        }
+      }
+      // wait for the asynchronous events related to the updates before stabilizing config admin
+      for (final InternalConfigListener.Notification notification : notifications) {
+        notification.waitForNotification(end - System.currentTimeMillis());
+      }
+    } finally {
+      notifications.forEach(InternalConfigListener.Notification::cancel);
+    }
+    stabilize0(end - System.currentTimeMillis());
+  }
+
   /**
    * Get an existing current configuration object from the persistent store if it exist. Only
    * configuration objects with non-<code>null</code> properties are considered current. That is,
@@ -419,49 +460,9 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
     };
   }
 
-  private void findConfigurationAdminThreadGroup() {
-    if (ConfigurationAdmin.threadGroup != null) {
-      return;
-    }
-    final ThreadGroup top = getTopParentThreadGroup();
-
-    while (true) {
-      // use a bigger array to make sure we get all in case it changes in between calls
-      final ThreadGroup[] groups = new ThreadGroup[top.activeCount() * 2];
-      final int length = top.enumerate(groups, true);
-      final ThreadGroup group =
-          Stream.of(groups)
-              .limit(length)
-              .filter(tg -> tg.getName().equals(ConfigurationAdmin.THREAD_GROUP))
-              .findAny()
-              .orElse(null);
-
-      if (group != null) {
-        ConfigurationAdmin.threadGroup = group;
-        return;
-      } else if (length <= groups.length) {
-        throw new ConfigException("unable to find configuration admin thread group");
-      } // else - try again as it would look like a lot more thread groups appeared in between calls
-    }
-  }
-
-  private ThreadGroup getTopParentThreadGroup() {
-    ThreadGroup group = Thread.currentThread().getThreadGroup();
-
-    while (true) {
-      final ThreadGroup parent = group.getParent();
-
-      if (parent == null) {
-        return group;
-      }
-      group = parent;
-    }
-  }
-
   // --- Snapshots
 
   private void takeSnapshot() {
-    findConfigurationAdminThreadGroup();
     if (internalConfig == null) {
       try {
         this.internalConfig = ((Configuration) getConfiguration(ConfigurationAdmin.INTERNAL_PID));
@@ -472,6 +473,11 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
     // only take a snapshot the first time around
     synchronized (ConfigurationAdmin.snapshotConfigs) {
       if (ConfigurationAdmin.snapshotConfigs.isEmpty()) {
+        // start logging changes before snapshoting to make sure we do not miss anything
+        ConfigurationAdmin.changeLog =
+            new ConfigChangeLog(
+                InternalConfigListener.forContext(getBundleContext()),
+                ConfigurationAdmin.INTERNAL_PID);
         try { // stabilize the system before taking a snapshot
           stabilize(stabilizeTimeout);
         } catch (InterruptedException e) { // propagate interruption
@@ -487,44 +493,133 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
   }
 
   private void restoreSnapshot() throws InterruptedException {
+    synchronized (ConfigurationAdmin.snapshotConfigs) {
+      final ConfigChangeLog log = getChangeLog();
+      final boolean all = log.allChanged();
+
+      if (!all) {
+        // changes made through config admin are logged synchronously; stabilize first so that
+        // changes still being made by components reacting to earlier ones are logged too
+        stabilize(stabilizeTimeout);
+      }
+      final Set<String> pids = log.pids();
+
+      if (!all && pids.isEmpty()) {
+        LOGGER.debug("No OSGi configurations changed; skipping restore");
+        return;
+      }
+      LOGGER.info("Restoring OSGi configurations");
+      LOGGER.debug("Restoring OSGi configuration changes recorded in {}", log);
+      try {
+        if (all) {
+          restoreAll(pids);
+        } else {
+          // copy as we might be adding the pids of recreated factory configs
+          new ArrayList<>(pids).forEach(pid -> restore(pid, pids));
+        }
+        // finally, make sure everything is stable before continuing
+        stabilize(stabilizeTimeout);
+      } catch (InterruptedException | RuntimeException e) {
+        log.invalidate();
+        throw e;
+      }
+      // the events for the config objects we restored have now been dispatched so we can clear them
+      log.clear(pids);
+    }
+  }
+
+  /**
+   * Restores all config objects by comparing all current ones against the snapshot.
+   *
+   * @param restored a set where to record the persistent ids of all restored config objects
+   */
+  private void restoreAll(Set<String> restored) {
     final Map<String, Configuration> currentConfigs =
         configurations().collect(Collectors.toMap(Configuration::getPid, Function.identity()));
 
-    LOGGER.info("Restoring OSGi configurations");
     // start by deleting config objects that shouldn't be there and updating those that changes
     currentConfigs.forEach(
         (pid, current) -> {
           final ConfigurationSnapshot snapshot = ConfigurationAdmin.snapshotConfigs.get(pid);
 
+          restored.add(pid);
           if (snapshot == null) {
             delete(current);
           } else {
-            update(current, snapshot.getBundleLocation(), current.getProperties(), "restore");
+            update(current, snapshot.getBundleLocation(), snapshot.getProperties(), "restore");
           }
         });
-    // recreate all configs that are no longer there
+    // recreate all configs that are no longer there (collected first since recreating factory
+    // configs will update the snapshot)
     ConfigurationAdmin.snapshotConfigs
-        .entrySet()
+        .values()
         .stream()
-        .filter(e -> !currentConfigs.containsKey(e.getKey()))
-        .forEach(this::recreate);
-    // finally, make sure everything is stable before continuing
-    stabilize(stabilizeTimeout);
+        .filter(c -> !currentConfigs.containsKey(c.getPid()))
+        .collect(Collectors.toList())
+        .forEach(c -> restored.add(recreate(c)));
+  }
+
+  /**
+   * Restores a single config object by comparing it against the snapshot.
+   *
+   * @param pid the persistent id of the config object to restore
+   * @param restored a set where to record the persistent ids of all restored config objects
+   */
+  private void restore(String pid, Set<String> restored) {
+    final ConfigurationSnapshot snapshot = ConfigurationAdmin.snapshotConfigs.get(pid);
+    final Configuration current = configuration(pid).orElse(null);
+
+    if (current != null) {
+      if (snapshot == null) {
+        delete(current);
+      } else {
+        update(current, snapshot.getBundleLocation(), snapshot.getProperties(), "restore");
+      }
+    } else if (snapshot != null) {
+      restored.add(recreate(snapshot));
+    }
+  }
+
+  /**
+   * Gets the change log to rely on when restoring the snapshot. If the log is no longer observing
+   * the config listener for the current bundle context, it is replaced with a new one which will
+   * force a full restore.
+   *
+   * @return the change log to use
+   */
+  private ConfigChangeLog getChangeLog() {
+    final InternalConfigListener listener = InternalConfigListener.forContext(getBundleContext());
+    ConfigChangeLog log = ConfigurationAdmin.changeLog;
+
+    if ((log == null) || !log.isTracking(listener)) {
+      LOGGER.debug("Config listener changed; replacing configuration change log");
+      if (log != null) {
+        log.close();
+      }
+      log = new ConfigChangeLog(listener, ConfigurationAdmin.INTERNAL_PID);
+      log.invalidate();
+      ConfigurationAdmin.changeLog = log;
+    }
+    return log;
   }
 
   // --- class and method annotations
 
   private void processClassAnnotations(Map<String, ToUpdate> toUpdate, Object target) {
-    // find class annotations only the first time around and cache them
+    final List<AnnotationEntry<?>> annotations;
+
+    // find class annotations only the first time around for a given test class and cache them
     synchronized (ConfigurationAdmin.class) {
-      if (ConfigurationAdmin.classAnnotations == null) {
+      if (ConfigurationAdmin.classAnnotationsFor != target.getClass()) {
         ConfigurationAdmin.classAnnotations =
             ReflectionUtils.annotationsByTypes(
                     target.getClass(), ConfigurationAdmin.META_ANNOTATIONS)
                 .collect(Collectors.toList());
+        ConfigurationAdmin.classAnnotationsFor = target.getClass();
       }
+      annotations = ConfigurationAdmin.classAnnotations;
     }
-    ConfigurationAdmin.classAnnotations.forEach(a -> processAnnotation(toUpdate, target, a));
+    annotations.forEach(a -> processAnnotation(toUpdate, target, a));
   }
 
   private void processMethodAnnotations(
@@ -978,9 +1073,18 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
     }
   }
 
-  private void recreate(Map.Entry<String, ConfigurationSnapshot> entry) {
-    final ConfigurationSnapshot snapshot = entry.getValue();
-    final String pid = entry.getKey();
+  /**
+   * Recreates a config object from the specified snapshot.
+   *
+   * <p><i>Note:</i> Since config admin generates a new persistent id whenever a factory config
+   * object is created, the snapshot will be updated to reference the recreated factory config
+   * object.
+   *
+   * @param snapshot the snapshot of the config object to recreate
+   * @return the persistent id of the recreated config object
+   */
+  private String recreate(ConfigurationSnapshot snapshot) {
+    final String pid = snapshot.getPid();
     final String fpid = snapshot.getFactoryPid();
     final String bundleLocation = snapshot.getBundleLocation();
     final Dictionary<String, Object> properties = snapshot.getProperties();
@@ -1010,6 +1114,13 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
             "failed to update properties for recreated configuration: " + pid, e);
       }
     }
+    if (fpid != null) {
+      final ConfigurationSnapshot recreated = new ConfigurationSnapshot(cfg);
+
+      ConfigurationAdmin.snapshotConfigs.remove(pid);
+      ConfigurationAdmin.snapshotConfigs.put(recreated.getPid(), recreated);
+    }
+    return cfg.getPid();
   }
 
   private void delete(Configuration cfg) {
@@ -1091,49 +1202,10 @@ public class ConfigurationAdmin extends InjectedService<org.osgi.service.cm.Conf
     }
   }
 
-  private static void stabilize0(long timeout) throws InterruptedException {
-    // TODO: we need to figure out a way to detect that config admin is done calling all registered
-    // listeners and those are done (like for Blueprint which creates a separate thread from the
-    // listener callback) processing the update
-    //    final long end = System.currentTimeMillis() + timeout;
-    //    int found = 0;
-    //
-    //    while ((found = ConfigurationAdmin.checkConfigurationAdminThreadGroup())
-    //        != ConfigurationAdmin.EXPECTED_THREADS) {
-    //      System.out.println(
-    //          "*** CONFIG ADMIN THREADS EXPECTED: "
-    //              + found
-    //              + "/"
-    //              + ConfigurationAdmin.EXPECTED_THREADS);
-    //      return;
-    //      final long remaining = end - System.currentTimeMillis();
-    //
-    //      if (remaining <= 0L) {
-    //        throw new ConfigTimeoutException(
-    //            "timed out waiting for config admin to stabilize ("
-    //                + found
-    //                + "/"
-    //                + ConfigurationAdmin.EXPECTED_THREADS
-    //                + ")");
-    //      }
-    //      Thread.sleep(Math.min(remaining, 1000L));
-    //      System.out.println("*** CONFIG ADMIN STABILIZING ***");
-    //    }
+  private void stabilize0(long timeout) throws InterruptedException {
+    new ConfigAdminStabilizer(getBundleContext()).stabilize(timeout);
   }
 
-  //  private static int checkConfigurationAdminThreadGroup() {
-  //    final int length = ConfigurationAdmin.threadGroup.activeCount();
-  //    // use a bigger array to make sure we get all in case it changes in between calls
-  //    final Thread[] threads = new Thread[length * 2];
-  //    final int found = ConfigurationAdmin.threadGroup.enumerate(threads, true);
-  //
-  //    System.out.println("*** CONFIG ADMIN THREADS FOUND: " + found);
-  //    Stream.of(threads)
-  //        .limit(found)
-  //        .forEach(t -> System.out.println("*** CONFIG ADMIN THREAD: " + t.getName()));
-  //    return found;
-  //  }
-
   private static boolean equals(Dictionary<String, Object> x, Dictionary<String, Object> y) {
     if (x.size() != y.size()) {
       return false;
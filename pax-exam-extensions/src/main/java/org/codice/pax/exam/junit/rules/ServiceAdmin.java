@@ -20,15 +20,24 @@ import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.EnumSet;
 import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -52,10 +61,14 @@ import org.codice.pax.exam.service.ServiceException;
 import org.codice.pax.exam.service.ServiceTimeoutException;
 import org.codice.pax.exam.service.internal.BundleProcessor;
 import org.codice.pax.exam.service.internal.BundleSnapshot;
+import org.codice.pax.exam.service.internal.BundleStateMonitor;
+import org.codice.pax.exam.service.internal.ChangeJournal;
 import org.codice.pax.exam.service.internal.FeatureProcessor;
 import org.codice.pax.exam.service.internal.FeatureSnapshot;
+import org.codice.pax.exam.service.internal.FeatureStateMonitor;
 import org.codice.pax.exam.service.internal.Profile;
 import org.codice.pax.exam.service.internal.RepositoryProcessor;
+import org.codice.pax.exam.service.internal.RestorePlanner;
 import org.codice.pax.exam.service.internal.SnapshotReport;
 import org.codice.pax.exam.service.internal.TaskList;
 import org.codice.test.commons.ReflectionUtils;
@@ -116,6 +129,20 @@ public class ServiceAdmin extends MethodRuleChain
           .put(Bundle.ACTIVE, "ACTIVE")
           .build();
 
+  /**
+   * Holds the maximum amount of time in milliseconds to wait for bundle or framework events before
+   * sweeping again through bundles that were not ready. This is required since not all state
+   * changes (e.g. Spring contexts) are reported via events.
+   */
+  private static final long FALLBACK_SWEEP_INTERVAL = 500L;
+
+  /**
+   * Holds the initial amount of time in milliseconds to wait for feature or deployment events
+   * before checking again the state of features. This delay is doubled each time no events are
+   * received up to {@link #FALLBACK_SWEEP_INTERVAL}.
+   */
+  private static final long INITIAL_FEATURE_CHECK_INTERVAL = 25L;
+
   private static final Predicate<FeatureState> FEATURE_IS_NOT_UNINSTALLED =
       ((Predicate<FeatureState>) (FeatureState.Uninstalled::equals)).negate();
 
@@ -134,10 +161,25 @@ public class ServiceAdmin extends MethodRuleChain
 
   private static Profile profile = null;
 
+  /** Journal of all changes made to the system since it was last known to match the snapshot. */
+  private static ChangeJournal journal = null;
+
+  /** The test class for which class annotations were last cached as containers can be reused. */
+  private static Class<?> classAnnotationsFor = null;
+
   private static List<AnnotationEntry<?>> classAnnotations = null;
 
   private final long stabilizeTimeout;
 
+  /** Scheduler used when waiting asynchronously for features during the current test. */
+  @Nullable private ScheduledExecutorService scheduler = null;
+
+  /** Executor used to complete asynchronous waits away from the scheduler's thread. */
+  @Nullable private ExecutorService completer = null;
+
+  /** Asynchronous waits still in progress which are cancelled once the current test completes. */
+  private final Set<CompletableFuture<?>> asyncWaits = ConcurrentHashMap.newKeySet();
+
   /**
    * Injects the features and bundle services and bundle context while waiting for each of them for
    * a default amount of time defined by the {@link
@@ -1269,42 +1311,49 @@ public class ServiceAdmin extends MethodRuleChain
    */
   public void waitForBundles(String prefix, long timeout) throws InterruptedException {
     final long end = System.currentTimeMillis() + timeout;
-    boolean ready = false;
-
-    while (!ready) {
-      ready = true;
-      for (final Bundle bundle : service(BundleContext.class).getBundles()) {
-        if (bundle.getSymbolicName().startsWith(prefix)) {
-          final String bundleName = bundle.getHeaders().get(Constants.BUNDLE_NAME);
-          final org.apache.karaf.bundle.core.BundleInfo bundleInfo =
-              service(BundleService.class).getInfo(bundle);
-          final BundleState bundleState = bundleInfo.getState();
-
-          if (bundleInfo.isFragment()) {
-            if (!BundleState.Resolved.equals(bundleState)) {
-              LOGGER.info("{} bundle not ready yet", bundleName);
-              ready = false;
-            }
-          } else if (bundleState != null) {
-            if (BundleState.Failure.equals(bundleState)) {
-              logInactiveBundles(LOGGER::error, LOGGER::error);
-              throw new ServiceException("bundle " + bundleName + " failed");
-            } else if (!BundleState.Active.equals(bundleState)) {
-              LOGGER.info("{} bundle not ready with state {}", bundleName, bundleState);
-              ready = false;
-            }
+    final BundleContext context = service(BundleContext.class);
+
+    // register for events before checking anything to make sure we do not miss any changes
+    try (final BundleStateMonitor monitor = new BundleStateMonitor(context)) {
+      Collection<Bundle> toCheck = Arrays.asList(context.getBundles());
+      boolean fullSweep = true;
+
+      while (true) {
+        final Set<Bundle> notReady =
+            toCheck
+                .stream()
+                .filter(b -> !isBundleReady(b, prefix))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        if (notReady.isEmpty()) {
+          if (fullSweep) {
+            return;
           }
+          // verify everything one last time with a full sweep before declaring victory
+          toCheck = Arrays.asList(context.getBundles());
+          fullSweep = true;
+          continue;
         }
-      }
-      if (!ready) {
-        if (System.currentTimeMillis() > end) {
+        final long remaining = end - System.currentTimeMillis();
+
+        if (remaining <= 0L) {
           logInactiveBundles(LOGGER::error, LOGGER::error);
           throw new ServiceTimeoutException(
               "timed out waiting for features and bundles to stabilize within "
                   + TimeUnit.MILLISECONDS.toSeconds(timeout)
                   + " seconds");
         }
-        Thread.sleep(1000L);
+        // wake up as soon as something changes or sweep again what wasn't ready if nothing does
+        monitor.await(Math.min(remaining, ServiceAdmin.FALLBACK_SWEEP_INTERVAL));
+        if (monitor.wasRefreshed()) {
+          monitor.drainChanges();
+          toCheck = Arrays.asList(context.getBundles());
+          fullSweep = true;
+        } else {
+          notReady.addAll(monitor.drainChanges());
+          toCheck = notReady;
+          fullSweep = false;
+        }
       }
     }
   }
@@ -1359,27 +1408,8 @@ public class ServiceAdmin extends MethodRuleChain
   public void waitForFeature(
       String name, String version, Predicate<FeatureState> predicate, long timeout)
       throws InterruptedException {
-    final long end = System.currentTimeMillis() + timeout;
-
-    while (true) {
-      final FeatureState state = getState(name + "/" + version);
-
-      if (predicate.test(state)) {
-        return;
-      }
-      if (System.currentTimeMillis() > end) {
-        logInactiveBundles(LOGGER::error, LOGGER::error);
-        throw new ServiceTimeoutException(
-            "timed out waiting for feature '"
-                + name
-                + "' to stabilize to state '"
-                + predicate
-                + "' within "
-                + TimeUnit.MILLISECONDS.toSeconds(timeout)
-                + " seconds");
-      }
-      Thread.sleep(1000L);
-    }
+    waitForFeatureStates(
+        Collections.singletonMap(name + "/" + version, name), predicate, timeout, "feature");
   }
 
   /**
@@ -1396,31 +1426,129 @@ public class ServiceAdmin extends MethodRuleChain
    */
   public void waitForFeatures(Set<String> names, Predicate<FeatureState> predicate, long timeout)
       throws InterruptedException {
-    final long end = System.currentTimeMillis() + timeout;
-    final Deque<Feature> toWaitFor =
-        names.stream().map(this::getFeature).collect(Collectors.toCollection(LinkedList::new));
+    waitForFeatureStates(
+        names
+            .stream()
+            .map(this::getFeature)
+            .collect(
+                Collectors.toMap(
+                    f -> f.getName() + "/" + f.getVersion(),
+                    Feature::getName,
+                    (n1, n2) -> n1,
+                    LinkedHashMap::new)),
+        predicate,
+        timeout,
+        "features");
+  }
+
+  /**
+   * Waits asynchronously a maximum of time for a specific feature to have it state matched the
+   * specified predicate and stabilize. This allows for multiple features to be waited for
+   * concurrently.
+   *
+   * @param name the name for the feature to check and wait for
+   * @param predicate the state predicate to wait for testing <code>true</code>
+   * @param timeout the maximum amount of time in milliseconds to wait for the specified feature to
+   *     stabilize
+   * @return a future which will be completed with the state of the feature once it matches the
+   *     specified predicate or exceptionally with a {@link ServiceTimeoutException} if we timed out
+   *     before the feature was able to stabilize to the specified state
+   */
+  public CompletableFuture<FeatureState> waitForFeatureAsync(
+      String name, Predicate<FeatureState> predicate, long timeout) {
+    final Feature feature = getFeature(name);
 
-    while (!toWaitFor.isEmpty()) {
-      final Feature feature = toWaitFor.peek();
-      final FeatureState state = getState(feature.getName() + "/" + feature.getVersion());
+    return waitForFeatureAsync(feature.getName(), feature.getVersion(), predicate, timeout);
+  }
 
-      if (predicate.test(state)) {
-        toWaitFor.pop();
-        continue;
-      }
-      if (System.currentTimeMillis() > end) {
-        logInactiveBundles(LOGGER::error, LOGGER::error);
-        throw new ServiceTimeoutException(
-            "timed out waiting for features '"
-                + toWaitFor.stream().map(Feature::getName).collect(Collectors.joining(", "))
-                + "' to stabilize to state '"
-                + predicate
-                + "' within "
-                + TimeUnit.MILLISECONDS.toSeconds(timeout)
-                + " seconds");
-      }
-      Thread.sleep(1000L);
-    }
+  /**
+   * Waits asynchronously a maximum of time for a specific feature to have it state matched the
+   * specified predicate and stabilize. This allows for multiple features to be waited for
+   * concurrently.
+   *
+   * @param name the name for the feature to check and wait for
+   * @param version the version for the feature to wait for
+   * @param predicate the state predicate to wait for testing <code>true</code>
+   * @param timeout the maximum amount of time in milliseconds to wait for the specified feature to
+   *     stabilize
+   * @return a future which will be completed with the state of the feature once it matches the
+   *     specified predicate or exceptionally with a {@link ServiceTimeoutException} if we timed out
+   *     before the feature was able to stabilize to the specified state (the future is cancelled if
+   *     still waiting when the test completes)
+   */
+  public CompletableFuture<FeatureState> waitForFeatureAsync(
+      String name, String version, Predicate<FeatureState> predicate, long timeout) {
+    final String id = name + "/" + version;
+    final FeaturesService features = service(FeaturesService.class);
+    final ScheduledExecutorService scheduler = scheduler();
+    final CompletableFuture<FeatureState> future = new CompletableFuture<>();
+    final Runnable check =
+        () -> {
+          if (!future.isDone()) {
+            try {
+              final FeatureState state = features.getState(id);
+
+              if (predicate.test(state)) {
+                future.complete(state);
+              }
+            } catch (RuntimeException e) {
+              future.completeExceptionally(e);
+            }
+          }
+        };
+    // never check from within the listener as Karaf might be holding internal locks while
+    // dispatching events
+    final FeatureStateMonitor monitor =
+        new FeatureStateMonitor(
+            features,
+            () -> {
+              try {
+                scheduler.execute(check);
+              } catch (RejectedExecutionException e) { // the test completed and the wait with it
+                LOGGER.debug("ignoring feature event for '{}' after the test completed", id, e);
+              }
+            });
+    final ScheduledFuture<?> poll =
+        scheduler.scheduleWithFixedDelay(
+            check, 0L, ServiceAdmin.FALLBACK_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    final ScheduledFuture<?> expiry =
+        scheduler.schedule(
+            () -> {
+              if (!future.isDone()) {
+                logInactiveBundles(LOGGER::error, LOGGER::error);
+                future.completeExceptionally(
+                    new ServiceTimeoutException(
+                        "timed out waiting for feature '"
+                            + name
+                            + "' to stabilize to state '"
+                            + predicate
+                            + "' within "
+                            + TimeUnit.MILLISECONDS.toSeconds(timeout)
+                            + " seconds"));
+              }
+            },
+            timeout,
+            TimeUnit.MILLISECONDS);
+
+    // clean up before completing the returned future away from the scheduler's thread such that
+    // continuations that block cannot stall other waits
+    final CompletableFuture<FeatureState> result =
+        future
+            .whenComplete(
+                (state, t) -> {
+                  poll.cancel(false);
+                  expiry.cancel(false);
+                  monitor.close();
+                })
+            .whenCompleteAsync((state, t) -> {}, completer());
+
+    asyncWaits.add(result);
+    result.whenComplete(
+        (state, t) -> {
+          asyncWaits.remove(result);
+          future.cancel(false); // propagate cancellation
+        });
+    return result;
   }
 
   /**
@@ -1477,6 +1605,7 @@ public class ServiceAdmin extends MethodRuleChain
           // proceed with the test method
           statement.evaluate();
         } finally {
+          closeScheduler(); // nothing can still be waiting once the test is done
           restoreSnapshot(ServiceAdmin.profile);
         }
       }
@@ -1495,6 +1624,9 @@ public class ServiceAdmin extends MethodRuleChain
           Thread.currentThread().interrupt();
         }
         LOGGER.info("Snapshoting Karaf repositories, features, and bundles");
+        // start journaling before snapshoting to make sure we do not miss anything
+        ServiceAdmin.journal =
+            new ChangeJournal(service(BundleContext.class), service(FeaturesService.class));
         ServiceAdmin.profile =
             new Profile(snapshotRepositories(), snapshotFeatures(), snapshotBundles());
       }
@@ -1503,25 +1635,48 @@ public class ServiceAdmin extends MethodRuleChain
 
   private void restoreSnapshot(Profile profile) throws InterruptedException {
     synchronized (ServiceAdmin.class) {
+      final ChangeJournal journal = getJournalFor(profile);
+
+      if (journal != null) {
+        if (journal.isEmpty()) {
+          LOGGER.debug("Nothing changed since the last restore; skipping");
+          return;
+        }
+        LOGGER.debug("Restoring Karaf changes recorded in {}", journal);
+      }
       if (!profile.shouldOnlyProcessSnapshot()) {
         LOGGER.info("Restoring Karaf repositories, features, and bundles");
       }
       final SnapshotReport report = new SnapshotReport();
 
-      for (int i = 1; i < ServiceAdmin.ATTEMPT_COUNT; i++) {
-        LOGGER.trace("restoring profile (attempt {} out of {})", i, ServiceAdmin.ATTEMPT_COUNT);
-        if (restoreSnapshot(profile, report.reset(false))) {
+      try {
+        if (shouldPlanRestore(journal)
+            && !new RestorePlanner(service(FeaturesService.class)).restore(profile, journal)) {
+          // the plan might have been partially applied so we cannot rely on the journal to tell
+          // us what changed; have the processors below verify everything instead
+          ServiceAdmin.invalidateJournal(journal);
+        }
+        for (int i = 1; i < ServiceAdmin.ATTEMPT_COUNT; i++) {
+          LOGGER.trace("restoring profile (attempt {} out of {})", i, ServiceAdmin.ATTEMPT_COUNT);
+          if (restoreSnapshot(profile, report.reset(false), journal)) {
+            // finally, make sure everything is stable before continuing
+            stabilize(stabilizeTimeout);
+            ServiceAdmin.clearJournal(journal);
+            return;
+          }
+        }
+        LOGGER.trace("verifying profile");
+        if (restoreSnapshot(profile, report.reset(true), journal)) {
           // finally, make sure everything is stable before continuing
           stabilize(stabilizeTimeout);
+          ServiceAdmin.clearJournal(journal);
           return;
         }
+      } catch (InterruptedException | RuntimeException e) {
+        ServiceAdmin.invalidateJournal(journal);
+        throw e;
       }
-      LOGGER.trace("verifying profile");
-      if (restoreSnapshot(profile, report.reset(true))) {
-        // finally, make sure everything is stable before continuing
-        stabilize(stabilizeTimeout);
-        return;
-      }
+      ServiceAdmin.invalidateJournal(journal);
       // if we get here then we had more tasks to execute after having tried so many times!!!
       if (!profile.shouldOnlyProcessSnapshot()) {
         throw new ServiceException("too many attempts to restore snapshot");
@@ -1530,19 +1685,118 @@ public class ServiceAdmin extends MethodRuleChain
     }
   }
 
+  /**
+   * Gets the change journal to rely on when restoring the specified profile.
+   *
+   * <p><i>Note:</i> The journal is only used when restoring the snapshot profile. If the journal is
+   * no longer tracking the current bundle context or features service, it is replaced with a new
+   * one which will force a full restore.
+   *
+   * @param profile the profile being restored
+   * @return the journal to use or <code>null</code> if everything should be processed
+   */
+  @Nullable
+  private ChangeJournal getJournalFor(Profile profile) {
+    if ((profile != ServiceAdmin.profile) || (ServiceAdmin.journal == null)) {
+      return null;
+    }
+    final BundleContext context = service(BundleContext.class);
+    final FeaturesService service = service(FeaturesService.class);
+
+    if (!ServiceAdmin.journal.isTracking(context, service)) {
+      LOGGER.debug("Karaf services changed; replacing change journal");
+      ServiceAdmin.journal.close();
+      ServiceAdmin.journal = new ChangeJournal(context, service);
+    }
+    return ServiceAdmin.journal;
+  }
+
+  /**
+   * Checks if repositories and features should first be restored using a single plan.
+   *
+   * @param journal the journal of changes to restore or <code>null</code> if everything should be
+   *     processed
+   * @return <code>true</code> if repositories or features might need to be restored; <code>false
+   *     </code> if only bundles were changed
+   */
+  private static boolean shouldPlanRestore(@Nullable ChangeJournal journal) {
+    return (journal == null)
+        || journal.allRepositoriesChanged()
+        || journal.allFeaturesChanged()
+        || !journal.repositories().isEmpty()
+        || !journal.features().isEmpty();
+  }
+
+  private static void clearJournal(@Nullable ChangeJournal journal) {
+    if (journal != null) {
+      journal.clear();
+    }
+  }
+
+  private static void invalidateJournal(@Nullable ChangeJournal journal) {
+    if (journal != null) {
+      journal.invalidate();
+    }
+  }
+
+  private synchronized ScheduledExecutorService scheduler() {
+    if (scheduler == null) {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                final Thread thread = new Thread(r, "ServiceAdmin Feature Waiter");
+
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return scheduler;
+  }
+
+  private synchronized ExecutorService completer() {
+    if (completer == null) {
+      this.completer =
+          Executors.newCachedThreadPool(
+              r -> {
+                final Thread thread = new Thread(r, "ServiceAdmin Feature Waiter Completion");
+
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return completer;
+  }
+
+  /** Cancels all asynchronous waits still in progress and shuts down their executors. */
+  private void closeScheduler() {
+    asyncWaits.forEach(f -> f.cancel(false));
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        this.scheduler = null;
+      }
+      if (completer != null) {
+        completer.shutdown(); // let continuations already running complete
+        this.completer = null;
+      }
+    }
+  }
+
   /**
    * Performs a restore attempt of the specified profile.
    *
    * @param profile the snapshot profile to restore from
    * @param report the snapshot report where to record errors errors
+   * @param journal the journal of changes to restore or <code>null</code> to process everything
    * @return <code>true</code> if the restore was successful and didn't need to perform any
    *     operations; <code>false</code> if we didn't fail but we had to perform some operations
    *     which typically would mean we need to retry
    * @throws ServiceException if a failure occurred preventing anymore attempts to be made
    */
-  private boolean restoreSnapshot(Profile profile, SnapshotReport report) {
-    if (restoreRepositories(profile, report) && restoreBundles(profile, report)) {
-      restoreFeatures(profile, report);
+  private boolean restoreSnapshot(
+      Profile profile, SnapshotReport report, @Nullable ChangeJournal journal) {
+    if (restoreRepositories(profile, report, journal) && restoreBundles(profile, report, journal)) {
+      restoreFeatures(profile, report, journal);
     }
     report.failIfErrorsWereRecorded();
     if (report.hasSuppressedErrors() || report.hasRecordedTasks()) {
@@ -1575,16 +1829,24 @@ public class ServiceAdmin extends MethodRuleChain
    *
    * @param profile the snapshot profile to restore from
    * @param report the report where to record errors
+   * @param journal the journal of changes to restore or <code>null</code> to process all
+   *     repositories
    * @return <code>true</code> if all were restored successfully; <code>false</code> otherwise
    */
-  private boolean restoreRepositories(Profile profile, SnapshotReport report) {
+  private boolean restoreRepositories(
+      Profile profile, SnapshotReport report, @Nullable ChangeJournal journal) {
     final TaskList tasks = new TaskList("repository", report);
     final RepositoryProcessor processor = new RepositoryProcessor(service(FeaturesService.class));
 
     // loop until we can determine that all repositories that should be installed or uninstalled are
     // or until we get an error or exceeds the max number of attempts
     while (true) {
-      processor.processRepositoriesAndPopulateTaskList(profile, tasks);
+      if ((journal == null) || journal.allRepositoriesChanged()) {
+        processor.processRepositoriesAndPopulateTaskList(profile, tasks);
+      } else {
+        processor.processChangedRepositoriesAndPopulateTaskList(
+            profile, journal.repositories(), tasks);
+      }
       if (tasks.isEmpty()) {
         LOGGER.trace("No (or no more) repositories to restore");
         return true;
@@ -1619,16 +1881,23 @@ public class ServiceAdmin extends MethodRuleChain
    *
    * @param profile the snapshot profile to restore from
    * @param report the report where to record errors
+   * @param journal the journal of changes to restore or <code>null</code> to process all features
    * @return <code>true</code> if all were restored successfully; <code>false</code> otherwise
    */
-  private boolean restoreFeatures(Profile profile, SnapshotReport report) {
+  private boolean restoreFeatures(
+      Profile profile, SnapshotReport report, @Nullable ChangeJournal journal) {
     final FeatureProcessor processor = new FeatureProcessor(service(FeaturesService.class));
     final TaskList tasks = new TaskList("feature", report);
 
     // loop until we can determine that all features that should be started, stopped, installed, or
     // uninstalled are or until we get an error or exceeds the max number of attempts
     while (true) {
-      processor.processFeaturesAndPopulateTaskList(profile, tasks);
+      if ((journal == null) || journal.allFeaturesChanged()) {
+        processor.processFeaturesAndPopulateTaskList(profile, tasks);
+      } else {
+        processor.processChangedFeaturesAndPopulateTaskList(
+            profile, journal.features().keySet(), tasks);
+      }
       if (tasks.isEmpty()) {
         LOGGER.trace("No (or no more) features to restore");
         return true;
@@ -1662,16 +1931,24 @@ public class ServiceAdmin extends MethodRuleChain
    *
    * @param profile the snapshot profile to restore from
    * @param report the report where to record errors
+   * @param journal the journal of changes to restore or <code>null</code> to process all bundles
    * @return <code>true</code> if all were restored successfully; <code>false</code> otherwise
    */
-  private boolean restoreBundles(Profile profile, SnapshotReport report) {
+  private boolean restoreBundles(
+      Profile profile, SnapshotReport report, @Nullable ChangeJournal journal) {
+    final BundleContext context = service(BundleContext.class);
     final BundleProcessor processor = new BundleProcessor();
     final TaskList tasks = new TaskList("bundle", report);
 
     // loop until we can determine that all bundles that should be started. stopped, installed, or
     // uninstalled are or until we get an error or exceeds the max number of attempts
     while (true) {
-      processor.processBundlesAndPopulateTaskList(service(BundleContext.class), profile, tasks);
+      if ((journal == null) || journal.allBundlesChanged()) {
+        processor.processBundlesAndPopulateTaskList(context, profile, tasks);
+      } else {
+        processor.processChangedBundlesAndPopulateTaskList(
+            context, profile, journal.bundles(), tasks);
+      }
       if (tasks.isEmpty()) {
         LOGGER.trace("No (or no more) bundles to restore");
         return true;
@@ -1686,15 +1963,19 @@ public class ServiceAdmin extends MethodRuleChain
   // --- class and method annotations
 
   private void processClassAnnotations(Profile toProcess, Object target) {
-    // find class annotations only the first time around and cache them
+    final List<AnnotationEntry<?>> annotations;
+
+    // find class annotations only the first time around for a given test class and cache them
     synchronized (ServiceAdmin.class) {
-      if (ServiceAdmin.classAnnotations == null) {
+      if (ServiceAdmin.classAnnotationsFor != target.getClass()) {
         ServiceAdmin.classAnnotations =
             ReflectionUtils.annotationsByTypes(target.getClass(), ServiceAdmin.META_ANNOTATIONS)
                 .collect(Collectors.toList());
+        ServiceAdmin.classAnnotationsFor = target.getClass();
       }
+      annotations = ServiceAdmin.classAnnotations;
     }
-    ServiceAdmin.classAnnotations.forEach(a -> processAnnotation(toProcess, target, a));
+    annotations.forEach(a -> processAnnotation(toProcess, target, a));
   }
 
   private void processMethodAnnotations(Profile toProcess, FrameworkMethod method, Object target) {
@@ -1744,6 +2025,76 @@ public class ServiceAdmin extends MethodRuleChain
         .orElse(null);
   }
 
+  private void waitForFeatureStates(
+      Map<String, String> ids, Predicate<FeatureState> predicate, long timeout, String what)
+      throws InterruptedException {
+    final long end = System.currentTimeMillis() + timeout;
+    final Map<String, String> toWaitFor = new LinkedHashMap<>(ids);
+    long interval = ServiceAdmin.INITIAL_FEATURE_CHECK_INTERVAL;
+
+    // register for events before checking anything to make sure we do not miss any changes
+    try (final FeatureStateMonitor monitor =
+        new FeatureStateMonitor(service(FeaturesService.class))) {
+      while (true) {
+        toWaitFor.keySet().removeIf(id -> predicate.test(getState(id)));
+        if (toWaitFor.isEmpty()) {
+          return;
+        }
+        final long remaining = end - System.currentTimeMillis();
+
+        if (remaining <= 0L) {
+          logInactiveBundles(LOGGER::error, LOGGER::error);
+          throw new ServiceTimeoutException(
+              "timed out waiting for "
+                  + what
+                  + " '"
+                  + String.join(", ", toWaitFor.values())
+                  + "' to stabilize to state '"
+                  + predicate
+                  + "' within "
+                  + TimeUnit.MILLISECONDS.toSeconds(timeout)
+                  + " seconds");
+        }
+        // wake up as soon as something changes or check again after a growing delay if nothing does
+        if (monitor.await(Math.min(remaining, interval))) {
+          interval = ServiceAdmin.INITIAL_FEATURE_CHECK_INTERVAL;
+        } else {
+          interval = Math.min(interval * 2L, ServiceAdmin.FALLBACK_SWEEP_INTERVAL);
+        }
+      }
+    }
+  }
+
+  private boolean isBundleReady(Bundle bundle, String prefix) {
+    final String symbolicName = bundle.getSymbolicName();
+
+    if ((bundle.getState() == Bundle.UNINSTALLED)
+        || (symbolicName == null)
+        || !symbolicName.startsWith(prefix)) {
+      return true;
+    }
+    final String bundleName = bundle.getHeaders().get(Constants.BUNDLE_NAME);
+    final org.apache.karaf.bundle.core.BundleInfo bundleInfo =
+        service(BundleService.class).getInfo(bundle);
+    final BundleState bundleState = bundleInfo.getState();
+
+    if (bundleInfo.isFragment()) {
+      if (!BundleState.Resolved.equals(bundleState)) {
+        LOGGER.info("{} bundle not ready yet", bundleName);
+        return false;
+      }
+    } else if (bundleState != null) {
+      if (BundleState.Failure.equals(bundleState)) {
+        logInactiveBundles(LOGGER::error, LOGGER::error);
+        throw new ServiceException("bundle " + bundleName + " failed");
+      } else if (!BundleState.Active.equals(bundleState)) {
+        LOGGER.info("{} bundle not ready with state {}", bundleName, bundleState);
+        return false;
+      }
+    }
+    return true;
+  }
+
   private void logInactiveBundles(
       Consumer<String> headerConsumer, BiConsumer<String, Object[]> logConsumer) {
     headerConsumer.accept("Listing inactive bundles");
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.codice.pax.exam.service.ServiceException;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes lifecycle operations (e.g. start or stop) on a set of bundles concurrently while
+ * respecting their start levels and the dependencies between them.
+ *
+ * <p>Bundles are processed one start level at a time (in increasing order when starting and in
+ * decreasing order when stopping). Within a given start level, a bundle is only processed once all
+ * bundles from the same set it is wired to have been processed. When starting, these are the
+ * bundles providing capabilities to it and when stopping, these are the bundles requiring
+ * capabilities from it. Independent bundles are processed concurrently using a bounded pool of
+ * threads such that blocking activators do not serialize everything else.
+ */
+public class BundleLifecycleExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(BundleLifecycleExecutor.class);
+
+  /** Maximum number of bundles to process concurrently. */
+  private static final int MAX_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final BundleContext context;
+
+  /**
+   * Constructs a new bundle lifecycle executor.
+   *
+   * @param context the bundle context to use for retrieving the framework wiring
+   */
+  public BundleLifecycleExecutor(BundleContext context) {
+    this.context = context;
+  }
+
+  /**
+   * Starts the specified bundles using the provided task.
+   *
+   * @param bundles the bundles to start
+   * @param task the task to execute in order to start a given bundle which returns <code>true
+   *     </code> if it was successful and <code>false</code> if not
+   * @return <code>true</code> if all bundles were started successfully; <code>false</code>
+   *     otherwise
+   */
+  public boolean start(Collection<Bundle> bundles, Predicate<Bundle> task) {
+    if (bundles.size() > 1) {
+      resolve(bundles); // so we can figure out dependencies before starting
+    }
+    return execute(bundles, false, task);
+  }
+
+  /**
+   * Stops the specified bundles using the provided task.
+   *
+   * @param bundles the bundles to stop
+   * @param task the task to execute in order to stop a given bundle which returns <code>true
+   *     </code> if it was successful and <code>false</code> if not
+   * @return <code>true</code> if all bundles were stopped successfully; <code>false</code>
+   *     otherwise
+   */
+  public boolean stop(Collection<Bundle> bundles, Predicate<Bundle> task) {
+    return execute(bundles, true, task);
+  }
+
+  private boolean execute(Collection<Bundle> bundles, boolean reverse, Predicate<Bundle> task) {
+    if (bundles.size() <= 1) { // nothing to parallelize
+      return bundles.stream().map(task::test).reduce(true, (a, b) -> a && b);
+    }
+    final NavigableMap<Integer, List<Bundle>> levels =
+        bundles
+            .stream()
+            .collect(
+                Collectors.groupingBy(
+                    BundleLifecycleExecutor::getStartLevel, TreeMap::new, Collectors.toList()));
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(BundleLifecycleExecutor.MAX_THREADS, bundles.size()),
+            r -> {
+              final Thread thread =
+                  new Thread(
+                      r,
+                      "ServiceAdmin Bundle Lifecycle-"
+                          + BundleLifecycleExecutor.THREAD_COUNT.incrementAndGet());
+
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    try {
+      boolean result = true; // until proven otherwise
+
+      for (final List<Bundle> level :
+          (reverse ? levels.descendingMap() : levels).values()) { // one start level at a time
+        result &= execute(level, reverse, task, executor);
+      }
+      return result;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private boolean execute(
+      List<Bundle> bundles, boolean reverse, Predicate<Bundle> task, ExecutorService executor) {
+    final Map<Bundle, Set<Bundle>> prerequisites = getPrerequisites(bundles, reverse);
+    final Map<Bundle, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+
+    bundles.forEach(b -> schedule(b, prerequisites, task, executor, futures, new HashSet<>()));
+    boolean result = true; // until proven otherwise
+
+    for (final CompletableFuture<Boolean> future : futures.values()) {
+      try {
+        result &= future.join();
+      } catch (CompletionException e) {
+        final Throwable t = e.getCause();
+
+        if (t instanceof RuntimeException) {
+          throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+          throw (Error) t;
+        }
+        throw new ServiceException(t);
+      }
+    }
+    return result;
+  }
+
+  private CompletableFuture<Boolean> schedule(
+      Bundle bundle,
+      Map<Bundle, Set<Bundle>> prerequisites,
+      Predicate<Bundle> task,
+      ExecutorService executor,
+      Map<Bundle, CompletableFuture<Boolean>> futures,
+      Set<Bundle> visiting) {
+    final CompletableFuture<Boolean> scheduled = futures.get(bundle);
+
+    if (scheduled != null) {
+      return scheduled;
+    } else if (!visiting.add(bundle)) { // cycle detected so don't wait for this one
+      return CompletableFuture.completedFuture(true);
+    }
+    final CompletableFuture<?>[] waitFor =
+        prerequisites
+            .get(bundle)
+            .stream()
+            .map(b -> schedule(b, prerequisites, task, executor, futures, visiting))
+            .toArray(CompletableFuture[]::new);
+
+    visiting.remove(bundle);
+    // still process the bundle even if one of its prerequisites failed as we used to when
+    // processing them in sequence
+    final CompletableFuture<Boolean> future =
+        CompletableFuture.allOf(waitFor)
+            .handle((v, t) -> null)
+            .thenApplyAsync(v -> task.test(bundle), executor);
+
+    futures.put(bundle, future);
+    return future;
+  }
+
+  /**
+   * Gets the bundles from the same set which must be processed before each bundle.
+   *
+   * @param bundles the set of bundles to process
+   * @param reverse <code>false</code> if bundles providing capabilities should be processed first;
+   *     <code>true</code> if bundles requiring capabilities should be processed first
+   * @return the corresponding prerequisites for each bundle
+   */
+  private static Map<Bundle, Set<Bundle>> getPrerequisites(
+      Collection<Bundle> bundles, boolean reverse) {
+    final Map<Bundle, Set<Bundle>> prerequisites = new HashMap<>();
+
+    bundles.forEach(b -> prerequisites.put(b, new LinkedHashSet<>()));
+    for (final Bundle bundle : bundles) {
+      final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+      final List<BundleWire> wires = (wiring != null) ? wiring.getRequiredWires(null) : null;
+
+      if (wires == null) { // not resolved so no dependencies
+        continue;
+      }
+      for (final BundleWire wire : wires) {
+        final Bundle provider = wire.getProviderWiring().getBundle();
+
+        if (!provider.equals(bundle) && prerequisites.containsKey(provider)) {
+          if (reverse) {
+            prerequisites.get(provider).add(bundle);
+          } else {
+            prerequisites.get(bundle).add(provider);
+          }
+        }
+      }
+    }
+    return prerequisites;
+  }
+
+  private void resolve(Collection<Bundle> bundles) {
+    final Bundle system = context.getBundle(0L);
+    final FrameworkWiring wiring = (system != null) ? system.adapt(FrameworkWiring.class) : null;
+
+    if (wiring == null) {
+      return;
+    }
+    try {
+      wiring.resolveBundles(bundles);
+    } catch (IllegalArgumentException e) { // one of the bundles is no longer valid
+      LOGGER.debug("failed to resolve bundles before starting them", e);
+    }
+  }
+
+  private static int getStartLevel(Bundle bundle) {
+    final BundleStartLevel level = bundle.adapt(BundleStartLevel.class);
+
+    try {
+      return (level != null) ? level.getStartLevel() : 0;
+    } catch (IllegalArgumentException e) { // bundle was uninstalled
+      return 0;
+    }
+  }
+}
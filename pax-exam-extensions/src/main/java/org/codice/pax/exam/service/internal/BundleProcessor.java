@@ -13,6 +13,8 @@
  */
 package org.codice.pax.exam.service.internal;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -119,6 +121,34 @@ public class BundleProcessor {
     return run(report, bundle, Operation.STOP, bundle::stop);
   }
 
+  /**
+   * Starts the specified bundles concurrently while respecting their start levels and dependencies.
+   *
+   * @param context the bundle context to use for managing bundles
+   * @param report the report where to record errors if unable to start the bundles
+   * @param bundles the bundles to start
+   * @return <code>true</code> if all bundles were started successfully; <code>false</code>
+   *     otherwise
+   */
+  public boolean startBundles(
+      BundleContext context, SnapshotReport report, Collection<Bundle> bundles) {
+    return new BundleLifecycleExecutor(context).start(bundles, b -> startBundle(report, b));
+  }
+
+  /**
+   * Stops the specified bundles concurrently while respecting their start levels and dependencies.
+   *
+   * @param context the bundle context to use for managing bundles
+   * @param report the report where to record errors if unable to stop the bundles
+   * @param bundles the bundles to stop
+   * @return <code>true</code> if all bundles were stopped successfully; <code>false</code>
+   *     otherwise
+   */
+  public boolean stopBundles(
+      BundleContext context, SnapshotReport report, Collection<Bundle> bundles) {
+    return new BundleLifecycleExecutor(context).stop(bundles, b -> stopBundle(report, b));
+  }
+
   /**
    * Processes bundles by recording tasks to start, stop, install, or uninstall bundles that were
    * originally in the corresponding state.
@@ -166,6 +196,42 @@ public class BundleProcessor {
     return bundles;
   }
 
+  /**
+   * Processes only the specified bundles which were reported as changed by recording tasks to
+   * start, stop, install, or uninstall those that were originally in the corresponding state.
+   * Changed bundles which were not recorded in the snapshot will be uninstalled.
+   *
+   * @param context the bundle context to use for managing bundles
+   * @param profile the profile where to retrieve the set of bundles from the snapshot
+   * @param changed the bundles that were changed
+   * @param tasks the task list where to record tasks to be executed
+   */
+  public void processChangedBundlesAndPopulateTaskList(
+      BundleContext context, Profile profile, Collection<Bundle> changed, TaskList tasks) {
+    LOGGER.trace("Processing changed bundles");
+    final Map<String, Bundle> bundles = new LinkedHashMap<>();
+
+    // a bundle might have been uninstalled and re-installed in which case we want the latter
+    changed.forEach(
+        b ->
+            bundles.merge(
+                BundleSnapshot.getFullName(b),
+                b,
+                (o, n) -> (n.getState() != Bundle.UNINSTALLED) ? n : o));
+    bundles.forEach(
+        (name, bundle) -> {
+          final BundleSnapshot snapshotBundle = profile.getBundle(name);
+          // an uninstalled bundle is no longer known to the framework and is therefore missing
+          final Bundle current = (bundle.getState() != Bundle.UNINSTALLED) ? bundle : null;
+
+          if (snapshotBundle != null) {
+            processBundleAndPopulateTaskList(context, snapshotBundle, current, tasks);
+          } else if ((current != null) && !profile.shouldOnlyProcessSnapshot()) {
+            processUninstalledBundleAndPopulateTaskList(current, tasks);
+          }
+        });
+  }
+
   /**
    * Processes bundles that were left over after having dealt with what was snapshot. The
    * implementation will try to uninstall all of them.
@@ -286,7 +352,7 @@ public class BundleProcessor {
       // we need to first install it and on the next round, start it
       tasks.add(Operation.INSTALL, name, r -> installBundle(context, r, bundle));
     } else if (state != BundleSnapshot.SimpleState.ACTIVE) {
-      tasks.add(Operation.START, name, r -> startBundle(r, bundle));
+      addCompoundTaskFor(Operation.START, context, name, bundle, tasks);
     }
   }
 
@@ -308,10 +374,23 @@ public class BundleProcessor {
     if (state == BundleSnapshot.SimpleState.UNINSTALLED) {
       tasks.add(Operation.INSTALL, name, r -> installBundle(context, r, bundle));
     } else if (state == BundleSnapshot.SimpleState.ACTIVE) {
-      tasks.add(Operation.STOP, name, r -> stopBundle(r, bundle));
+      addCompoundTaskFor(Operation.STOP, context, name, bundle, tasks);
     }
   }
 
+  private void addCompoundTaskFor(
+      Operation operation, BundleContext context, String name, Bundle bundle, TaskList tasks) {
+    tasks
+        .addIfAbsent(
+            operation,
+            LinkedHashMap<String, Bundle>::new,
+            (bundles, r) ->
+                (operation == Operation.START)
+                    ? startBundles(context, r, bundles.values())
+                    : stopBundles(context, r, bundles.values()))
+        .add(name, bundles -> bundles.put(name, bundle));
+  }
+
   private boolean run(
       SnapshotReport report,
       Bundle bundle,
@@ -331,24 +410,30 @@ public class BundleProcessor {
       String state,
       Operation operation,
       ThrowingRunnable<BundleException> task) {
-    final String attempt = report.getBundleAttemptString(operation, name);
+    final String attempt;
+
+    synchronized (report) { // bundles might be processed concurrently
+      attempt = report.getBundleAttemptString(operation, name);
+    }
     final String operating = operation.getOperatingName();
 
     LOGGER.info("{} Karaf bundle '{}'{}", operating, name, attempt);
     try {
       task.run();
     } catch (IllegalStateException | BundleException | SecurityException e) {
-      report.recordOnFinalAttempt(
-          new ServiceException(
-              "Reset error: failed to "
-                  + operation.name().toLowerCase()
-                  + " bundle ["
-                  + name
-                  + "] from state ["
-                  + state
-                  + "]; "
-                  + e.getMessage(),
-              e));
+      synchronized (report) {
+        report.recordOnFinalAttempt(
+            new ServiceException(
+                "Reset error: failed to "
+                    + operation.name().toLowerCase()
+                    + " bundle ["
+                    + name
+                    + "] from state ["
+                    + state
+                    + "]; "
+                    + e.getMessage(),
+                e));
+      }
       return false;
     }
     return true;
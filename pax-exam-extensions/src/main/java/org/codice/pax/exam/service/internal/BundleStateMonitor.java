@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors bundle and framework events in order to wake up anyone waiting for bundles to stabilize
+ * as soon as something changes instead of having them poll the whole system at regular intervals.
+ *
+ * <p>Blueprint containers do not report their state changes via bundle events since the bundle is
+ * already active by the time its container gets created. In order to still be notified as soon as
+ * possible when a container completes, service events for blueprint containers are also monitored.
+ *
+ * <p><i>Note:</i> Listeners are registered when this monitor is created and must be unregistered by
+ * calling {@link #close()}.
+ */
+public class BundleStateMonitor implements BundleListener, FrameworkListener, AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(BundleStateMonitor.class);
+
+  private static final String BLUEPRINT_CONTAINER_FILTER =
+      "(objectClass=org.osgi.service.blueprint.container.BlueprintContainer)";
+
+  private final BundleContext context;
+
+  private final ServiceListener serviceListener = this::serviceChanged;
+
+  /** Holds all bundles for which an event was received since the last time they were drained. */
+  private final Set<Bundle> changed = new LinkedHashSet<>();
+
+  /** Tracks whether the framework was refreshed since the last time changes were drained. */
+  private boolean refreshed = false;
+
+  /** Tracks whether at least one event was received since the last time changes were drained. */
+  private boolean notified = false;
+
+  /**
+   * Creates a new monitor and registers it with the specified bundle context.
+   *
+   * @param context the bundle context to register listeners with
+   */
+  public BundleStateMonitor(BundleContext context) {
+    this.context = context;
+    context.addBundleListener(this);
+    context.addFrameworkListener(this);
+    try {
+      context.addServiceListener(serviceListener, BundleStateMonitor.BLUEPRINT_CONTAINER_FILTER);
+    } catch (InvalidSyntaxException e) { // should not happen as we are hardcoding the filter
+      LOGGER.debug("failed to monitor blueprint containers", e);
+    }
+  }
+
+  @Override
+  public void bundleChanged(BundleEvent event) {
+    record(event.getBundle());
+  }
+
+  @Override
+  public void frameworkEvent(FrameworkEvent event) {
+    switch (event.getType()) {
+      case FrameworkEvent.PACKAGES_REFRESHED:
+      case FrameworkEvent.STARTLEVEL_CHANGED:
+      case FrameworkEvent.ERROR:
+        synchronized (this) {
+          // everything could have been affected so everything will need to be re-checked
+          this.refreshed = true;
+          this.notified = true;
+          notifyAll();
+        }
+        break;
+      default: // ignore the others
+        break;
+    }
+  }
+
+  /**
+   * Waits for the specified amount of time for an event to be received unless one was already
+   * received since the last time changes were drained.
+   *
+   * @param timeout the maximum amount of time in milliseconds to wait for an event
+   * @return <code>true</code> if an event was received; <code>false</code> if we timed out
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   */
+  public boolean await(long timeout) throws InterruptedException {
+    synchronized (this) {
+      if (!notified && (timeout > 0L)) {
+        wait(timeout);
+      }
+      return notified;
+    }
+  }
+
+  /**
+   * Checks if the framework was refreshed since the last time changes were drained in which case
+   * all bundles should be re-checked.
+   *
+   * @return <code>true</code> if the framework was refreshed; <code>false</code> otherwise
+   */
+  public boolean wasRefreshed() {
+    synchronized (this) {
+      return refreshed;
+    }
+  }
+
+  /**
+   * Retrieves and clears all bundles for which events were received since the last time this method
+   * was called.
+   *
+   * @return the set of bundles for which events were received
+   */
+  public Set<Bundle> drainChanges() {
+    synchronized (this) {
+      final Set<Bundle> bundles = new LinkedHashSet<>(changed);
+
+      changed.clear();
+      this.refreshed = false;
+      this.notified = false;
+      return bundles;
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      context.removeServiceListener(serviceListener);
+      context.removeFrameworkListener(this);
+      context.removeBundleListener(this);
+    } catch (IllegalStateException e) { // bundle context is no longer valid so nothing to remove
+      LOGGER.debug("failed to unregister bundle state listeners", e);
+    }
+  }
+
+  private void serviceChanged(ServiceEvent event) {
+    record(event.getServiceReference().getBundle());
+  }
+
+  private void record(@Nullable Bundle bundle) {
+    synchronized (this) {
+      if (bundle != null) {
+        changed.add(bundle);
+      }
+      this.notified = true;
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal;
+
+import java.net.URI;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.karaf.features.Dependency;
+import org.apache.karaf.features.DeploymentEvent;
+import org.apache.karaf.features.DeploymentListener;
+import org.apache.karaf.features.Feature;
+import org.apache.karaf.features.FeatureEvent;
+import org.apache.karaf.features.FeaturesListener;
+import org.apache.karaf.features.FeaturesService;
+import org.apache.karaf.features.RepositoryEvent;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of all repositories, features, and bundles that were changed since the last time the
+ * system was known to match the snapshot. This allows a restore to only visit what actually changed
+ * instead of re-listing and comparing everything installed in memory.
+ *
+ * <p>Bundle events are received synchronously to make sure that all changes made by a test are
+ * recorded by the time the test completes. The features touched by a deployment are the ones for
+ * which feature events were received between the start and the end of the deployment along with
+ * all their transitive dependencies. Karaf does not report feature state changes (e.g. resolved to
+ * started) via feature events and a deployment may change the state of an already installed
+ * dependency while installing the feature that requires it. As such, a deployment which does not
+ * report any feature events (or which never reports it finished or whose dependencies cannot be
+ * resolved) will mark all features as changed which forces features to be fully processed on the
+ * next restore.
+ *
+ * <p><i>Note:</i> A journal starts invalidated, meaning that everything is considered changed,
+ * until {@link #clear()} is called to indicate that the system is known to match the snapshot.
+ */
+public class ChangeJournal
+    implements FeaturesListener, DeploymentListener, SynchronousBundleListener {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChangeJournal.class);
+
+  private final BundleContext context;
+
+  private final FeaturesService service;
+
+  private final Set<URI> repositories = new LinkedHashSet<>();
+
+  /** Holds the ids of all changed features mapped to the region they were changed in. */
+  private final Map<String, String> features = new LinkedHashMap<>();
+
+  private final Map<Long, Bundle> bundles = new LinkedHashMap<>();
+
+  private boolean allRepositories = true;
+
+  private boolean allFeatures = true;
+
+  private boolean allBundles = true;
+
+  /** Whether or not a deployment was started and has not yet finished. */
+  private boolean deploying = false;
+
+  /**
+   * Holds all features for which events were received since the current deployment started mapped
+   * to the region they were changed in.
+   */
+  private final Map<Feature, String> deployedFeatures = new LinkedHashMap<>();
+
+  /**
+   * Creates a new change journal and registers it with the specified bundle context and features
+   * service.
+   *
+   * @param context the bundle context to register with
+   * @param service the features service to register with
+   */
+  public ChangeJournal(BundleContext context, FeaturesService service) {
+    this.context = context;
+    this.service = service;
+    context.addBundleListener(this);
+    service.registerListener((FeaturesListener) this);
+    service.registerListener((DeploymentListener) this);
+  }
+
+  /**
+   * Checks if this journal was registered with the specified bundle context and features service
+   * and can therefore be relied upon to track changes made through them.
+   *
+   * @param context the current bundle context
+   * @param service the current features service
+   * @return <code>true</code> if this journal is tracking changes for the specified context and
+   *     service; <code>false</code> otherwise
+   */
+  public boolean isTracking(BundleContext context, FeaturesService service) {
+    return (this.context == context) && (this.service == service);
+  }
+
+  @Override
+  public void featureEvent(FeatureEvent event) {
+    if (!event.isReplay()) {
+      synchronized (this) {
+        features.put(event.getFeature().getId(), event.getRegion());
+        deployedFeatures.put(event.getFeature(), event.getRegion());
+      }
+    }
+  }
+
+  @Override
+  public void repositoryEvent(RepositoryEvent event) {
+    if (!event.isReplay()) {
+      synchronized (this) {
+        repositories.add(event.getRepository().getURI());
+      }
+    }
+  }
+
+  @Override
+  public void deploymentEvent(DeploymentEvent event) {
+    if (event == DeploymentEvent.DEPLOYMENT_STARTED) {
+      synchronized (this) {
+        if (deploying) { // the previous deployment never finished so we cannot tell what it did
+          this.allFeatures = true;
+        }
+        this.deploying = true;
+        deployedFeatures.clear();
+      }
+    } else if (event == DeploymentEvent.DEPLOYMENT_FINISHED) {
+      final Map<Feature, String> deployed;
+
+      synchronized (this) {
+        deployed = new LinkedHashMap<>(deployedFeatures);
+        deployedFeatures.clear();
+      }
+      // resolve dependencies without holding the journal lock while calling the features service
+      final Map<String, String> dependencies = dependenciesOf(deployed);
+
+      synchronized (this) {
+        if (dependencies == null) { // cannot tell which feature states were changed
+          this.allFeatures = true;
+        } else {
+          dependencies.forEach(features::putIfAbsent);
+        }
+        this.deploying = false;
+      }
+    }
+  }
+
+  @Override
+  public void bundleChanged(BundleEvent event) {
+    final Bundle bundle = event.getBundle();
+
+    synchronized (this) {
+      bundles.put(bundle.getBundleId(), bundle);
+    }
+  }
+
+  /**
+   * Checks if nothing changed since the last time this journal was cleared.
+   *
+   * @return <code>true</code> if nothing changed; <code>false</code> otherwise
+   */
+  public synchronized boolean isEmpty() {
+    return !allRepositories
+        && !allFeaturesChanged()
+        && !allBundles
+        && repositories.isEmpty()
+        && features.isEmpty()
+        && bundles.isEmpty();
+  }
+
+  /**
+   * Checks if all repositories should be considered changed.
+   *
+   * @return <code>true</code> if all repositories should be processed; <code>false</code> if only
+   *     those reported by {@link #repositories()} should be
+   */
+  public synchronized boolean allRepositoriesChanged() {
+    return allRepositories;
+  }
+
+  /**
+   * Checks if all features should be considered changed. This is also the case while a deployment
+   * is in progress since we cannot yet tell which features it will touch.
+   *
+   * @return <code>true</code> if all features should be processed; <code>false</code> if only those
+   *     reported by {@link #features()} should be
+   */
+  public synchronized boolean allFeaturesChanged() {
+    return allFeatures || deploying;
+  }
+
+  /**
+   * Checks if all bundles should be considered changed.
+   *
+   * @return <code>true</code> if all bundles should be processed; <code>false</code> if only those
+   *     reported by {@link #bundles()} should be
+   */
+  public synchronized boolean allBundlesChanged() {
+    return allBundles;
+  }
+
+  /**
+   * Gets the URIs of all repositories that were added or removed.
+   *
+   * @return a copy of the set of changed repository URIs
+   */
+  public synchronized Set<URI> repositories() {
+    return new LinkedHashSet<>(repositories);
+  }
+
+  /**
+   * Gets the ids of all features that were installed or uninstalled mapped to the region they were
+   * changed in.
+   *
+   * @return a copy of the map of changed feature ids
+   */
+  public synchronized Map<String, String> features() {
+    return new LinkedHashMap<>(features);
+  }
+
+  /**
+   * Gets all bundles that were changed.
+   *
+   * @return a copy of the set of changed bundles
+   */
+  public synchronized Set<Bundle> bundles() {
+    return new LinkedHashSet<>(bundles.values());
+  }
+
+  /**
+   * Marks everything as changed. This should be called whenever the state of the system can no
+   * longer be determined from this journal (e.g. after a failed restore).
+   */
+  public synchronized void invalidate() {
+    LOGGER.debug("Invalidating change journal");
+    this.allRepositories = true;
+    this.allFeatures = true;
+    this.allBundles = true;
+  }
+
+  /** Clears this journal to indicate the system is now known to match the snapshot. */
+  public synchronized void clear() {
+    LOGGER.trace(
+        "Clearing change journal: repositories{} features{} bundles{}",
+        allRepositories ? "[*]" : repositories,
+        allFeaturesChanged() ? "[*]" : features.keySet(),
+        allBundles ? "[*]" : bundles.keySet());
+    repositories.clear();
+    features.clear();
+    bundles.clear();
+    deployedFeatures.clear();
+    this.allRepositories = false;
+    this.allFeatures = false;
+    this.allBundles = false;
+    this.deploying = false;
+  }
+
+  /** Unregisters this journal from the bundle context and features service. */
+  public void close() {
+    try {
+      service.unregisterListener((DeploymentListener) this);
+      service.unregisterListener((FeaturesListener) this);
+      context.removeBundleListener(this);
+    } catch (IllegalStateException e) { // bundle context is no longer valid so nothing to remove
+      LOGGER.debug("failed to unregister change journal", e);
+    }
+  }
+
+  /**
+   * Resolves the ids of all transitive dependencies of the specified features since a deployment
+   * can start or stop an already installed dependency without reporting it.
+   *
+   * @param deployed the features for which events were reported mapped to their regions
+   * @return the ids of all their transitive dependencies mapped to the region of the feature that
+   *     required them or <code>null</code> if no features were reported or if the dependencies
+   *     could not be resolved
+   */
+  @Nullable
+  private Map<String, String> dependenciesOf(Map<Feature, String> deployed) {
+    if (deployed.isEmpty()) {
+      return null;
+    }
+    final Map<String, String> dependencies = new LinkedHashMap<>();
+    final Deque<Map.Entry<Feature, String>> toVisit = new ArrayDeque<>(deployed.entrySet());
+    final Set<String> visited = new LinkedHashSet<>();
+
+    try {
+      while (!toVisit.isEmpty()) {
+        final Map.Entry<Feature, String> entry = toVisit.pop();
+
+        if (visited.add(entry.getKey().getId())) {
+          for (final Dependency dependency : entry.getKey().getDependencies()) {
+            final Feature[] resolved = service.getFeatures(dependency.getName());
+
+            if (resolved == null) {
+              continue;
+            }
+            for (final Feature feature : resolved) {
+              dependencies.putIfAbsent(feature.getId(), entry.getValue());
+              toVisit.push(new SimpleImmutableEntry<>(feature, entry.getValue()));
+            }
+          }
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.debug("failed to resolve dependencies of deployed features {}", deployed.keySet(), e);
+      return null;
+    }
+    return dependencies;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ChangeJournal[repositories="
+        + (allRepositories ? "*" : repositories)
+        + ", features="
+        + (allFeaturesChanged() ? "*" : features.keySet())
+        + ", bundles="
+        + (allBundles ? "*" : bundles.keySet())
+        + "]";
+  }
+}
@@ -14,6 +14,7 @@
 package org.codice.pax.exam.service.internal;
 
 import com.google.common.collect.ImmutableMap;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -22,6 +23,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -87,6 +89,28 @@ public class FeatureProcessor {
     }
   }
 
+  /**
+   * Gets an available feature from memory.
+   *
+   * @param id the id of the feature to retrieve (i.e. name/version)
+   * @param operation the operation for which we are retrieving the feature
+   * @return the corresponding feature or <code>null</code> if it is not available
+   * @throws ServiceException if an error occurs while retrieving the feature from memory
+   */
+  @Nullable
+  public Feature getFeature(String id, String operation) {
+    final int i = id.indexOf('/');
+
+    try {
+      return (i == -1)
+          ? service.getFeature(id)
+          : service.getFeature(id.substring(0, i), id.substring(i + 1));
+    } catch (Exception e) {
+      throw new ServiceException(
+          operation + " error: failed to retrieve feature [" + id + "]; " + e.getMessage(), e);
+    }
+  }
+
   /**
    * Installs the specified set of features.
    *
@@ -229,41 +253,33 @@ public class FeatureProcessor {
   }
 
   /**
-   * Starts the specified feature.
+   * Starts the specified set of features.
    *
-   * @param report the report where to record errors if unable to start the feature
-   * @param feature the feature to start
-   * @param region the region where the feature resides
-   * @return <code>true</code> if the feature was started successfully; <code>false</code> otherwise
+   * <p><i>Note:</i> All features are started using a single deployment regardless of the region
+   * they reside in.
+   *
+   * @param report the report where to record errors if unable to start the features
+   * @param features the features to start keyed by the region where they reside
+   * @return <code>true</code> if the features were started successfully; <code>false</code>
+   *     otherwise
    */
-  public boolean startFeature(SnapshotReport report, Feature feature, String region) {
-    return run(
-        report,
-        feature,
-        Operation.START,
-        id ->
-            service.updateFeaturesState(
-                ImmutableMap.of(region, ImmutableMap.of(id, FeatureState.Started)),
-                FeatureProcessor.NO_AUTO_REFRESH));
+  public boolean startFeatures(SnapshotReport report, Map<String, Set<Feature>> features) {
+    return updateFeaturesState(report, features, Operation.START, FeatureState.Started);
   }
 
   /**
-   * Stops the specified feature by moving it back to the resolved state.
+   * Stops the specified set of features by moving them back to the resolved state.
+   *
+   * <p><i>Note:</i> All features are stopped using a single deployment regardless of the region
+   * they reside in.
    *
-   * @param report the report where to record errors if unable to stop the feature
-   * @param feature the feature to stop
-   * @param region the region where the feature resides
-   * @return <code>true</code> if the feature was stopped successfully; <code>false</code> otherwise
+   * @param report the report where to record errors if unable to stop the features
+   * @param features the features to stop keyed by the region where they reside
+   * @return <code>true</code> if the features were stopped successfully; <code>false</code>
+   *     otherwise
    */
-  public boolean stopFeature(SnapshotReport report, Feature feature, String region) {
-    return run(
-        report,
-        feature,
-        Operation.STOP,
-        id ->
-            service.updateFeaturesState(
-                ImmutableMap.of(region, ImmutableMap.of(id, FeatureState.Resolved)),
-                FeatureProcessor.NO_AUTO_REFRESH));
+  public boolean stopFeatures(SnapshotReport report, Map<String, Set<Feature>> features) {
+    return updateFeaturesState(report, features, Operation.STOP, FeatureState.Resolved);
   }
 
   /**
@@ -324,6 +340,30 @@ public class FeatureProcessor {
     return features;
   }
 
+  /**
+   * Processes only the specified features which were reported as changed by recording tasks to
+   * start, stop, install, or uninstall those that were originally in the corresponding state.
+   * Changed features which were not recorded in the snapshot will be uninstalled.
+   *
+   * @param profile the profile where to retrieve the set of features from the snapshot
+   * @param ids the ids of the features that were changed
+   * @param tasks the task list where to record tasks to be executed
+   */
+  public void processChangedFeaturesAndPopulateTaskList(
+      Profile profile, Collection<String> ids, TaskList tasks) {
+    LOGGER.trace("Processing changed features: {}", ids);
+    for (final String id : ids) {
+      final FeatureSnapshot snapshotFeature = profile.getFeature(id);
+      final Feature feature = getFeature(id, "Restore");
+
+      if (snapshotFeature != null) {
+        processFeatureAndPopulateTaskList(snapshotFeature, feature, tasks);
+      } else if ((feature != null) && !profile.shouldOnlyProcessSnapshot()) {
+        processUninstalledFeatureAndPopulateTaskList(feature, tasks);
+      }
+    }
+  }
+
   /**
    * Processes features that were left over from memory after having dealt with what was snapshot.
    * The implementation will try to uninstall all of them.
@@ -422,8 +462,7 @@ public class FeatureProcessor {
       addCompoundInstallTaskFor(snapshotFeature, tasks);
       return;
     } else if (state == FeatureState.Started) {
-      // should use feature's region but we cannot figure out how to get it
-      tasks.add(Operation.STOP, id, r -> stopFeature(r, feature, snapshotFeature.getRegion()));
+      addCompoundStateTaskFor(Operation.STOP, snapshotFeature, feature, tasks);
     }
     final Boolean required = snapshotFeature.isRequired();
 
@@ -456,8 +495,7 @@ public class FeatureProcessor {
       addCompoundInstallTaskFor(snapshotFeature, tasks);
       return;
     } else if (state != FeatureState.Resolved) {
-      // should use feature's region but we cannot figure out how to get it
-      tasks.add(Operation.STOP, id, r -> stopFeature(r, feature, snapshotFeature.getRegion()));
+      addCompoundStateTaskFor(Operation.STOP, snapshotFeature, feature, tasks);
     }
     final Boolean required = snapshotFeature.isRequired();
 
@@ -490,8 +528,7 @@ public class FeatureProcessor {
       addCompoundInstallTaskFor(snapshotFeature, tasks);
       return;
     } else if (state != FeatureState.Started) {
-      // should use feature's region but we cannot figure out how to get it
-      tasks.add(Operation.START, id, r -> startFeature(r, feature, snapshotFeature.getRegion()));
+      addCompoundStateTaskFor(Operation.START, snapshotFeature, feature, tasks);
     }
     final Boolean required = snapshotFeature.isRequired();
 
@@ -549,6 +586,55 @@ public class FeatureProcessor {
                     .add(snapshotFeature));
   }
 
+  /**
+   * Adds a compound task to start or stop the specified feature.
+   *
+   * <p><i>Note:</i> The feature is grouped under the region recorded in its snapshot. It should use
+   * the region of the feature in memory but we cannot figure out how to get it.
+   *
+   * @param operation the operation to perform (either {@link Operation#START} or {@link
+   *     Operation#STOP})
+   * @param snapshotFeature the original feature information
+   * @param feature the current feature from memory
+   * @param tasks the task list where to record tasks to be executed
+   */
+  private void addCompoundStateTaskFor(
+      Operation operation, FeatureSnapshot snapshotFeature, Feature feature, TaskList tasks) {
+    tasks
+        .addIfAbsent(
+            operation,
+            HashMap<String, Set<Feature>>::new,
+            (features, r) ->
+                (operation == Operation.START)
+                    ? startFeatures(r, features)
+                    : stopFeatures(r, features))
+        .add(
+            feature.getId(),
+            features ->
+                features
+                    .computeIfAbsent(snapshotFeature.getRegion(), r -> new HashSet<>())
+                    .add(feature));
+  }
+
+  private boolean updateFeaturesState(
+      SnapshotReport report,
+      Map<String, Set<Feature>> features,
+      Operation operation,
+      FeatureState state) {
+    final Map<String, Map<String, FeatureState>> states = new HashMap<>();
+
+    features.forEach(
+        (region, fs) ->
+            fs.forEach(
+                f -> states.computeIfAbsent(region, r -> new HashMap<>()).put(f.getId(), state)));
+    return run(
+        report,
+        String.join(", ", new TreeSet<>(features.keySet())),
+        features.values().stream().flatMap(Set::stream).map(Feature::getId),
+        operation,
+        () -> service.updateFeaturesState(states, FeatureProcessor.NO_AUTO_REFRESH));
+  }
+
   private ThrowingRunnable<Exception> updateFeaturesRequirements(
       String region, Map.Entry<Boolean, Set<String>> requirements) {
     if (requirements.getKey()) {
@@ -562,39 +648,6 @@ public class FeatureProcessor {
     }
   }
 
-  private boolean run(
-      SnapshotReport report,
-      Feature feature,
-      Operation operation,
-      ThrowingConsumer<String, Exception> task) {
-    final String id = feature.getId();
-    final String attempt = report.getFeatureAttemptString(operation, id);
-    final String operating = operation.getOperatingName();
-
-    LOGGER.info("{} Karaf feature '{}'{}", operating, id, attempt);
-    try {
-      task.accept(id);
-    } catch (Exception e) {
-      final String required = service.isRequired(feature) ? "required" : "not required";
-
-      report.recordOnFinalAttempt(
-          new ServiceException(
-              "Task error: failed to "
-                  + operation.name().toLowerCase()
-                  + " feature ["
-                  + id
-                  + "] from state ["
-                  + service.getState(id)
-                  + "/"
-                  + required
-                  + "]; "
-                  + e.getMessage(),
-              e));
-      return false;
-    }
-    return true;
-  }
-
   private boolean run(
       SnapshotReport report,
       String region,
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal;
+
+import org.apache.karaf.features.DeploymentEvent;
+import org.apache.karaf.features.DeploymentListener;
+import org.apache.karaf.features.FeatureEvent;
+import org.apache.karaf.features.FeaturesListener;
+import org.apache.karaf.features.FeaturesService;
+import org.apache.karaf.features.RepositoryEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors feature and deployment events in order to wake up anyone waiting for features to reach a
+ * given state as soon as something changes instead of having them poll the features service at
+ * regular intervals.
+ *
+ * <p>Karaf does not report all feature state changes (e.g. resolved to started) via feature events.
+ * However, these changes always happen as part of a deployment which is reported via deployment
+ * events.
+ *
+ * <p><i>Note:</i> Listeners are registered when this monitor is created and must be unregistered by
+ * calling {@link #close()}.
+ */
+public class FeatureStateMonitor implements FeaturesListener, DeploymentListener, AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FeatureStateMonitor.class);
+
+  private final FeaturesService service;
+
+  private final Runnable callback;
+
+  /** Tracks whether at least one event was received since the last time it was cleared. */
+  private boolean notified = false;
+
+  /**
+   * Creates a new monitor and registers it with the specified features service.
+   *
+   * @param service the features service to register listeners with
+   */
+  public FeatureStateMonitor(FeaturesService service) {
+    this(service, () -> {});
+  }
+
+  /**
+   * Creates a new monitor and registers it with the specified features service.
+   *
+   * @param service the features service to register listeners with
+   * @param callback a callback to invoke whenever an event is received
+   */
+  public FeatureStateMonitor(FeaturesService service, Runnable callback) {
+    this.service = service;
+    this.callback = callback;
+    service.registerListener((FeaturesListener) this);
+    service.registerListener((DeploymentListener) this);
+  }
+
+  @Override
+  public void featureEvent(FeatureEvent event) {
+    if (!event.isReplay()) {
+      notifyChange();
+    }
+  }
+
+  @Override
+  public void repositoryEvent(RepositoryEvent event) { // nothing to do
+  }
+
+  @Override
+  public void deploymentEvent(DeploymentEvent event) {
+    notifyChange();
+  }
+
+  /**
+   * Waits for the specified amount of time for an event to be received unless one was already
+   * received since the last time this method was called.
+   *
+   * @param timeout the maximum amount of time in milliseconds to wait for an event
+   * @return <code>true</code> if an event was received; <code>false</code> if we timed out
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   */
+  public boolean await(long timeout) throws InterruptedException {
+    synchronized (this) {
+      if (!notified && (timeout > 0L)) {
+        wait(timeout);
+      }
+      final boolean wasNotified = notified;
+
+      this.notified = false;
+      return wasNotified;
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      service.unregisterListener((DeploymentListener) this);
+      service.unregisterListener((FeaturesListener) this);
+    } catch (IllegalStateException e) { // service is no longer valid so nothing to remove
+      LOGGER.debug("failed to unregister feature state listeners", e);
+    }
+  }
+
+  private void notifyChange() {
+    synchronized (this) {
+      this.notified = true;
+      notifyAll();
+    }
+    callback.run();
+  }
+}
@@ -28,7 +28,8 @@ package org.codice.pax.exam.service.internal;
  * whereas as a non-required cannot. Since the goal of the profile migratable is to reset the system
  * in the exact same state it was at the time of export, updating this particular state for features
  * is also important. We therefore will do so using a final step using the {@link #UPDATE}
- * operation.
+ * operation. Repositories also rely on this operation to install and uninstall all of them as a
+ * single batch.
  */
 public enum Operation {
   INSTALL("Installing"),
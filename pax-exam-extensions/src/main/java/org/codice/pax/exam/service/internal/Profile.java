@@ -16,14 +16,17 @@ package org.codice.pax.exam.service.internal;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.apache.karaf.features.Repository;
 import org.codice.pax.exam.service.ServiceException;
 
@@ -34,6 +37,11 @@ public class Profile {
   private final List<BundleSnapshot> bundles;
   private final boolean snapshotOnly;
 
+  /** Indexes of features by id and bundles by full name used when processing changes only. */
+  private final Map<String, FeatureSnapshot> featuresById = new HashMap<>();
+
+  private final Map<String, BundleSnapshot> bundlesByFullName = new HashMap<>();
+
   /**
    * Constructs an empty profile.
    *
@@ -64,6 +72,8 @@ public class Profile {
     this.features = features.collect(Collectors.toList()); // preserve order
     this.bundles = bundles.collect(Collectors.toList()); // preserve order
     this.snapshotOnly = false;
+    this.features.forEach(f -> featuresById.putIfAbsent(f.getId(), f));
+    this.bundles.forEach(b -> bundlesByFullName.putIfAbsent(b.getFullName(), b));
   }
 
   /**
@@ -112,6 +122,7 @@ public class Profile {
    */
   public Profile add(FeatureSnapshot feature) {
     features.add(feature);
+    featuresById.putIfAbsent(feature.getId(), feature);
     return this;
   }
 
@@ -123,6 +134,7 @@ public class Profile {
    */
   public Profile add(BundleSnapshot bundle) {
     bundles.add(bundle);
+    bundlesByFullName.putIfAbsent(bundle.getFullName(), bundle);
     return this;
   }
 
@@ -137,6 +149,28 @@ public class Profile {
     return repositories.contains(uri);
   }
 
+  /**
+   * Gets a recorded feature given its id.
+   *
+   * @param id the id of the feature to retrieve
+   * @return the corresponding recorded feature or <code>null</code> if none recorded
+   */
+  @Nullable
+  public FeatureSnapshot getFeature(String id) {
+    return featuresById.get(id);
+  }
+
+  /**
+   * Gets a recorded bundle given its full name (including its version).
+   *
+   * @param fullName the full name of the bundle to retrieve
+   * @return the corresponding recorded bundle or <code>null</code> if none recorded
+   */
+  @Nullable
+  public BundleSnapshot getBundle(String fullName) {
+    return bundlesByFullName.get(fullName);
+  }
+
   /**
    * Retrieves all recorded repository URIs.
    *
@@ -14,7 +14,12 @@
 package org.codice.pax.exam.service.internal;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -32,6 +37,9 @@ import org.slf4j.LoggerFactory;
 public class RepositoryProcessor {
   private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryProcessor.class);
 
+  private static final EnumSet<FeaturesService.Option> NO_AUTO_REFRESH =
+      EnumSet.of(FeaturesService.Option.NoAutoRefreshBundles);
+
   private final FeaturesService service;
 
   /**
@@ -68,28 +76,20 @@ public class RepositoryProcessor {
   }
 
   /**
-   * Installs the specified repository.
-   *
-   * @param report the report where to record errors if unable to install the repository
-   * @param uri the URI of the repository to install
-   * @return <code>true</code> if the repository was installed successfully; <code>false</code>
-   *     otherwise
-   */
-  public boolean installRepository(SnapshotReport report, URI uri) {
-    // do not have features installed; this will be handled separately
-    return run(report, uri, Operation.INSTALL, () -> service.addRepository(uri, false));
-  }
-
-  /**
-   * Uninstalls the specified repository.
+   * Gets an installed repository.
    *
-   * @param report the report where to record errors if unable to uninstall the repository
-   * @param uri the URI of the repository to uninstall
-   * @return <code>true</code> if the repository was uninstalled successfully; <code>false</code>
-   *     otherwise
+   * @param uri the URI of the repository to retrieve
+   * @param operation the operation for which we are retrieving the repository
+   * @return the corresponding repository or <code>null</code> if it is not installed
    */
-  public boolean uninstallRepository(SnapshotReport report, URI uri) {
-    return run(report, uri, Operation.UNINSTALL, () -> service.removeRepository(uri));
+  @Nullable
+  public Repository getRepository(URI uri, String operation) {
+    try {
+      return service.getRepository(uri);
+    } catch (Exception e) {
+      throw new ServiceException(
+          operation + " error: failed to retrieve repository [" + uri + "]; " + e.getMessage(), e);
+    }
   }
 
   /**
@@ -138,6 +138,30 @@ public class RepositoryProcessor {
     return repositories;
   }
 
+  /**
+   * Processes only the specified repositories which were reported as changed by recording tasks to
+   * add or remove them based on whether or not they were recorded in the snapshot.
+   *
+   * @param profile the profile where to retrieve the set of repositories from the snapshot
+   * @param uris the URIs of the repositories that were changed
+   * @param tasks the task list where to record tasks to be executed
+   */
+  public void processChangedRepositoriesAndPopulateTaskList(
+      Profile profile, Collection<URI> uris, TaskList tasks) {
+    LOGGER.trace("Processing changed repositories: {}", uris);
+    for (final URI uri : uris) {
+      final boolean installed = getRepository(uri, "Restore") != null;
+
+      if (profile.isRecorded(uri)) {
+        if (!installed) {
+          processMissingRepositoryAndPopulateTaskList(uri, tasks);
+        }
+      } else if (installed && !profile.shouldOnlyProcessSnapshot()) {
+        processUninstalledRepositoryAndPopulateTaskList(uri, tasks);
+      }
+    }
+  }
+
   /**
    * Processes repositories that were left over after having dealt with what was snapshot. The
    * implementation will try to uninstall all of them.
@@ -169,6 +193,79 @@ public class RepositoryProcessor {
     } // else - nothing to do as it seems to be still installed
   }
 
+  /**
+   * Updates the repositories by uninstalling and installing the specified ones as a single batch
+   * using one deployment of the features service.
+   *
+   * <p>Requirements for features provided by the repositories being uninstalled are dropped as part
+   * of the same deployment just like they would be if the repositories were uninstalled
+   * individually.
+   *
+   * @param report the report where to record errors if unable to install or uninstall the
+   *     repositories
+   * @param changes the repositories to install and uninstall
+   * @return <code>true</code> if all repositories were installed and uninstalled successfully;
+   *     <code>false</code> otherwise
+   */
+  public boolean updateRepositories(SnapshotReport report, RepositoryChanges changes) {
+    LOGGER.debug(
+        "Updating Karaf repositories; uninstalling {} and installing {}",
+        changes.uninstalls,
+        changes.installs);
+    final Map<URI, Operation> operations = new LinkedHashMap<>();
+
+    changes.uninstalls.forEach(uri -> operations.put(uri, Operation.UNINSTALL));
+    changes.installs.forEach(uri -> operations.put(uri, Operation.INSTALL));
+    operations.forEach(
+        (uri, operation) -> {
+          LOGGER.info(
+              "{} Karaf repository: '{}'{}",
+              operation.getOperatingName(),
+              uri,
+              report.getRepositoryAttemptString(operation, uri));
+        });
+    try {
+      final Set<URI> repositories =
+          Stream.of(listRepositories("Restore"))
+              .map(Repository::getURI)
+              .collect(Collectors.toCollection(LinkedHashSet::new));
+      final Map<String, Set<String>> requirements = service.listRequirements();
+
+      for (final URI uri : changes.uninstalls) {
+        final Repository repository = service.getRepository(uri);
+
+        if (repository != null) {
+          final Set<String> provided =
+              Stream.of(repository.getFeatures())
+                  .map(FeatureSnapshot::toRequirement)
+                  .collect(Collectors.toSet());
+
+          requirements.values().forEach(r -> r.removeAll(provided));
+        }
+      }
+      repositories.removeAll(changes.uninstalls);
+      repositories.addAll(changes.installs);
+      // do not have features installed; this will be handled separately
+      service.updateReposAndRequirements(
+          repositories, requirements, RepositoryProcessor.NO_AUTO_REFRESH);
+    } catch (Exception e) {
+      // report the failure for each repositories as they were all part of the same deployment
+      operations.forEach(
+          (uri, operation) ->
+              report.recordOnFinalAttempt(
+                  new ServiceException(
+                      "Reset error: failed to "
+                          + operation.name().toLowerCase()
+                          + " repository ["
+                          + uri
+                          + "]; "
+                          + e.getMessage(),
+                      e)));
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Processes the specified repository for installation since it was missing from memory.
    *
@@ -176,7 +273,7 @@ public class RepositoryProcessor {
    * @param tasks the task list where to record tasks to be executed
    */
   public void processMissingRepositoryAndPopulateTaskList(URI uri, TaskList tasks) {
-    tasks.add(Operation.INSTALL, uri.toString(), r -> installRepository(r, uri));
+    addCompoundUpdateTaskFor(tasks).add(uri.toString(), changes -> changes.installs.add(uri));
   }
 
   /**
@@ -186,29 +283,24 @@ public class RepositoryProcessor {
    * @param tasks the task list where to record tasks to be executed
    */
   public void processUninstalledRepositoryAndPopulateTaskList(URI uri, TaskList tasks) {
-    tasks.add(Operation.UNINSTALL, uri.toString(), r -> uninstallRepository(r, uri));
+    addCompoundUpdateTaskFor(tasks).add(uri.toString(), changes -> changes.uninstalls.add(uri));
   }
 
-  private boolean run(
-      SnapshotReport report, URI uri, Operation operation, ThrowingRunnable<Exception> task) {
-    final String attempt = report.getRepositoryAttemptString(operation, uri);
-    final String operating = operation.getOperatingName();
+  private TaskList.CompoundTask<RepositoryChanges> addCompoundUpdateTaskFor(TaskList tasks) {
+    // all additions and removals for a pass are applied as one batch
+    return tasks.addIfAbsent(
+        Operation.UPDATE, RepositoryChanges::new, (changes, r) -> updateRepositories(r, changes));
+  }
 
-    LOGGER.info("{} Karaf repository: '{}'{}", operating, uri, attempt);
-    try {
-      task.run();
-    } catch (Exception e) {
-      report.recordOnFinalAttempt(
-          new ServiceException(
-              "Reset error: failed to "
-                  + operation.name().toLowerCase()
-                  + " repository ["
-                  + uri
-                  + "]; "
-                  + e.getMessage(),
-              e));
-      return false;
+  /** Accumulates repositories to be installed and uninstalled as a single batch. */
+  public static class RepositoryChanges {
+    private final Set<URI> installs = new LinkedHashSet<>();
+
+    private final Set<URI> uninstalls = new LinkedHashSet<>();
+
+    @Override
+    public String toString() {
+      return "installs=" + installs + ", uninstalls=" + uninstalls;
     }
-    return true;
   }
 }
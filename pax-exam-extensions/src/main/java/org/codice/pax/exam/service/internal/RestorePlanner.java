@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.net.URI;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.apache.karaf.features.Feature;
+import org.apache.karaf.features.FeatureState;
+import org.apache.karaf.features.FeaturesService;
+import org.apache.karaf.features.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility class used to restore repositories and features from a profile by computing the target
+ * state of the features service once and applying it in as few deployments as possible instead of
+ * converging on it one operation at a time.
+ *
+ * <p>The target set of repositories and per-region requirements are applied together using a single
+ * deployment after which the state of all features that are not already in their expected state
+ * (i.e. started or resolved) is updated using a second deployment if need be.
+ *
+ * <p>When a change journal is provided, only the repositories and features it reports as changed
+ * are planned for.
+ *
+ * <p><i>Note:</i> The plan is only a best effort. The repository and feature processors should
+ * still be used afterward to verify the outcome and to deal with anything the plan could not handle
+ * (e.g. features which are installed only because they are required by others).
+ */
+public class RestorePlanner {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RestorePlanner.class);
+
+  private static final String FEATURE_REQUIREMENT_PREFIX = "feature:";
+
+  private static final EnumSet<FeaturesService.Option> NO_AUTO_REFRESH =
+      EnumSet.of(FeaturesService.Option.NoAutoRefreshBundles);
+
+  private final FeaturesService service;
+
+  /**
+   * Constructs a new restore planner.
+   *
+   * @param service the features service to use
+   */
+  public RestorePlanner(FeaturesService service) {
+    this.service = service;
+  }
+
+  /**
+   * Computes the target state for the specified profile and applies it.
+   *
+   * @param profile the profile to restore
+   * @param journal the journal of changes to restore or <code>null</code> to plan for everything
+   * @return <code>true</code> if the plan was applied successfully (including when there was
+   *     nothing to apply); <code>false</code> if it failed in which case the failure will have been
+   *     logged and the system should be restored using the repository and feature processors
+   */
+  public boolean restore(Profile profile, @Nullable ChangeJournal journal) {
+    try {
+      final Set<String> ids =
+          ((journal == null) || journal.allFeaturesChanged()) ? null : journal.features().keySet();
+      final Set<URI> repositories =
+          ((journal == null) || journal.allRepositoriesChanged())
+              ? planRepositories(profile)
+              : planChangedRepositories(profile, journal.repositories());
+      final Map<String, Set<String>> requirements = planRequirements(profile, ids);
+
+      if ((repositories != null) || (requirements != null)) {
+        LOGGER.info("Restoring Karaf repositories and feature requirements");
+        service.updateReposAndRequirements(
+            (repositories != null) ? repositories : currentRepositories(),
+            (requirements != null) ? requirements : service.listRequirements(),
+            RestorePlanner.NO_AUTO_REFRESH);
+      }
+      final Map<String, Map<String, FeatureState>> states = planFeaturesState(profile, ids);
+
+      if (!states.isEmpty()) {
+        LOGGER.info("Restoring Karaf features state");
+        service.updateFeaturesState(states, RestorePlanner.NO_AUTO_REFRESH);
+      }
+      return true;
+    } catch (Exception e) {
+      LOGGER.warn(
+          "Failed to restore Karaf repositories and features using a single plan; processing them"
+              + " one at a time",
+          e);
+      return false;
+    }
+  }
+
+  /**
+   * Computes the target set of repositories.
+   *
+   * @param profile the profile to restore
+   * @return the target set of repository URIs or <code>null</code> if no changes are required
+   * @throws Exception if an error occurs while retrieving the current repositories
+   */
+  @Nullable
+  private Set<URI> planRepositories(Profile profile) throws Exception {
+    final Set<URI> current = currentRepositories();
+    final Set<URI> target =
+        profile.shouldOnlyProcessSnapshot() ? new HashSet<>(current) : new HashSet<>();
+
+    profile.repositories().forEach(target::add);
+    if (target.equals(current)) {
+      return null;
+    }
+    LOGGER.debug("Planning repositories: {}", target);
+    return target;
+  }
+
+  /**
+   * Computes the target set of repositories by only looking at the specified changed repositories.
+   *
+   * @param profile the profile to restore
+   * @param uris the URIs of the repositories that were changed
+   * @return the target set of repository URIs or <code>null</code> if no changes are required
+   * @throws Exception if an error occurs while retrieving the current repositories
+   */
+  @Nullable
+  @VisibleForTesting
+  Set<URI> planChangedRepositories(Profile profile, Set<URI> uris) throws Exception {
+    final Set<URI> current = currentRepositories();
+    final Set<URI> target = new HashSet<>(current);
+
+    for (final URI uri : uris) {
+      if (profile.isRecorded(uri)) {
+        target.add(uri);
+      } else if (!profile.shouldOnlyProcessSnapshot()) {
+        target.remove(uri);
+      }
+    }
+    if (target.equals(current)) {
+      return null;
+    }
+    LOGGER.debug("Planning repositories: {}", target);
+    return target;
+  }
+
+  /**
+   * Computes the target requirements for each regions.
+   *
+   * @param profile the profile to restore
+   * @param ids the ids of the features to plan for or <code>null</code> to plan for all features
+   * @return the target requirements keyed by region or <code>null</code> if no changes are required
+   * @throws Exception if an error occurs while retrieving the current features
+   */
+  @Nullable
+  @VisibleForTesting
+  Map<String, Set<String>> planRequirements(Profile profile, @Nullable Set<String> ids)
+      throws Exception {
+    final Map<String, Set<String>> current = service.listRequirements();
+    final Map<String, Set<String>> target = new HashMap<>();
+    final Map<String, Feature> features = currentFeatures();
+
+    current.forEach((region, r) -> target.put(region, new HashSet<>(r)));
+    profile
+        .features()
+        .filter(f -> (ids == null) || ids.contains(f.getId()))
+        .forEach(
+            f -> {
+              final Feature feature = RestorePlanner.remove(features, f);
+
+              if (f.getState() == FeatureState.Uninstalled) {
+                removeRequirements(target, f, feature);
+              } else if (Boolean.FALSE.equals(f.isRequired())) {
+                // only installed because another feature requires it
+                removeRequirements(target, f, feature);
+              } else if (Boolean.TRUE.equals(f.isRequired())
+                  || (feature == null)
+                  || (service.getState(feature.getId()) == FeatureState.Uninstalled)) {
+                if ((feature == null) || !service.isRequired(feature)) {
+                  target
+                      .computeIfAbsent(f.getRegion(), r -> new HashSet<>())
+                      .add(f.toRequirement());
+                }
+              }
+            });
+    if (!profile.shouldOnlyProcessSnapshot()) {
+      features
+          .values()
+          .stream()
+          .filter(f -> (ids == null) || ids.contains(f.getId()))
+          .forEach(f -> target.values().forEach(r -> r.remove(FeatureSnapshot.toRequirement(f))));
+    }
+    if (RestorePlanner.withoutEmptyRegions(target)
+        .equals(RestorePlanner.withoutEmptyRegions(current))) {
+      return null;
+    }
+    LOGGER.debug("Planning feature requirements: {}", target);
+    return target;
+  }
+
+  /**
+   * Computes the target state for all features which are installed but not in their expected state.
+   *
+   * @param profile the profile to restore
+   * @param ids the ids of the features to plan for or <code>null</code> to plan for all features
+   * @return the target features state keyed by region
+   * @throws Exception if an error occurs while retrieving the current features
+   */
+  @VisibleForTesting
+  Map<String, Map<String, FeatureState>> planFeaturesState(
+      Profile profile, @Nullable Set<String> ids) throws Exception {
+    final Map<String, Map<String, FeatureState>> target = new HashMap<>();
+    final Map<String, Feature> features = currentFeatures();
+
+    profile
+        .features()
+        .filter(f -> (ids == null) || ids.contains(f.getId()))
+        .forEach(
+            f -> {
+              final Feature feature = RestorePlanner.remove(features, f);
+              final FeatureState expected = f.getState();
+
+              if ((feature == null)
+                  || ((expected != FeatureState.Started) && (expected != FeatureState.Resolved))) {
+                return;
+              }
+              final String id = feature.getId();
+              final FeatureState state = service.getState(id);
+
+              if ((state != FeatureState.Uninstalled) && (state != expected)) {
+                target.computeIfAbsent(f.getRegion(), r -> new HashMap<>()).put(id, expected);
+              }
+            });
+    if (!target.isEmpty()) {
+      LOGGER.debug("Planning features state: {}", target);
+    }
+    return target;
+  }
+
+  private void removeRequirements(
+      Map<String, Set<String>> requirements, FeatureSnapshot snapshot, @Nullable Feature feature) {
+    final String prefix = RestorePlanner.FEATURE_REQUIREMENT_PREFIX + snapshot.getName() + "/";
+
+    requirements
+        .values()
+        .forEach(
+            r -> {
+              if (feature != null) {
+                r.remove(FeatureSnapshot.toRequirement(feature));
+              }
+              if (snapshot.hasVersion()) {
+                r.remove(snapshot.toRequirement());
+              } else { // remove all versions
+                r.removeIf(req -> req.startsWith(prefix));
+              }
+            });
+  }
+
+  private Set<URI> currentRepositories() throws Exception {
+    return Stream.of(service.listRepositories())
+        .map(Repository::getURI)
+        .collect(Collectors.toSet());
+  }
+
+  private Map<String, Feature> currentFeatures() throws Exception {
+    // map sorted to get latest versions first for a given feature name
+    final Map<String, Feature> features = new TreeMap<>(Comparator.reverseOrder());
+
+    Stream.of(service.listFeatures()).forEach(f -> features.put(f.getId(), f));
+    return features;
+  }
+
+  /**
+   * Removes the feature from memory corresponding to the specified snapshot feature.
+   *
+   * @param features the features from memory keyed by their ids
+   * @param snapshot the snapshot feature to find a match for
+   * @return the corresponding feature from memory or <code>null</code> if none found
+   */
+  @Nullable
+  private static Feature remove(Map<String, Feature> features, FeatureSnapshot snapshot) {
+    if (snapshot.hasVersion()) {
+      return features.remove(snapshot.getId());
+    }
+    // we shall use the latest version we find
+    final String name = snapshot.getName();
+
+    for (final Iterator<Feature> i = features.values().iterator(); i.hasNext(); ) {
+      final Feature feature = i.next();
+
+      if (feature.getName().equals(name)) {
+        i.remove();
+        return feature;
+      }
+    }
+    return null;
+  }
+
+  private static Map<String, Set<String>> withoutEmptyRegions(
+      Map<String, Set<String>> requirements) {
+    return requirements
+        .entrySet()
+        .stream()
+        .filter(e -> !e.getValue().isEmpty())
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+  }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.config.internal
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import org.codice.pax.exam.config.ConfigTimeoutException
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.Constants
+import org.osgi.framework.ServiceEvent
+import org.osgi.framework.ServiceListener
+import org.osgi.framework.ServiceReference
+import org.osgi.framework.ServiceRegistration
+import org.osgi.service.cm.ConfigurationEvent
+import org.osgi.service.cm.ManagedService
+import org.osgi.service.cm.SynchronousConfigurationListener
+import spock.lang.Specification
+
+class ConfigAdminStabilizerSpec extends Specification {
+  def context = Mock(BundleContext)
+  def barrierPids = new CopyOnWriteArrayList()
+  def registrations = new AtomicInteger()
+  def filters = new CopyOnWriteArrayList()
+  ManagedService barrier
+  ServiceListener serviceListener
+
+  def setup() {
+    context.registerService(ManagedService, _, _) >> { args ->
+      registrations.incrementAndGet()
+      barrier = args[1]
+      barrierPids << args[2].get(Constants.SERVICE_PID)
+      Mock(ServiceRegistration) {
+        setProperties(_) >> { a -> barrierPids << a[0].get(Constants.SERVICE_PID) }
+      }
+    }
+    context.addServiceListener(_, _) >> { args ->
+      serviceListener = args[0]
+      filters << args[1]
+    }
+  }
+
+  def "test a quiet system stabilizes as soon as queued deliveries are flushed"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    when:
+      deliverLater(0L)
+      stabilizer.stabilize(5000L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+      barrierPids.size() == 1
+      filters.empty
+  }
+
+  def "test stabilizing a quiet system times out when queued deliveries are not flushed"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    when:
+      stabilizer.stabilize(100L)
+
+    then:
+      def e = thrown(ConfigTimeoutException)
+      e.message.contains('outstanding queued deliveries')
+  }
+
+  def "test stabilizing monitors config objects changed while flushing queued deliveries"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    when:
+      Thread.start {
+        waitForBarriers(1)
+        changed('pid') // a component reacting to a queued delivery changes a config object
+        barrier.updated(null)
+        waitForBarriers(2)
+        barrier.updated(null)
+      }
+      stabilizer.stabilize(5000L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+      barrierPids.size() == 2
+      filters == ['(|(service.pid=pid)(service.factoryPid=pid)(component.name=pid)(objectClass=org.osgi.service.blueprint.container.BlueprintContainer))']
+  }
+
+  def "test stabilizing waits for outstanding deliveries of the changed config objects"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    and:
+      changed('factory.pid~1', 'factory.pid')
+
+    when:
+      deliverLater(100L)
+      def start = System.currentTimeMillis()
+      stabilizer.stabilize(5000L)
+      def elapsed = System.currentTimeMillis() - start
+
+    then:
+      elapsed >= 100L
+      barrierPids.size() == 1
+      filters == ['(|(service.pid=factory.pid)(service.factoryPid=factory.pid)(component.name=factory.pid)(service.pid=factory.pid~1)(service.factoryPid=factory.pid~1)(component.name=factory.pid~1)(objectClass=org.osgi.service.blueprint.container.BlueprintContainer))'] ||
+          filters == ['(|(service.pid=factory.pid~1)(service.factoryPid=factory.pid~1)(component.name=factory.pid~1)(service.pid=factory.pid)(service.factoryPid=factory.pid)(component.name=factory.pid)(objectClass=org.osgi.service.blueprint.container.BlueprintContainer))']
+  }
+
+  def "test stabilizing times out when deliveries are still outstanding"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    and:
+      changed('pid')
+
+    when:
+      stabilizer.stabilize(100L)
+
+    then:
+      def e = thrown(ConfigTimeoutException)
+      e.message.contains('outstanding deliveries for: pid')
+  }
+
+  def "test stabilizing does not wait for the rest of the quiet period when the timeout expires on a quiet system"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    and:
+      changed('pid')
+
+    when:
+      deliverLater(10L)
+      stabilizer.stabilize(20L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+  }
+
+  def "test stabilizing waits for a new delivery when a managed service is registered for a changed config object"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+      def reference = Mock(ServiceReference) {
+        getProperty(Constants.OBJECTCLASS) >> ([ManagedService.name] as String[])
+      }
+
+    and:
+      changed('pid')
+
+    when:
+      Thread.start {
+        waitForBarriers(1)
+        serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference))
+        barrier.updated(null)
+        Thread.sleep(100L)
+        barrier.updated(null)
+      }
+      def start = System.currentTimeMillis()
+      stabilizer.stabilize(5000L)
+      def elapsed = System.currentTimeMillis() - start
+
+    then:
+      elapsed >= 100L
+      barrierPids.size() == 2
+      barrierPids.unique(false).size() == 2
+
+    and: "the same barrier managed service was reused"
+      registrations.get() == 1
+  }
+
+  def "test stabilizing monitors config objects changed while stabilizing"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+
+    and:
+      changed('pid')
+
+    when:
+      Thread.start {
+        waitForBarriers(1)
+        InternalConfigListener.forContext(context).configurationEvent(event('other.pid'))
+        barrier.updated(null)
+        Thread.sleep(100L)
+        barrier.updated(null)
+      }
+      stabilizer.stabilize(5000L)
+
+    then:
+      barrierPids.size() == 2
+      filters.last().contains('(service.pid=other.pid)')
+  }
+
+  def "test stabilizing times out when services tied to the changed config objects keep changing"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+      def reference = Mock(ServiceReference)
+      def done = false
+
+    and:
+      changed('pid')
+
+    when:
+      def churn = Thread.start {
+        waitForBarriers(1)
+        barrier.updated(null)
+        while (!done) {
+          serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, reference))
+          Thread.sleep(10L)
+        }
+      }
+      try {
+        stabilizer.stabilize(300L)
+      } finally {
+        done = true
+        churn.join()
+      }
+
+    then:
+      thrown(ConfigTimeoutException)
+  }
+
+  def "test stabilizing waits for the blueprint containers of consuming bundles to be re-created"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+      def consumer = Mock(Bundle) {
+        getBundleId() >> 5L
+      }
+      def other = Mock(Bundle) {
+        getBundleId() >> 6L
+      }
+      def placeholder = Mock(ServiceReference) {
+        getBundle() >> consumer
+      }
+      def container = blueprintContainer(consumer)
+      def otherContainer = blueprintContainer(other)
+
+    and:
+      context.getServiceReferences(null, { it.contains('(service.pid=pid)') }) >> ([placeholder] as ServiceReference[])
+
+    and:
+      changed('pid')
+
+    when:
+      Thread.start {
+        waitForBarriers(1)
+        barrier.updated(null)
+        serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, otherContainer))
+        serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, container))
+        Thread.sleep(150L)
+        serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, container))
+      }
+      def start = System.currentTimeMillis()
+      stabilizer.stabilize(5000L)
+      def elapsed = System.currentTimeMillis() - start
+
+    then: "only the container of the consuming bundle was waited on"
+      elapsed >= 150L
+      notThrown(ConfigTimeoutException)
+  }
+
+  def "test stabilizing times out when the blueprint container of a consuming bundle is not re-created"() {
+    given:
+      def stabilizer = new ConfigAdminStabilizer(context)
+      def consumer = Mock(Bundle) {
+        getBundleId() >> 5L
+      }
+      def placeholder = Mock(ServiceReference) {
+        getBundle() >> consumer
+      }
+
+    and:
+      context.getServiceReferences(null, _) >> ([placeholder] as ServiceReference[])
+
+    and:
+      changed('pid')
+
+    when:
+      Thread.start {
+        waitForBarriers(1)
+        barrier.updated(null)
+        serviceListener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, blueprintContainer(consumer)))
+      }
+      stabilizer.stabilize(200L)
+
+    then:
+      def e = thrown(ConfigTimeoutException)
+      e.message.contains('blueprint containers reloading for bundles: 5')
+  }
+
+  def "test stabilizing reuses the shared listener and barrier across stabilizations"() {
+    when:
+      changed('pid')
+      deliverLater(10L)
+      new ConfigAdminStabilizer(context).stabilize(5000L)
+
+    and:
+      changed('other.pid')
+      Thread.start {
+        waitForBarriers(2)
+        barrier.updated(null)
+      }
+      new ConfigAdminStabilizer(context).stabilize(5000L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+      barrierPids.size() == 2
+      registrations.get() == 1
+      1 * context.registerService(SynchronousConfigurationListener, _, _)
+  }
+
+  private def blueprintContainer(Bundle bundle) {
+    Mock(ServiceReference) {
+      getBundle() >> bundle
+      getProperty(Constants.OBJECTCLASS) >> (['org.osgi.service.blueprint.container.BlueprintContainer'] as String[])
+    }
+  }
+
+  private def changed(String pid, String factoryPid = null) {
+    InternalConfigListener.forContext(context).configurationEvent(event(pid, factoryPid))
+  }
+
+  private def event(String pid, String factoryPid = null) {
+    new ConfigurationEvent(Mock(ServiceReference), ConfigurationEvent.CM_UPDATED, factoryPid, pid)
+  }
+
+  private def deliverLater(long delay) {
+    Thread.start {
+      waitForBarriers(1)
+      Thread.sleep(delay)
+      barrier.updated(null)
+    }
+  }
+
+  private def waitForBarriers(int count) {
+    while (barrierPids.size() < count) {
+      Thread.sleep(1L)
+    }
+  }
+}
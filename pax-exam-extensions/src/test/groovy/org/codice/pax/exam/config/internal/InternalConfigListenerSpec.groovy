@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.config.internal
+
+import org.codice.pax.exam.config.ConfigTimeoutException
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.BundleEvent
+import org.osgi.framework.BundleListener
+import org.osgi.framework.ServiceReference
+import org.osgi.framework.ServiceRegistration
+import org.osgi.service.cm.ConfigurationEvent
+import org.osgi.service.cm.ManagedService
+import org.osgi.service.cm.SynchronousConfigurationListener
+import spock.lang.Specification
+
+class InternalConfigListenerSpec extends Specification {
+  def bundle = Mock(Bundle)
+  def registration = Mock(ServiceRegistration)
+  def barrierRegistration = Mock(ServiceRegistration)
+  BundleListener bundleListener
+  def context = Mock(BundleContext) {
+    getBundle() >> bundle
+    registerService(SynchronousConfigurationListener, _, _) >> registration
+    registerService(ManagedService, _, _) >> barrierRegistration
+    addBundleListener(_) >> { BundleListener l -> bundleListener = l }
+  }
+  def listener = InternalConfigListener.forContext(context)
+
+  def "test the same listener is returned for the same bundle context"() {
+    expect:
+      InternalConfigListener.forContext(context).is(listener)
+  }
+
+  def "test the listener is replaced and unregistered when the bundle context changes"() {
+    when:
+      def other = InternalConfigListener.forContext(Mock(BundleContext))
+
+    then:
+      !other.is(listener)
+      1 * registration.unregister()
+      1 * context.removeBundleListener(bundleListener)
+  }
+
+  def "test the listener is unregistered and forgotten when its bundle is stopping"() {
+    when:
+      bundleListener.bundleChanged(new BundleEvent(BundleEvent.STOPPING, Mock(Bundle)))
+
+    then: "events for other bundles are ignored"
+      0 * registration.unregister()
+
+    when:
+      listener.barrier()
+      def barrier = listener.barrier()
+      bundleListener.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle))
+
+    then:
+      1 * registration.unregister()
+      1 * barrierRegistration.unregister()
+      1 * context.removeBundleListener(bundleListener)
+      barrier.cancelled
+
+    and:
+      !InternalConfigListener.forContext(context).is(listener)
+  }
+
+  def "test all waiters on the same config object are notified"() {
+    given:
+      def first = listener.expect('pid')
+      def second = listener.expect('pid')
+
+    when:
+      Thread.start {
+        Thread.sleep(50L)
+        listener.configurationEvent(event('pid'))
+      }
+      first.waitForNotification(5000L)
+      second.waitForNotification(5000L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+      listener.notifications.isEmpty()
+  }
+
+  def "test an event received before waiting is not missed"() {
+    given:
+      def notification = listener.expect('pid')
+
+    when:
+      listener.configurationEvent(event('pid'))
+      notification.waitForNotification(0L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+  }
+
+  def "test a cancelled waiter is no longer notified while others still are"() {
+    given:
+      def cancelled = listener.expect('pid')
+      def waiting = listener.expect('pid')
+
+    when:
+      cancelled.cancel()
+      listener.configurationEvent(event('pid'))
+      waiting.waitForNotification(0L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+
+    when:
+      cancelled.waitForNotification(10L)
+
+    then:
+      thrown(ConfigTimeoutException)
+  }
+
+  def "test timing out stops expecting an event"() {
+    given:
+      def notification = listener.expect('pid')
+
+    when:
+      notification.waitForNotification(10L)
+
+    then:
+      def e = thrown(ConfigTimeoutException)
+      e.message.contains('pid')
+      listener.notifications.isEmpty()
+  }
+
+  def "test events for other config objects are only reported as changes"() {
+    given:
+      def notification = listener.expect('pid')
+      def observed = []
+      listener.addObserver({ observed << it.pid })
+
+    when:
+      listener.configurationEvent(event('other.pid', 'factory.pid'))
+
+    then:
+      listener.drainChangedPids() == ['other.pid', 'factory.pid'] as Set
+      listener.drainChangedPids().isEmpty()
+      observed == ['other.pid']
+      listener.notifications.keySet() == ['pid'] as Set
+
+    cleanup:
+      notification.cancel()
+  }
+
+  private def event(String pid, String factoryPid = null) {
+    new ConfigurationEvent(Mock(ServiceReference), ConfigurationEvent.CM_UPDATED, factoryPid, pid)
+  }
+}
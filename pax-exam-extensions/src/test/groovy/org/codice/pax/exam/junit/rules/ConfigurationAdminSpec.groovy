@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.junit.rules
+
+import org.codice.pax.exam.config.ConfigTimeoutException
+import org.codice.pax.exam.config.Configuration
+import org.codice.pax.exam.config.internal.InternalConfigListener
+import org.osgi.framework.BundleContext
+import org.osgi.framework.ServiceReference
+import org.osgi.framework.ServiceRegistration
+import org.osgi.service.cm.ConfigurationEvent
+import org.osgi.service.cm.ManagedService
+import org.osgi.service.cm.SynchronousConfigurationListener
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+
+class ConfigurationAdminSpec extends Specification {
+  ManagedService barrier
+
+  def context = Mock(BundleContext) {
+    // deliver to the barrier right away as if nothing else was queued
+    registerService(ManagedService, _, _) >> { args ->
+      barrier = args[1]
+      barrier.updated(null)
+      Mock(ServiceRegistration) {
+        setProperties(_) >> { barrier.updated(null) }
+      }
+    }
+    registerService(SynchronousConfigurationListener, _, _) >> Mock(ServiceRegistration)
+  }
+  def cm = Mock(org.osgi.service.cm.ConfigurationAdmin)
+  def admin = new ConfigurationAdmin(0L, 0L) {
+    @Override
+    BundleContext getBundleContext() {
+      context
+    }
+
+    @Override
+    protected org.osgi.service.cm.ConfigurationAdmin getService() {
+      cm
+    }
+  }
+  def listener = InternalConfigListener.forContext(context)
+  def updated = new CopyOnWriteArrayList()
+
+  def cleanup() {
+    ConfigurationAdmin.snapshotConfigs.clear()
+    ConfigurationAdmin.changeLog = null
+  }
+
+  def "test all updates are performed before waiting for their events together"() {
+    given:
+      def allUpdated = new CountDownLatch(2)
+      def first = config('first', { allUpdated.countDown() })
+      def second = config('second', { allUpdated.countDown() })
+
+    when:
+      Thread.start {
+        allUpdated.await()
+        Thread.sleep(50L)
+        listener.configurationEvent(event('second'))
+        listener.configurationEvent(event('first'))
+      }
+      admin.updateAllAndWait([(first): [key: 'value'] as Hashtable, (second): null], 5000L)
+
+    then:
+      updated == ['first', 'second']
+      listener.notifications.isEmpty()
+  }
+
+  def "test events received while updating are not missed"() {
+    given:
+      def first = config('first', { listener.configurationEvent(event('first')) })
+      def second = config('second', { listener.configurationEvent(event('second')) })
+
+    when:
+      admin.updateAllAndWait([(first): null, (second): null], 5000L)
+
+    then:
+      notThrown(ConfigTimeoutException)
+      updated == ['first', 'second']
+  }
+
+  def "test waiting stops expecting events once timed out"() {
+    given:
+      def first = config('first', { listener.configurationEvent(event('first')) })
+      def second = config('second', {})
+
+    when:
+      admin.updateAllAndWait([(first): null, (second): null], 100L)
+
+    then:
+      def e = thrown(ConfigTimeoutException)
+      e.message.contains('second')
+      listener.notifications.isEmpty()
+  }
+
+  def "test changes reported once restoring the snapshot has started are restored"() {
+    given:
+      def stabilized = 0
+      def properties = [key: 'value'] as Hashtable
+      def changed = Mock(org.osgi.service.cm.Configuration) {
+        getPid() >> 'changed'
+        getProperties() >> { properties }
+      }
+      def internal = Mock(org.osgi.service.cm.Configuration) {
+        getPid() >> ConfigurationAdmin.INTERNAL_PID
+        update(_) >> {
+          listener.configurationEvent(event(ConfigurationAdmin.INTERNAL_PID))
+          if (++stabilized == 2) {
+            // a component reacting to an earlier change updates a config object while config
+            // admin is being stabilized at the start of the restore
+            properties = [key: 'other'] as Hashtable
+            listener.configurationEvent(event('changed'))
+          }
+        }
+      }
+      cm.getConfiguration(ConfigurationAdmin.INTERNAL_PID) >> internal
+      cm.listConfigurations(_) >> { [changed] as org.osgi.service.cm.Configuration[] }
+      admin.takeSnapshot()
+
+    when:
+      admin.restoreSnapshot()
+
+    then:
+      1 * changed.update({ it.get('key') == 'value' })
+      ConfigurationAdmin.changeLog.pids().isEmpty()
+  }
+
+  private def config(String pid, Closure onUpdate) {
+    def delegate = Mock(org.osgi.service.cm.Configuration) {
+      getPid() >> pid
+      update() >> {
+        updated << pid
+        onUpdate()
+      }
+      update(_) >> {
+        updated << pid
+        onUpdate()
+      }
+    }
+    new Configuration(admin, {}, delegate)
+  }
+
+  private def event(String pid) {
+    new ConfigurationEvent(Mock(ServiceReference), ConfigurationEvent.CM_UPDATED, null, pid)
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.junit.rules
+
+import org.apache.karaf.bundle.core.BundleService
+import org.apache.karaf.features.DeploymentEvent
+import org.apache.karaf.features.DeploymentListener
+import org.apache.karaf.features.FeatureState
+import org.apache.karaf.features.FeaturesService
+import org.codice.junit.rules.MethodRuleChain
+import org.codice.pax.exam.service.ServiceTimeoutException
+import org.osgi.framework.BundleContext
+import spock.lang.Specification
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class ServiceAdminSpec extends Specification {
+  static final String ID = 'feature/1.0'
+
+  volatile FeatureState state = FeatureState.Resolved
+  List<DeploymentListener> listeners = new CopyOnWriteArrayList<>()
+
+  def features = Mock(FeaturesService) {
+    getState(ID) >> { state }
+    registerListener(_ as DeploymentListener) >> { DeploymentListener l -> listeners << l }
+    unregisterListener(_ as DeploymentListener) >> { DeploymentListener l -> listeners.remove(l) }
+  }
+  def context = Mock(BundleContext) {
+    getBundles() >> []
+  }
+  def admin = new ServiceAdmin(0L, 0L)
+
+  def setup() {
+    def field = MethodRuleChain.getDeclaredField('rules')
+
+    field.accessible = true
+    field.get(admin).with {
+      set(0, new Injected(FeaturesService, features))
+      set(1, new Injected(BundleService, Mock(BundleService)))
+      set(2, new Injected(BundleContext, context))
+    }
+  }
+
+  def cleanup() {
+    admin.closeScheduler()
+  }
+
+  def "test waiting asynchronously completes as soon as the feature changes"() {
+    given:
+      def future = admin.waitForFeatureAsync('feature', '1.0', { it == FeatureState.Started }, 30000L)
+
+    when:
+      Thread.sleep(100L) // let the first check happen
+      state = FeatureState.Started
+      listeners.each { it.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED) }
+
+    then: // well before the fallback sweep would have noticed
+      future.get(300L, TimeUnit.MILLISECONDS) == FeatureState.Started
+
+    and:
+      listeners.isEmpty()
+  }
+
+  def "test continuations of asynchronous waits do not stall other waits"() {
+    given:
+      def running = new CountDownLatch(1)
+      def release = new CountDownLatch(1)
+      def first = admin.waitForFeatureAsync('feature', '1.0', { it == FeatureState.Started }, 30000L)
+      def blocked = first.thenApply {
+        running.countDown()
+        release.await(30L, TimeUnit.SECONDS)
+        Thread.currentThread().name
+      }
+
+    when:
+      state = FeatureState.Started
+      listeners.each { it.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED) }
+
+    then:
+      running.await(5L, TimeUnit.SECONDS)
+
+    when:
+      def second = admin.waitForFeatureAsync('feature', '1.0', { it == FeatureState.Started }, 30000L)
+
+    then:
+      second.get(5L, TimeUnit.SECONDS) == FeatureState.Started
+
+    when:
+      release.countDown()
+
+    then:
+      blocked.get(5L, TimeUnit.SECONDS) == 'ServiceAdmin Feature Waiter Completion'
+  }
+
+  def "test waiting asynchronously fails when timing out"() {
+    when:
+      admin.waitForFeatureAsync('feature', '1.0', { it == FeatureState.Started }, 100L)
+          .get(5L, TimeUnit.SECONDS)
+
+    then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof ServiceTimeoutException
+
+    and:
+      listeners.isEmpty()
+  }
+
+  def "test asynchronous waits are cancelled when the test completes"() {
+    given:
+      def future = admin.waitForFeatureAsync('feature', '1.0', { it == FeatureState.Started }, 30000L)
+
+    when:
+      admin.closeScheduler()
+      future.get(5L, TimeUnit.SECONDS)
+
+    then:
+      thrown(CancellationException)
+
+    and:
+      listeners.isEmpty()
+      admin.scheduler == null
+      admin.completer == null
+  }
+
+  static class Injected<S> extends InjectedService<S> {
+    private final S instance
+
+    Injected(Class<S> clazz, S instance) {
+      super(clazz, 0L)
+      this.instance = instance
+    }
+
+    @Override
+    protected S getService() {
+      instance
+    }
+  }
+}
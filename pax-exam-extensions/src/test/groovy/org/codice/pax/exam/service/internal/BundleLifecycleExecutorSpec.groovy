@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.startlevel.BundleStartLevel
+import org.osgi.framework.wiring.BundleWire
+import org.osgi.framework.wiring.BundleWiring
+import org.osgi.framework.wiring.FrameworkWiring
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+class BundleLifecycleExecutorSpec extends Specification {
+  def wiring = Mock(FrameworkWiring)
+  def context = Mock(BundleContext) {
+    getBundle(0L) >> Mock(Bundle) {
+      adapt(FrameworkWiring) >> wiring
+    }
+  }
+  def executor = new BundleLifecycleExecutor(context)
+  def processed = new CopyOnWriteArrayList<Bundle>()
+
+  def provider = bundle('provider', 1)
+  def dependent = bundle('dependent', 1, provider)
+  def independent = bundle('independent', 1)
+
+  def "test dependents are started after their dependencies"() {
+    given:
+      def bundles = [dependent, independent, provider]
+
+    when:
+      def result = executor.start(bundles, { processed << it; true })
+
+    then:
+      1 * wiring.resolveBundles(bundles)
+
+    and:
+      result
+      processed as Set == bundles as Set
+      processed.indexOf(provider) < processed.indexOf(dependent)
+  }
+
+  def "test dependents are stopped before their dependencies"() {
+    given:
+      def bundles = [provider, independent, dependent]
+
+    when:
+      def result = executor.stop(bundles, { processed << it; true })
+
+    then:
+      0 * wiring.resolveBundles(*_)
+
+    and:
+      result
+      processed as Set == bundles as Set
+      processed.indexOf(dependent) < processed.indexOf(provider)
+  }
+
+  def "test bundles are started in increasing start levels and stopped in decreasing ones"() {
+    given:
+      def early = bundle('early', 10)
+      def late = bundle('late', 20)
+      def bundles = [late, early]
+
+    when:
+      def started = executor.start(bundles, { processed << it; true })
+
+    then:
+      started
+      processed == [early, late]
+
+    when:
+      processed.clear()
+      def stopped = executor.stop(bundles, { processed << it; true })
+
+    then:
+      stopped
+      processed == [late, early]
+  }
+
+  def "test failures are reported while still processing dependents"() {
+    when:
+      def result = executor.start(
+          [provider, dependent, independent], { processed << it; it != provider })
+
+    then:
+      !result
+      processed.size() == 3
+      processed.indexOf(provider) < processed.indexOf(dependent)
+  }
+
+  def "test exceptions from the task are propagated"() {
+    given:
+      def error = new IllegalStateException('failed')
+
+    when:
+      executor.stop([provider, dependent], {
+        if (it == provider) {
+          throw error
+        }
+        true
+      })
+
+    then:
+      def e = thrown(IllegalStateException)
+      e.is(error)
+  }
+
+  private def bundle(String name, int level, Bundle... providers) {
+    def wires = providers.collect { p ->
+      Mock(BundleWire) {
+        getProviderWiring() >> Mock(BundleWiring) {
+          getBundle() >> p
+        }
+      }
+    }
+
+    Mock(Bundle, name: name) {
+      adapt(BundleWiring) >> Mock(BundleWiring) {
+        getRequiredWires(null) >> wires
+      }
+      adapt(BundleStartLevel) >> Mock(BundleStartLevel) {
+        getStartLevel() >> level
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.Version
+import spock.lang.Specification
+
+class BundleProcessorSpec extends Specification {
+  def context = Mock(BundleContext)
+  def processor = new BundleProcessor()
+  def tasks = new TaskList('bundle', new SnapshotReport().reset(true))
+
+  def "test only changed bundles are processed"() {
+    given:
+      def stopped = bundle('stopped', Bundle.RESOLVED)
+      def uninstalled = bundle('reinstalled', Bundle.UNINSTALLED)
+      def reinstalled = bundle('reinstalled', Bundle.INSTALLED)
+      def leftover = bundle('leftover', Bundle.ACTIVE)
+      def missing = bundle('missing', Bundle.UNINSTALLED)
+
+    and:
+      def profile = new Profile(snapshotOnly)
+          .add(snapshot('stopped', Bundle.ACTIVE))
+          .add(snapshot('reinstalled', Bundle.ACTIVE))
+          .add(snapshot('missing', Bundle.ACTIVE))
+
+    when:
+      processor.processChangedBundlesAndPopulateTaskList(
+          context, profile, [stopped, reinstalled, uninstalled, leftover, missing], tasks)
+
+    then:
+      0 * context.getBundles()
+
+    and:
+      tasks.compoundTasks[Operation.START].container == [
+          'stopped/1.0.0': stopped, 'reinstalled/1.0.0': reinstalled
+      ]
+      tasks.tasks[Operation.INSTALL].keySet() == ['missing/1.0.0'] as Set
+      tasks.tasks[Operation.UNINSTALL]?.keySet() == uninstalls
+
+    where:
+      snapshotOnly || uninstalls
+      false        || ['leftover/1.0.0'] as Set
+      true         || null
+  }
+
+  private def bundle(String name, int state) {
+    Mock(Bundle) {
+      getSymbolicName() >> name
+      getVersion() >> new Version('1.0')
+      getState() >> state
+    }
+  }
+
+  private def snapshot(String name, int state) {
+    new BundleSnapshot(name, '1.0', 1L, state, 'mvn:group/' + name + '/1.0')
+  }
+}
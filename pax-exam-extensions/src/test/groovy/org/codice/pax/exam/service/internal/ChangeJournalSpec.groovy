@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.apache.karaf.features.Dependency
+import org.apache.karaf.features.DeploymentEvent
+import org.apache.karaf.features.Feature
+import org.apache.karaf.features.FeatureEvent
+import org.apache.karaf.features.FeaturesService
+import org.apache.karaf.features.Repository
+import org.apache.karaf.features.RepositoryEvent
+import org.osgi.framework.Bundle
+import org.osgi.framework.BundleContext
+import org.osgi.framework.BundleEvent
+import spock.lang.Specification
+
+class ChangeJournalSpec extends Specification {
+  static def URI = java.net.URI.create('mvn:group/repo/1.0/xml/features')
+
+  def context = Mock(BundleContext)
+  def service = Mock(FeaturesService)
+  def journal = new ChangeJournal(context, service)
+
+  def "test journal registers with and unregisters from the context and the service"() {
+    when:
+      def journal = new ChangeJournal(context, service)
+
+    then:
+      1 * context.addBundleListener(_ as ChangeJournal)
+      2 * service.registerListener(_ as ChangeJournal) // as a features and a deployment listener
+
+    and:
+      journal.isTracking(context, service)
+      !journal.isTracking(Mock(BundleContext), service)
+      !journal.isTracking(context, Mock(FeaturesService))
+
+    when:
+      journal.close()
+
+    then:
+      1 * context.removeBundleListener(journal)
+      2 * service.unregisterListener(journal)
+  }
+
+  def "test journal starts invalidated until cleared"() {
+    expect:
+      !journal.isEmpty()
+      journal.allRepositoriesChanged()
+      journal.allFeaturesChanged()
+      journal.allBundlesChanged()
+
+    when:
+      journal.clear()
+
+    then:
+      journal.isEmpty()
+      !journal.allRepositoriesChanged()
+      !journal.allFeaturesChanged()
+      !journal.allBundlesChanged()
+  }
+
+  def "test journal records changed repositories, features, and bundles"() {
+    given:
+      def repository = Mock(Repository) {
+        getURI() >> URI
+      }
+      def feature = Mock(Feature) {
+        getId() >> 'feature/1.0'
+      }
+      def bundle = Mock(Bundle) {
+        getBundleId() >> 12L
+      }
+
+    and:
+      journal.clear()
+
+    when:
+      journal.repositoryEvent(new RepositoryEvent(repository, RepositoryEvent.EventType.RepositoryAdded, false))
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, feature, 'region', false))
+      journal.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle))
+      journal.bundleChanged(new BundleEvent(BundleEvent.STOPPED, bundle))
+
+    then:
+      !journal.isEmpty()
+      !journal.allRepositoriesChanged()
+      !journal.allFeaturesChanged()
+      !journal.allBundlesChanged()
+      journal.repositories() == [URI] as Set
+      journal.features() == ['feature/1.0': 'region']
+      journal.bundles() == [bundle] as Set
+
+    when:
+      journal.clear()
+
+    then:
+      journal.isEmpty()
+      journal.repositories().isEmpty()
+      journal.features().isEmpty()
+      journal.bundles().isEmpty()
+  }
+
+  def "test journal ignores replayed events"() {
+    given:
+      journal.clear()
+
+    when:
+      journal.repositoryEvent(new RepositoryEvent(Mock(Repository), RepositoryEvent.EventType.RepositoryAdded, true))
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, Mock(Feature), 'region', true))
+
+    then:
+      journal.isEmpty()
+  }
+
+  def "test a deployment only marks the features it reported as changed"() {
+    given:
+      def feature = Mock(Feature) {
+        getId() >> 'feature/1.0'
+        getDependencies() >> []
+      }
+
+    and:
+      journal.clear()
+
+    when:
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+
+    then: "all features are considered changed until the deployment finishes"
+      journal.allFeaturesChanged()
+      !journal.isEmpty()
+
+    when:
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, feature, 'region', false))
+      journal.deploymentEvent(DeploymentEvent.BUNDLES_INSTALLED)
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED)
+
+    then:
+      !journal.allFeaturesChanged()
+      journal.features() == ['feature/1.0': 'region']
+      !journal.allRepositoriesChanged()
+      !journal.allBundlesChanged()
+  }
+
+  def "test a deployment also marks the transitive dependencies of the features it reported as changed"() {
+    given:
+      def dependency = Mock(Feature) {
+        getId() >> 'dependency/1.0'
+        getDependencies() >> [Mock(Dependency) {
+          getName() >> 'transitive'
+        }]
+      }
+      def transitive = Mock(Feature) {
+        getId() >> 'transitive/1.0'
+        getDependencies() >> []
+      }
+      def feature = Mock(Feature) {
+        getId() >> 'feature/1.0'
+        getDependencies() >> [Mock(Dependency) {
+          getName() >> 'dependency'
+        }]
+      }
+
+    and:
+      service.getFeatures('dependency') >> ([dependency] as Feature[])
+      service.getFeatures('transitive') >> ([transitive] as Feature[])
+
+    and:
+      journal.clear()
+
+    when: "the deployment installs the feature and starts its already installed dependencies without reporting them"
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, feature, 'region', false))
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED)
+
+    then:
+      !journal.allFeaturesChanged()
+      journal.features() == ['feature/1.0': 'region', 'dependency/1.0': 'region', 'transitive/1.0': 'region']
+  }
+
+  def "test a deployment whose dependencies cannot be resolved marks all features as changed"() {
+    given:
+      def feature = Mock(Feature) {
+        getId() >> 'feature/1.0'
+        getDependencies() >> [Mock(Dependency) {
+          getName() >> 'dependency'
+        }]
+      }
+
+    and:
+      service.getFeatures('dependency') >> { throw new Exception('testing') }
+
+    and:
+      journal.clear()
+
+    when:
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, feature, 'region', false))
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED)
+
+    then:
+      journal.allFeaturesChanged()
+  }
+
+  def "test a deployment without feature events marks all features as changed"() {
+    given:
+      journal.clear()
+
+    when:
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED)
+
+    then:
+      journal.allFeaturesChanged()
+      !journal.allRepositoriesChanged()
+      !journal.allBundlesChanged()
+  }
+
+  def "test a deployment that never finished marks all features as changed"() {
+    given:
+      def feature = Mock(Feature) {
+        getId() >> 'feature/1.0'
+      }
+
+    and:
+      journal.clear()
+
+    when:
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureInstalled, feature, 'region', false))
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED)
+      journal.featureEvent(new FeatureEvent(FeatureEvent.EventType.FeatureUninstalled, feature, 'region', false))
+      journal.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED)
+
+    then:
+      journal.allFeaturesChanged()
+  }
+
+  def "test invalidating the journal marks everything as changed"() {
+    given:
+      journal.clear()
+
+    when:
+      journal.invalidate()
+
+    then:
+      !journal.isEmpty()
+      journal.allRepositoriesChanged()
+      journal.allFeaturesChanged()
+      journal.allBundlesChanged()
+  }
+}
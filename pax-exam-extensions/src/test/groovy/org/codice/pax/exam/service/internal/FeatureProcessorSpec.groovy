@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.apache.karaf.features.Feature
+import org.apache.karaf.features.FeatureState
+import org.apache.karaf.features.FeaturesService
+import spock.lang.Specification
+
+class FeatureProcessorSpec extends Specification {
+  def stopped = feature('stopped', '1.0')
+  def leftover = feature('leftover', '1.0')
+  def missing = feature('missing', '1.0')
+
+  def service = Mock(FeaturesService) {
+    getFeature('stopped', '1.0') >> stopped
+    getFeature('leftover', '1.0') >> leftover
+    getState('stopped/1.0') >> FeatureState.Resolved
+    getState('leftover/1.0') >> FeatureState.Started
+    isRequired(stopped) >> true
+  }
+  def processor = new FeatureProcessor(service)
+  def tasks = new TaskList('feature', new SnapshotReport().reset(true))
+
+  def "test only changed features are processed"() {
+    given:
+      def profile = new Profile(snapshotOnly)
+          .add(snapshot(stopped, FeatureState.Started))
+          .add(snapshot(missing, FeatureState.Started))
+
+    when:
+      processor.processChangedFeaturesAndPopulateTaskList(
+          profile, ['stopped/1.0', 'leftover/1.0', 'missing/1.0'], tasks)
+
+    then:
+      0 * service.listFeatures()
+
+    and:
+      tasks.compoundTasks[Operation.START].container == [root: [stopped] as Set]
+      tasks.compoundTasks[Operation.INSTALL].container.root*.id == ['missing/1.0']
+      tasks.compoundTasks[Operation.UNINSTALL]?.container?.root*.id == uninstalls
+
+    where:
+      snapshotOnly || uninstalls
+      false        || ['leftover/1.0']
+      true         || null
+  }
+
+  private def feature(String name, String version) {
+    Mock(Feature) {
+      getId() >> name + '/' + version
+      getName() >> name
+      getVersion() >> version
+    }
+  }
+
+  private def snapshot(Feature feature, FeatureState state) {
+    new FeatureSnapshot(feature, Stub(FeaturesService) {
+      getState(feature.id) >> state
+      isRequired(feature) >> true
+    })
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.apache.karaf.features.Feature
+import org.apache.karaf.features.FeatureState
+import org.apache.karaf.features.FeaturesService
+import org.apache.karaf.features.Repository
+import org.osgi.framework.Bundle
+import spock.lang.Specification
+
+class ProfileSpec extends Specification {
+  static def URI = java.net.URI.create('mvn:group/repo/1.0/xml/features')
+
+  def "test snapshot profile indexes its features and bundles"() {
+    given:
+      def feature = snapshot('a', '1.0', FeatureState.Started)
+      def duplicate = snapshot('a', '1.0', FeatureState.Resolved)
+      def bundle = new BundleSnapshot('b', '1.0', 1L, Bundle.ACTIVE, 'mvn:group/b/1.0')
+
+    when:
+      def profile = new Profile(
+          [Mock(Repository) { getURI() >> URI }].stream(),
+          [feature, duplicate].stream(),
+          [bundle].stream())
+
+    then:
+      !profile.shouldOnlyProcessSnapshot()
+      profile.isRecorded(URI)
+      !profile.isRecorded(java.net.URI.create('mvn:group/other/1.0/xml/features'))
+      profile.getFeature('a/1.0').is(feature) // first one recorded wins
+      profile.getFeature('a/2.0') == null
+      profile.getBundle('b/1.0.0').is(bundle)
+      profile.getBundle('b/2.0.0') == null
+  }
+
+  def "test features and bundles added to a profile are indexed"() {
+    given:
+      def feature = snapshot('a', '1.0', FeatureState.Started)
+      def bundle = new BundleSnapshot('b', '1.0', 1L, Bundle.ACTIVE, 'mvn:group/b/1.0')
+
+    when:
+      def profile = new Profile(true).add(URI).add(feature).add(bundle)
+
+    then:
+      profile.shouldOnlyProcessSnapshot()
+      profile.isRecorded(URI)
+      profile.getFeature('a/1.0').is(feature)
+      profile.getBundle('b/1.0.0').is(bundle)
+  }
+
+  private def snapshot(String name, String version, FeatureState state) {
+    def feature = Mock(Feature) {
+      getId() >> name + '/' + version
+      getName() >> name
+      getVersion() >> version
+    }
+
+    new FeatureSnapshot(feature, Stub(FeaturesService) {
+      getState(feature.id) >> state
+    })
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.apache.karaf.features.Feature
+import org.apache.karaf.features.FeaturesService
+import org.apache.karaf.features.Repository
+import org.codice.pax.exam.service.ServiceException
+import spock.lang.Specification
+
+class RepositoryProcessorSpec extends Specification {
+  static def KEPT = URI.create('mvn:group/kept/1.0/xml/features')
+  static def REMOVED = URI.create('mvn:group/removed/1.0/xml/features')
+  static def ADDED = URI.create('mvn:group/added/1.0/xml/features')
+
+  def service = Mock(FeaturesService)
+  def report = new SnapshotReport().reset(true)
+  def processor = new RepositoryProcessor(service)
+  def changes = new RepositoryProcessor.RepositoryChanges()
+
+  def setup() {
+    changes.uninstalls << REMOVED
+    changes.installs << ADDED
+    service.listRepositories() >> [repository(KEPT), repository(REMOVED, feature('removed', '1.0'))]
+    service.getRepository(REMOVED) >> repository(REMOVED, feature('removed', '1.0'))
+    service.listRequirements() >> [
+        root: ['feature:kept/[1.0,1.0]', 'feature:removed/[1.0,1.0]'] as Set
+    ]
+  }
+
+  def "test repositories are updated using a single deployment"() {
+    when:
+      def result = processor.updateRepositories(report, changes)
+
+    then:
+      1 * service.updateReposAndRequirements(
+          { it == [KEPT, ADDED] as Set },
+          { it == [root: ['feature:kept/[1.0,1.0]'] as Set] },
+          { it == EnumSet.of(FeaturesService.Option.NoAutoRefreshBundles) })
+      0 * service.addRepository(*_)
+      0 * service.removeRepository(*_)
+
+    and:
+      result
+      report.wasSuccessful()
+  }
+
+  def "test a failed deployment is reported for each repositories"() {
+    given:
+      service.updateReposAndRequirements(*_) >> { throw new Exception('failed') }
+
+    when:
+      def result = processor.updateRepositories(report, changes)
+
+    then:
+      !result
+
+    when:
+      report.failIfErrorsWereRecorded()
+
+    then:
+      def e = thrown(ServiceException)
+      e.message.contains('uninstall repository [' + REMOVED + ']')
+      e.suppressed.length == 1
+      e.suppressed[0].message.contains('install repository [' + ADDED + ']')
+  }
+
+  def "test only changed repositories are processed"() {
+    given:
+      def tasks = new TaskList('repository', report)
+      service.getRepository(KEPT) >> repository(KEPT)
+
+    when:
+      processor.processChangedRepositoriesAndPopulateTaskList(
+          new Profile(snapshotOnly).add(KEPT).add(ADDED), [KEPT, REMOVED, ADDED], tasks)
+
+    then:
+      0 * service.listRepositories()
+
+    and:
+      def changes = tasks.compoundTasks[Operation.UPDATE].container
+      changes.installs == [ADDED] as Set
+      changes.uninstalls == uninstalls as Set
+
+    where:
+      snapshotOnly || uninstalls
+      false        || [REMOVED]
+      true         || []
+  }
+
+  private def repository(URI uri, Feature... features) {
+    Mock(Repository) {
+      getURI() >> uri
+      getFeatures() >> features
+    }
+  }
+
+  private def feature(String name, String version) {
+    Mock(Feature) {
+      getName() >> name
+      getVersion() >> version
+    }
+  }
+}
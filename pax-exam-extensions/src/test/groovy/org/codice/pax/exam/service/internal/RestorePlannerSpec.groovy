@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.pax.exam.service.internal
+
+import org.apache.karaf.features.Feature
+import org.apache.karaf.features.FeatureState
+import org.apache.karaf.features.FeaturesService
+import spock.lang.Specification
+
+class RestorePlannerSpec extends Specification {
+  def a = feature('a', '1.0')
+  def b = feature('b', '1.0')
+  def c = feature('c', '1.0')
+  def d = feature('d', '1.0')
+
+  def service = Mock(FeaturesService) {
+    listFeatures() >> [a, b, c, d]
+    listRepositories() >> []
+    listRequirements() >> [root: ['feature:a/[1.0,1.0]', 'feature:b/[1.0,1.0]'] as Set]
+    getState('a/1.0') >> FeatureState.Started
+    getState('b/1.0') >> FeatureState.Started
+    getState('c/1.0') >> FeatureState.Uninstalled
+    getState('d/1.0') >> FeatureState.Resolved
+    isRequired(a) >> true
+    isRequired(b) >> true
+  }
+  def planner = new RestorePlanner(service)
+
+  def "test requirements are planned for missing and left over features"() {
+    given:
+      def profile = new Profile(
+          [].stream(),
+          [snapshot(a, FeatureState.Started, true), snapshot(c, FeatureState.Started, true)].stream(),
+          [].stream())
+
+    expect:
+      planner.planRequirements(profile, null) == [root: ['feature:a/[1.0,1.0]', 'feature:c/[1.0,1.0]'] as Set]
+  }
+
+  def "test no requirements are planned when they already match"() {
+    given:
+      def profile = new Profile(
+          [].stream(),
+          [snapshot(a, FeatureState.Started, true), snapshot(b, FeatureState.Started, true)].stream(),
+          [].stream())
+
+    expect:
+      planner.planRequirements(profile, null) == null
+  }
+
+  def "test requirements for all versions of a stopped feature are removed when only processing the profile"() {
+    given:
+      def profile = new Profile(true).add(new FeatureSnapshot(Stub(org.codice.pax.exam.service.Feature.Stop) {
+        name() >> 'b'
+      }))
+
+    expect:
+      planner.planRequirements(profile, null) == [root: ['feature:a/[1.0,1.0]'] as Set]
+  }
+
+  def "test features state is planned only for installed features not in their expected state"() {
+    given:
+      def profile = new Profile(
+          [].stream(),
+          [
+              snapshot(a, FeatureState.Resolved, true),
+              snapshot(b, FeatureState.Started, true),
+              snapshot(c, FeatureState.Started, true),
+              snapshot(d, FeatureState.Started, false)
+          ].stream(),
+          [].stream())
+
+    expect:
+      planner.planFeaturesState(profile, null) == [
+          root: ['a/1.0': FeatureState.Resolved, 'd/1.0': FeatureState.Started]
+      ]
+  }
+
+  def "test the plan is applied using single deployments"() {
+    given:
+      def profile = new Profile(
+          [].stream(),
+          [snapshot(a, FeatureState.Resolved, true), snapshot(b, FeatureState.Started, true)].stream(),
+          [].stream())
+
+    when:
+      def result = planner.restore(profile, null)
+
+    then:
+      0 * service.updateReposAndRequirements(*_)
+      1 * service.updateFeaturesState({ it == [root: ['a/1.0': FeatureState.Resolved]] }, _)
+
+    and:
+      result
+  }
+
+  def "test a failure to apply the plan is reported"() {
+    given:
+      def profile = new Profile(
+          [].stream(), [snapshot(c, FeatureState.Started, true)].stream(), [].stream())
+
+    when:
+      def result = planner.restore(profile, null)
+
+    then:
+      1 * service.updateReposAndRequirements(*_) >> { throw new Exception('failed') }
+      0 * service.updateFeaturesState(*_)
+
+    and:
+      !result
+  }
+
+  def "test only features reported by the journal are planned for"() {
+    given:
+      def profile = new Profile(
+          [].stream(),
+          [
+              snapshot(a, FeatureState.Resolved, true),
+              snapshot(b, FeatureState.Started, true),
+              snapshot(c, FeatureState.Started, true)
+          ].stream(),
+          [].stream())
+      def journal = Stub(ChangeJournal) {
+        allRepositoriesChanged() >> false
+        allFeaturesChanged() >> false
+        repositories() >> ([] as Set)
+        features() >> ['c/1.0': 'root']
+      }
+
+    when:
+      def result = planner.restore(profile, journal)
+
+    then:
+      1 * service.updateReposAndRequirements(
+          _, { it == [root: ['feature:a/[1.0,1.0]', 'feature:b/[1.0,1.0]', 'feature:c/[1.0,1.0]'] as Set] }, _)
+      0 * service.updateFeaturesState(*_)
+      0 * service.getState('a/1.0')
+
+    and:
+      result
+  }
+
+  def "test only repositories reported by the journal are planned for"() {
+    given:
+      def profile = new Profile(false).add('mvn:group/added/1.0/xml/features')
+      def uris = [
+          new URI('mvn:group/added/1.0/xml/features'), new URI('mvn:group/removed/1.0/xml/features')
+      ] as Set
+
+    expect:
+      planner.planChangedRepositories(profile, uris) == [new URI('mvn:group/added/1.0/xml/features')] as Set
+  }
+
+  private def feature(String name, String version) {
+    Mock(Feature) {
+      getId() >> name + '/' + version
+      getName() >> name
+      getVersion() >> version
+    }
+  }
+
+  private def snapshot(Feature feature, FeatureState state, boolean required) {
+    new FeatureSnapshot(feature, Stub(FeaturesService) {
+      getState(feature.id) >> state
+      isRequired(feature) >> required
+    })
+  }
+}